@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lowers the rate at which the hits of low priority hit types (see
+ * {@link GoogleAnalyticsConfig#setHitPriority(String, HitPriority)}) are
+ * kept while sending falls behind, and raises it again once it catches up
+ * (see {@link GoogleAnalyticsConfig#setAdaptiveSamplingEnabled(boolean)}).
+ *
+ * <p>Sending is behind if the async hits waiting or being sent exceed the
+ * max queue depth, or the average send latency since the last adjustment
+ * exceeds the max latency. Rate is then halved, down to the min rate. It is
+ * raised by a tenth once both are below half of their max, and held in
+ * between, so it does not swing back and forth around the limits.
+ */
+class AdaptiveSampler {
+
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double INCREASE_STEP = 0.1;
+
+    private final GoogleAnalyticsConfig config;
+    private final int maxQueueDepth;
+    private final long maxLatency;
+    private final double minRate;
+
+    private volatile double rate = 1;
+    private final AtomicLong latencySum = new AtomicLong();
+    private final AtomicLong latencyCount = new AtomicLong();
+
+    AdaptiveSampler(GoogleAnalyticsConfig config) {
+        this.config = config;
+        this.maxQueueDepth = Math.max(1, config.getAdaptiveSamplingMaxQueueDepth());
+        this.maxLatency = Math.max(1, config.getAdaptiveSamplingMaxLatency());
+        this.minRate = Math.min(1, Math.max(0, config.getAdaptiveSamplingMinRate()));
+    }
+
+    /**
+     * Records the time taken by a request to GA, in milliseconds.
+     */
+    void recordLatency(long latency) {
+        latencySum.addAndGet(latency);
+        latencyCount.incrementAndGet();
+    }
+
+    /**
+     * Adjusts the rate as per the given number of async hits waiting or being
+     * sent, and the latency recorded since the last adjustment.
+     *
+     * @return the new rate.
+     */
+    double adjust(int queueDepth) {
+        long count = latencyCount.getAndSet(0);
+        long sum = latencySum.getAndSet(0);
+        long latency = count == 0 ? 0 : sum / count;
+
+        double current = rate;
+        if (queueDepth > maxQueueDepth || latency > maxLatency) {
+            current = Math.max(minRate, current * DECREASE_FACTOR);
+        } else if (queueDepth <= maxQueueDepth / 2 && latency <= maxLatency / 2) {
+            //Rounding errors must not keep it just below 1
+            current = current + INCREASE_STEP < 1 - INCREASE_STEP / 2 ? current + INCREASE_STEP : 1;
+        }
+        rate = current;
+        return current;
+    }
+
+    /**
+     * @return the rate at which the low priority hits are kept.
+     */
+    double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return the rate at which the hits of given hit type are kept, which is
+     *         1 for the hit types which are not low priority.
+     */
+    double getRate(String hitType) {
+        return config.getHitPriority(hitType) == HitPriority.LOW ? rate : 1;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker in front of GA, which stops sending the hits while GA is
+ * failing, so that threads are not held up waiting for the timeouts.
+ *
+ * <p>Outcome of the requests is tracked over a sliding time window, divided
+ * into buckets. Circuit is <em>closed</em> normally. Once the window has at
+ * least the minimum number of requests, and the rate of the failed or the
+ * slow requests reaches the threshold, circuit <em>opens</em> and requests
+ * are not allowed. After the open duration, circuit is <em>half open</em>
+ * and a single request is allowed through as a probe; circuit closes if it
+ * succeeds or opens again otherwise.
+ */
+class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final int BUCKETS = 10;
+
+    private final long bucketMillis;
+    private final float failureRate;
+    private final long slowCallDuration;
+    private final int minimumCalls;
+    private final long openDuration;
+
+    /** Index (time divided by bucket length) of the time slot each bucket is counting. */
+    private final long[] slots = new long[BUCKETS];
+    private final int[] calls = new int[BUCKETS];
+    private final int[] failures = new int[BUCKETS];
+    private final int[] slowCalls = new int[BUCKETS];
+
+    private State state = State.CLOSED;
+    private long openedAt = 0;
+    private boolean probing = false;
+
+    CircuitBreaker(GoogleAnalyticsConfig config) {
+        this.bucketMillis = Math.max(1, config.getCircuitBreakerWindow() / BUCKETS);
+        this.failureRate = config.getCircuitBreakerFailureRate();
+        this.slowCallDuration = config.getCircuitBreakerSlowCallDuration();
+        this.minimumCalls = Math.max(1, config.getCircuitBreakerMinimumCalls());
+        this.openDuration = config.getCircuitBreakerOpenDuration();
+        reset();
+    }
+
+    /**
+     * @return true if a request can be sent now. If so, its outcome must be
+     *         reported with {@link #record(long, long, boolean)}.
+     */
+    synchronized boolean allowRequest(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+
+            case OPEN:
+                if (now - openedAt < openDuration) {
+                    return false;
+                }
+                logger.info("Google Analytics circuit breaker is half open, probing with a hit");
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+
+            default: //HALF_OPEN
+                if (probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+        }
+    }
+
+    /**
+     * Records the outcome of a request allowed by {@link #allowRequest(long)}.
+     *
+     * @param duration time taken by the request in milliseconds.
+     * @param failed true if request failed.
+     */
+    synchronized void record(long now, long duration, boolean failed) {
+        boolean slow = slowCallDuration > 0 && duration >= slowCallDuration;
+
+        if (state == State.HALF_OPEN) {
+            probing = false;
+            if (failed || slow) {
+                open(now);
+            } else {
+                logger.info("Google Analytics circuit breaker is closed");
+                state = State.CLOSED;
+                reset();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            //Request sent before the circuit opened
+            return;
+        }
+
+        long slot = now / bucketMillis;
+        int index = (int) (slot % BUCKETS);
+        if (slots[index] != slot) {
+            slots[index] = slot;
+            calls[index] = 0;
+            failures[index] = 0;
+            slowCalls[index] = 0;
+        }
+        calls[index]++;
+        if (failed) {
+            failures[index]++;
+        }
+        if (slow) {
+            slowCalls[index]++;
+        }
+
+        int totalCalls = 0;
+        int totalFailures = 0;
+        int totalSlowCalls = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (slot - slots[i] < BUCKETS) {
+                totalCalls += calls[i];
+                totalFailures += failures[i];
+                totalSlowCalls += slowCalls[i];
+            }
+        }
+        if (totalCalls >= minimumCalls
+                && (totalFailures >= failureRate * totalCalls || totalSlowCalls >= failureRate * totalCalls)) {
+            open(now);
+        }
+    }
+
+    private void open(long now) {
+        logger.warn("Google Analytics is failing, circuit breaker is open for " + openDuration + "ms");
+        state = State.OPEN;
+        openedAt = now;
+        reset();
+    }
+
+    private void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            slots[i] = -BUCKETS;
+            calls[i] = 0;
+            failures[i] = 0;
+            slowCalls[i] = 0;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
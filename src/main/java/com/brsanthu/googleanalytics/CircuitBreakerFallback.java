@@ -0,0 +1,34 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+/**
+ * What to do with the hits which are not sent because the circuit breaker is open
+ * (see {@link GoogleAnalyticsConfig#setCircuitBreakerEnabled(boolean)}).
+ *
+ * <p>Such hits are counted in {@link GoogleAnalyticsStats#getShortCircuitedHits()}, and the
+ * response returned for them has status code 503.
+ */
+public enum CircuitBreakerFallback {
+	/**
+	 * Hits are discarded and counted in {@link GoogleAnalyticsStats#getDroppedHits()}.
+	 */
+	DROP,
+
+	/**
+	 * Hits are stored in the spool (see {@link GoogleAnalyticsConfig#setSpoolDirectory(String)}), to be sent once
+	 * GA recovers. Hits are discarded if there is no spool.
+	 */
+	SPOOL
+}
@@ -0,0 +1,303 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Custom dimensions or metrics of a request, stored in arrays indexed by the
+ * custom dimension/metric index (1 to {@link #MAX_INDEX}), with a bitmask of
+ * the indexes which are set.
+ *
+ * <p>An index can be set with null value, which overrides the default request
+ * value so that nothing is posted for it. Metrics set as <code>long</code> are
+ * kept as is and formatted only when encoded.
+ */
+final class CustomParameters {
+
+    /** Highest custom dimension/metric index allowed by GA (premium accounts). */
+    static final int MAX_INDEX = 200;
+
+    private static final int WORDS = (MAX_INDEX >>> 6) + 1;
+
+    static final byte[][] DIMENSION_KEYS = keys("cd");
+    static final byte[][] METRIC_KEYS = keys("cm");
+
+    private static byte[][] keys(String prefix) {
+        byte[][] keys = new byte[MAX_INDEX + 1][];
+        for (int i = 1; i <= MAX_INDEX; i++) {
+            keys[i] = (prefix + i + "=").getBytes(GoogleAnalytics.UTF8);
+        }
+        return keys;
+    }
+
+    private final String prefix;
+    private final byte[][] keys;
+
+    private final long[] present = new long[WORDS];
+    private final long[] numeric = new long[WORDS];
+    private String[] values = null;
+    private long[] numbers = null;
+
+    private final Map<String, String> view = new View();
+
+    CustomParameters(String prefix, byte[][] keys) {
+        this.prefix = prefix;
+        this.keys = keys;
+    }
+
+    static void checkIndex(int index) {
+        if (index < 1 || index > MAX_INDEX) {
+            throw new IllegalArgumentException("Custom dimension/metric index must be between 1 and " + MAX_INDEX + ", but was " + index);
+        }
+    }
+
+    void set(int index, String value) {
+        checkIndex(index);
+        if (values == null) {
+            values = new String[MAX_INDEX + 1];
+        }
+        values[index] = value;
+        numeric[index >>> 6] &= ~(1L << index);
+        present[index >>> 6] |= 1L << index;
+    }
+
+    void set(int index, long value) {
+        checkIndex(index);
+        if (numbers == null) {
+            numbers = new long[MAX_INDEX + 1];
+        }
+        numbers[index] = value;
+        if (values != null) {
+            values[index] = null;
+        }
+        numeric[index >>> 6] |= 1L << index;
+        present[index >>> 6] |= 1L << index;
+    }
+
+    void remove(int index) {
+        checkIndex(index);
+        present[index >>> 6] &= ~(1L << index);
+        numeric[index >>> 6] &= ~(1L << index);
+        if (values != null) {
+            values[index] = null;
+        }
+    }
+
+    boolean isSet(int index) {
+        return index >= 1 && index <= MAX_INDEX && (present[index >>> 6] & (1L << index)) != 0;
+    }
+
+    boolean isNumeric(int index) {
+        return (numeric[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * @return value of the given index, formatted if it was set as number.
+     */
+    String get(int index) {
+        if (!isSet(index)) {
+            return null;
+        }
+        if (isNumeric(index)) {
+            long[] n = numbers;
+            return n == null ? null : Long.toString(n[index]);
+        }
+        String[] v = values;
+        return v == null ? null : v[index];
+    }
+
+    long getNumber(int index) {
+        return numbers[index];
+    }
+
+    /**
+     * @return the first index which is set, starting from given index (inclusive), or -1.
+     */
+    int next(int fromIndex) {
+        int word = fromIndex >>> 6;
+        if (word >= WORDS) {
+            return -1;
+        }
+
+        long bits = present[word] & (-1L << fromIndex);
+        while (true) {
+            if (bits != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++word == WORDS) {
+                return -1;
+            }
+            bits = present[word];
+        }
+    }
+
+    /**
+     * @return word <code>w</code> of the bitmask of the indexes which are set.
+     */
+    long presentWord(int w) {
+        return present[w];
+    }
+
+    int size() {
+        int count = 0;
+        for (long word : present) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @return encoded <code>cdN=</code>/<code>cmN=</code> key of given index.
+     */
+    byte[] key(int index) {
+        return keys[index];
+    }
+
+    String name(int index) {
+        return prefix + index;
+    }
+
+    /**
+     * @return index of the given name (like <code>cd5</code>) or -1 if it is not valid.
+     */
+    int indexOf(Object name) {
+        if (!(name instanceof String) || !((String) name).startsWith(prefix)) {
+            return -1;
+        }
+
+        String suffix = ((String) name).substring(prefix.length());
+        if (suffix.length() == 0 || suffix.length() > 3 || suffix.charAt(0) == '0') {
+            return -1;
+        }
+        int index = 0;
+        for (int i = 0; i < suffix.length(); i++) {
+            char c = suffix.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index <= MAX_INDEX ? index : -1;
+    }
+
+    /**
+     * @return map view keyed by the parameter name (like <code>cd5</code>),
+     *         backed by this object.
+     */
+    Map<String, String> asMap() {
+        return view;
+    }
+
+    @Override
+    public String toString() {
+        return view.toString();
+    }
+
+    private class View extends AbstractMap<String, String> {
+
+        @Override
+        public String get(Object key) {
+            int index = indexOf(key);
+            return index < 0 ? null : CustomParameters.this.get(index);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return isSet(indexOf(key));
+        }
+
+        @Override
+        public String put(String key, String value) {
+            int index = indexOf(key);
+            if (index < 0) {
+                throw new IllegalArgumentException("Not a valid custom parameter name " + key);
+            }
+            String previous = CustomParameters.this.get(index);
+            set(index, value);
+            return previous;
+        }
+
+        @Override
+        public String remove(Object key) {
+            int index = indexOf(key);
+            if (!isSet(index)) {
+                return null;
+            }
+            String previous = CustomParameters.this.get(index);
+            CustomParameters.this.remove(index);
+            return previous;
+        }
+
+        @Override
+        public int size() {
+            return CustomParameters.this.size();
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new Iterator<Map.Entry<String, String>>() {
+                        private int next = CustomParameters.this.next(1);
+                        private int last = -1;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next >= 0;
+                        }
+
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            if (next < 0) {
+                                throw new NoSuchElementException();
+                            }
+                            last = next;
+                            next = CustomParameters.this.next(next + 1);
+                            return new SimpleEntry<String, String>(name(last), CustomParameters.this.get(last)) {
+                                private static final long serialVersionUID = 1L;
+
+                                @Override
+                                public String setValue(String value) {
+                                    set(indexOf(getKey()), value);
+                                    return super.setValue(value);
+                                }
+                            };
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (last < 0) {
+                                throw new IllegalStateException();
+                            }
+                            CustomParameters.this.remove(last);
+                            last = -1;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return CustomParameters.this.size();
+                }
+            };
+        }
+    }
+}
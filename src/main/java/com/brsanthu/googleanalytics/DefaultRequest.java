@@ -45,12 +45,24 @@ import static com.brsanthu.googleanalytics.GoogleAnalyticsParameter.USER_TIMING_
 import static com.brsanthu.googleanalytics.GoogleAnalyticsParameter.USER_TIMING_TIME;
 import static com.brsanthu.googleanalytics.GoogleAnalyticsParameter.USER_TIMING_VARIABLE_NAME;
 
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
  * Default request that captures default value for any of the parameters. Create an instance of
  * this object and specify as constructor parameter to {@link GoogleAnalytics} or set one any time using
  * {@link GoogleAnalytics#setDefaultRequest(DefaultRequest)} method.
+ * <p>
+ * Default request can be changed using the setters while hits are being posted. Setters are
+ * synchronized and posting threads use an immutable, encoded snapshot of the parameters, which
+ * is taken again once the request is changed. The map returned by {@link #getParameters()} goes
+ * through the same setters, so changes made to it are picked up by the next hit. So are the
+ * changes made to the maps returned by {@link #customDimentions()} and {@link #custommMetrics()},
+ * which are synchronized the same way. Their entry sets are read only copies taken when asked.
  *
  * @author Santhosh Kumar
  */
@@ -58,6 +70,11 @@ public class DefaultRequest extends GoogleAnalyticsRequest<DefaultRequest>{
 
 	private final static String DEFAULT_CLIENT_ID = UUID.randomUUID().toString();
 
+	private volatile EncodedDefaultRequest snapshot = null;
+
+	private final Map<String, String> dimensionsView = new SynchronizedView(customDimentions);
+	private final Map<String, String> metricsView = new SynchronizedView(customMetrics);
+
 	public DefaultRequest() {
 		this(null, null, null, null);
 	}
@@ -75,6 +92,150 @@ public class DefaultRequest extends GoogleAnalyticsRequest<DefaultRequest>{
 		clientId(DEFAULT_CLIENT_ID);
 	}
 
+	/**
+	 * Synchronized, so concurrent changes do not lose any parameters.
+	 */
+	@Override
+	protected synchronized DefaultRequest parameter(GoogleAnalyticsParameter parameter, String value) {
+		return super.parameter(parameter, value);
+	}
+
+	@Override
+	synchronized DefaultRequest number(GoogleAnalyticsParameter parameter, byte kind, long bits) {
+		return super.number(parameter, kind, bits);
+	}
+
+	/**
+	 * Same as {@link GoogleAnalyticsRequest#customDimention(int, String)}, except
+	 * that null value removes the default custom dimension.
+	 */
+	@Override
+	public synchronized DefaultRequest customDimention(int index, String value) {
+		if (value == null) {
+			dimensions().remove(index);
+			modified();
+			return this;
+		}
+		return super.customDimention(index, value);
+	}
+
+	/**
+	 * Same as {@link GoogleAnalyticsRequest#customMetric(int, String)}, except
+	 * that null value removes the default custom metric.
+	 */
+	@Override
+	public synchronized DefaultRequest customMetric(int index, String value) {
+		if (value == null) {
+			metrics().remove(index);
+			modified();
+			return this;
+		}
+		return super.customMetric(index, value);
+	}
+
+	@Override
+	public synchronized DefaultRequest customMetric(int index, long value) {
+		return super.customMetric(index, value);
+	}
+
+	/**
+	 * @return synchronized map view of the default custom dimensions keyed by name
+	 *         (like <code>cd5</code>). Changes are picked up by the next hit.
+	 */
+	@Override
+	public Map<String, String> customDimentions() {
+		return dimensionsView;
+	}
+
+	/**
+	 * @return synchronized map view of the default custom metrics keyed by name
+	 *         (like <code>cm5</code>). Changes are picked up by the next hit.
+	 */
+	@Override
+	public Map<String, String> custommMetrics() {
+		return metricsView;
+	}
+
+	/**
+	 * @return immutable, encoded snapshot of the current version of this request.
+	 */
+	EncodedDefaultRequest snapshot() {
+		EncodedDefaultRequest current = snapshot;
+		if (current == null || !current.isCurrent(this)) {
+			current = new EncodedDefaultRequest(this);
+			snapshot = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Custom parameter map that changes the request under its lock and marks it changed.
+	 */
+	private class SynchronizedView extends AbstractMap<String, String> {
+		private final Map<String, String> map;
+
+		SynchronizedView(Map<String, String> map) {
+			this.map = map;
+		}
+
+		@Override
+		public String get(Object key) {
+			synchronized (DefaultRequest.this) {
+				return map.get(key);
+			}
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			synchronized (DefaultRequest.this) {
+				return map.containsKey(key);
+			}
+		}
+
+		@Override
+		public String put(String key, String value) {
+			synchronized (DefaultRequest.this) {
+				String previous = map.put(key, value);
+				modified();
+				return previous;
+			}
+		}
+
+		@Override
+		public String remove(Object key) {
+			synchronized (DefaultRequest.this) {
+				if (!map.containsKey(key)) {
+					return null;
+				}
+				String previous = map.remove(key);
+				modified();
+				return previous;
+			}
+		}
+
+		@Override
+		public void clear() {
+			synchronized (DefaultRequest.this) {
+				map.clear();
+				modified();
+			}
+		}
+
+		@Override
+		public int size() {
+			synchronized (DefaultRequest.this) {
+				return map.size();
+			}
+		}
+
+		@Override
+		public Set<Map.Entry<String, String>> entrySet() {
+			synchronized (DefaultRequest.this) {
+				return Collections.unmodifiableMap(new LinkedHashMap<String, String>(map)).entrySet();
+			}
+		}
+	}
+
 	/**
 	 * <h2 id="events">Event Tracking</h2>
 	 * <div class="ind">
@@ -234,6 +395,14 @@ public class DefaultRequest extends GoogleAnalyticsRequest<DefaultRequest>{
 		setInteger(EVENT_VALUE, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #eventValue(Integer)}, without boxing the value.
+	 */
+	public DefaultRequest eventValue(int value) {
+		setInteger(EVENT_VALUE, value);
+	   	return this;
+	}
 	public Integer eventValue() {
 		return getInteger(EVENT_VALUE);
 	}
@@ -315,6 +484,14 @@ public class DefaultRequest extends GoogleAnalyticsRequest<DefaultRequest>{
 		setBoolean(EXCEPTION_FATAL, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #exceptionFatal(Boolean)}, without boxing the value.
+	 */
+	public DefaultRequest exceptionFatal(boolean value) {
+		setBoolean(EXCEPTION_FATAL, value);
+	   	return this;
+	}
 	public Boolean exceptionFatal() {
 		return getBoolean(EXCEPTION_FATAL);
 	}
@@ -396,6 +573,14 @@ public class DefaultRequest extends GoogleAnalyticsRequest<DefaultRequest>{
 		setDouble(ITEM_PRICE, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #itemPrice(Double)}, without boxing the value.
+	 */
+	public DefaultRequest itemPrice(double value) {
+		setDouble(ITEM_PRICE, value);
+	   	return this;
+	}
 	public Double itemPrice() {
 		return getDouble(ITEM_PRICE);
 	}
@@ -436,6 +621,14 @@ public class DefaultRequest extends GoogleAnalyticsRequest<DefaultRequest>{
 		setInteger(ITEM_QUANTITY, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #itemQuantity(Integer)}, without boxing the value.
+	 */
+	public DefaultRequest itemQuantity(int value) {
+		setInteger(ITEM_QUANTITY, value);
+	   	return this;
+	}
 	public Integer itemQuantity() {
 		return getInteger(ITEM_QUANTITY);
 	}
@@ -798,6 +991,14 @@ public class DefaultRequest extends GoogleAnalyticsRequest<DefaultRequest>{
 		setInteger(USER_TIMING_TIME, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #userTimingTime(Integer)}, without boxing the value.
+	 */
+	public DefaultRequest userTimingTime(int value) {
+		setInteger(USER_TIMING_TIME, value);
+	   	return this;
+	}
 	public Integer userTimingTime() {
 		return getInteger(USER_TIMING_TIME);
 	}
@@ -878,6 +1079,14 @@ public class DefaultRequest extends GoogleAnalyticsRequest<DefaultRequest>{
 		setInteger(PAGE_LOAD_TIME, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #pageLoadTime(Integer)}, without boxing the value.
+	 */
+	public DefaultRequest pageLoadTime(int value) {
+		setInteger(PAGE_LOAD_TIME, value);
+	   	return this;
+	}
 	public Integer pageLoadTime() {
 		return getInteger(PAGE_LOAD_TIME);
 	}
@@ -918,6 +1127,14 @@ public class DefaultRequest extends GoogleAnalyticsRequest<DefaultRequest>{
 		setInteger(DNS_TIME, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #dnsTime(Integer)}, without boxing the value.
+	 */
+	public DefaultRequest dnsTime(int value) {
+		setInteger(DNS_TIME, value);
+	   	return this;
+	}
 	public Integer dnsTime() {
 		return getInteger(DNS_TIME);
 	}
@@ -958,6 +1175,14 @@ public class DefaultRequest extends GoogleAnalyticsRequest<DefaultRequest>{
 		setInteger(PAGE_DOWNLOAD_TIME, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #pageDownloadTime(Integer)}, without boxing the value.
+	 */
+	public DefaultRequest pageDownloadTime(int value) {
+		setInteger(PAGE_DOWNLOAD_TIME, value);
+	   	return this;
+	}
 	public Integer pageDownloadTime() {
 		return getInteger(PAGE_DOWNLOAD_TIME);
 	}
@@ -998,6 +1223,14 @@ public class DefaultRequest extends GoogleAnalyticsRequest<DefaultRequest>{
 		setInteger(REDIRECT_RESPONSE_TIME, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #redirectResponseTime(Integer)}, without boxing the value.
+	 */
+	public DefaultRequest redirectResponseTime(int value) {
+		setInteger(REDIRECT_RESPONSE_TIME, value);
+	   	return this;
+	}
 	public Integer redirectResponseTime() {
 		return getInteger(REDIRECT_RESPONSE_TIME);
 	}
@@ -1038,6 +1271,14 @@ public class DefaultRequest extends GoogleAnalyticsRequest<DefaultRequest>{
 		setInteger(TCP_CONNECT_TIME, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #tcpConnectTime(Integer)}, without boxing the value.
+	 */
+	public DefaultRequest tcpConnectTime(int value) {
+		setInteger(TCP_CONNECT_TIME, value);
+	   	return this;
+	}
 	public Integer tcpConnectTime() {
 		return getInteger(TCP_CONNECT_TIME);
 	}
@@ -1078,6 +1319,14 @@ public class DefaultRequest extends GoogleAnalyticsRequest<DefaultRequest>{
 		setInteger(SERVER_RESPONSE_TIME, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #serverResponseTime(Integer)}, without boxing the value.
+	 */
+	public DefaultRequest serverResponseTime(int value) {
+		setInteger(SERVER_RESPONSE_TIME, value);
+	   	return this;
+	}
 	public Integer serverResponseTime() {
 		return getInteger(SERVER_RESPONSE_TIME);
 	}
@@ -1201,6 +1450,14 @@ public class DefaultRequest extends GoogleAnalyticsRequest<DefaultRequest>{
 	   	return this;
 	}
 
+	/**
+	 * Same as {@link #txRevenue(Double)}, without boxing the value.
+	 */
+	public DefaultRequest txRevenue(double value) {
+		setDouble(TRANSACTION_REVENUE, value);
+	   	return this;
+	}
+
 	public Double txRevenue() {
 		return getDouble(TRANSACTION_REVENUE);
 	}
@@ -1241,6 +1498,14 @@ public class DefaultRequest extends GoogleAnalyticsRequest<DefaultRequest>{
 		setDouble(TRANSACTION_SHIPPING, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #txShipping(Double)}, without boxing the value.
+	 */
+	public DefaultRequest txShipping(double value) {
+		setDouble(TRANSACTION_SHIPPING, value);
+	   	return this;
+	}
 	public Double txShipping() {
 		return getDouble(TRANSACTION_SHIPPING);
 	}
@@ -1281,6 +1546,14 @@ public class DefaultRequest extends GoogleAnalyticsRequest<DefaultRequest>{
 		setDouble(TRANSACTION_TAX, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #txTax(Double)}, without boxing the value.
+	 */
+	public DefaultRequest txTax(double value) {
+		setDouble(TRANSACTION_TAX, value);
+	   	return this;
+	}
 	public Double txTax() {
 		return getDouble(TRANSACTION_TAX);
 	}
@@ -0,0 +1,49 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+/**
+ * How asynchronous hits (see {@link GoogleAnalytics#postAsync(GoogleAnalyticsRequest)}) are handed over
+ * to the threads sending them (see {@link GoogleAnalyticsConfig#setDispatchMode(DispatchMode)}).
+ */
+public enum DispatchMode {
+	/**
+	 * Hits are submitted to a thread pool of {@link GoogleAnalyticsConfig#getMaxThreads()} threads,
+	 * through a blocking queue.
+	 */
+	EXECUTOR,
+
+	/**
+	 * Hits are put in a preallocated ring buffer of {@link GoogleAnalyticsConfig#getQueueCapacity()}
+	 * slots (rounded up to power of two), each claimed by a single compare-and-set, and sent by a
+	 * single consumer thread which drains the buffer in batches. Works best with batching enabled
+	 * (see {@link GoogleAnalyticsConfig#setBatchingEnabled(boolean)}), as hits are sent one at a time
+	 * otherwise.
+	 *
+	 * <p>{@link QueueOverflowPolicy#DROP_OLDEST} is treated as {@link QueueOverflowPolicy#DROP_NEWEST},
+	 * as only the consumer can take the hits out of the buffer.
+	 */
+	RING_BUFFER,
+
+	/**
+	 * Each hit is sent on its own virtual thread (Java 21 and later), so hits blocked on the network do not
+	 * need a platform thread each. Number of hits sent at once is limited to the connection pool size of
+	 * the transport (see {@link GoogleAnalytics#getDefaultMaxPerRoute(GoogleAnalyticsConfig)}), and hits
+	 * waiting for the connection to {@link GoogleAnalyticsConfig#getQueueCapacity()}.
+	 *
+	 * <p>Falls back to {@link #EXECUTOR} if virtual threads are not supported by the JVM.
+	 * {@link QueueOverflowPolicy#DROP_OLDEST} is treated as {@link QueueOverflowPolicy#DROP_NEWEST}.
+	 */
+	VIRTUAL_THREADS
+}
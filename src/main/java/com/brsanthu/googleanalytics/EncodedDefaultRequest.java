@@ -0,0 +1,270 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import static com.brsanthu.googleanalytics.GaUtils.isEmpty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Url encoded parameters of a {@link DefaultRequest}, built once per version of
+ * the default request.
+ *
+ * <p>Each default parameter is encoded once as <code>name=value</code>. The
+ * parameters which are not overridden by a hit are appended together as one
+ * byte copy, cached by the set of overridden parameters, as hits of a kind
+ * tend to override the same few (like hit type) of them.
+ *
+ * <p>Custom dimensions and metrics are merged by and-ing the bitmask of the
+ * hit with the bitmask of the defaults. If hit does not override any of them,
+ * all the defaults are appended as one byte copy.
+ */
+final class EncodedDefaultRequest {
+
+    /** Number of distinct override combinations cached. */
+    private static final int MAX_CACHED_PREFIXES = 32;
+
+    /** Slots of the open addressed prefix cache, kept at most half full. */
+    private static final int PREFIX_SLOTS = 2 * MAX_CACHED_PREFIXES;
+    private static final int PREFIX_SHIFT = Integer.numberOfLeadingZeros(PREFIX_SLOTS - 1);
+
+    /** Overrides can be tracked in a long mask only up to this many parameters. */
+    static final int MAX_MASKED_PARAMETERS = 64;
+
+    private static final GoogleAnalyticsParameter[] PARAMETERS = GoogleAnalyticsParameter.values();
+
+    private final DefaultRequest request;
+    private final int version;
+
+    private final byte[][] encoded;
+    private final int[] indexByOrdinal;
+    private final EncodedCustomParameters dimensions;
+    private final EncodedCustomParameters metrics;
+    private final Prefix[] prefixes = new Prefix[PREFIX_SLOTS];
+    private int cachedPrefixes = 0;
+
+    EncodedDefaultRequest(DefaultRequest request) {
+        //Version is read first, so any change made while encoding invalidates this
+        this.version = request.version();
+        this.request = request;
+
+        List<byte[]> entries = new ArrayList<byte[]>();
+        GoogleAnalyticsPayload payload = new GoogleAnalyticsPayload(256);
+
+        indexByOrdinal = new int[PARAMETERS.length];
+        Arrays.fill(indexByOrdinal, -1);
+        for (int i = request.nextParameter(0); i >= 0; i = request.nextParameter(i + 1)) {
+            String value = request.parameterValue(i);
+            if (!isEmpty(value)) {
+                indexByOrdinal[i] = entries.size();
+                entries.add(encode(payload, PARAMETERS[i].getParameterName(), value));
+            }
+        }
+
+        encoded = entries.toArray(new byte[entries.size()][]);
+
+        dimensions = new EncodedCustomParameters(request.dimensions(), payload);
+        metrics = new EncodedCustomParameters(request.metrics(), payload);
+    }
+
+    private static byte[] encode(GoogleAnalyticsPayload payload, String name, String value) {
+        payload.reset();
+        payload.appendEncoded(name);
+        payload.append((byte) '=');
+        payload.appendEncoded(value);
+        return payload.toByteArray();
+    }
+
+    /**
+     * @return true if this was encoded from the current version of the given request.
+     */
+    boolean isCurrent(DefaultRequest defaultRequest) {
+        return request == defaultRequest && version == defaultRequest.version();
+    }
+
+    DefaultRequest getRequest() {
+        return request;
+    }
+
+    int size() {
+        return encoded.length;
+    }
+
+    /**
+     * @return index of the parameter with given ordinal or -1 if there is no default value for it.
+     */
+    int indexOf(int ordinal) {
+        return indexByOrdinal[ordinal];
+    }
+
+    /**
+     * Appends the default custom dimensions and metrics, except the ones set
+     * in the given request.
+     */
+    @SuppressWarnings("rawtypes")
+    void appendCustomTo(GoogleAnalyticsPayload payload, GoogleAnalyticsRequest request) {
+        dimensions.appendTo(payload, request.dimensions());
+        metrics.appendTo(payload, request.metrics());
+    }
+
+    /**
+     * Appends the default parameters except the overridden ones, where bit
+     * <code>i</code> of the mask is set if parameter at index <code>i</code>
+     * is overridden. Only valid if {@link #size()} is not more than
+     * {@link #MAX_MASKED_PARAMETERS}.
+     */
+    void appendTo(GoogleAnalyticsPayload payload, long overridden) {
+        byte[] prefix = cachedPrefix(overridden);
+        if (prefix == null) {
+            GoogleAnalyticsPayload built = new GoogleAnalyticsPayload(256);
+            for (int i = 0; i < encoded.length; i++) {
+                if ((overridden & (1L << i)) == 0) {
+                    append(built, i);
+                }
+            }
+            prefix = built.toByteArray();
+            cachePrefix(overridden, prefix);
+        }
+
+        if (prefix.length > 0) {
+            if (!payload.isEmpty()) {
+                payload.append((byte) '&');
+            }
+            payload.append(prefix);
+        }
+    }
+
+    /**
+     * Prefix cached for a set of overridden parameters. Fields are final, so
+     * an entry seen through the racy table is always complete.
+     */
+    private static final class Prefix {
+        final long overridden;
+        final byte[] bytes;
+
+        Prefix(long overridden, byte[] bytes) {
+            this.overridden = overridden;
+            this.bytes = bytes;
+        }
+    }
+
+    private static int slot(long overridden) {
+        return ((int) (overridden ^ (overridden >>> 32)) * 0x9E3779B9) >>> PREFIX_SHIFT;
+    }
+
+    private byte[] cachedPrefix(long overridden) {
+        for (int probes = 0, i = slot(overridden); probes < PREFIX_SLOTS; probes++, i = (i + 1) & (PREFIX_SLOTS - 1)) {
+            Prefix prefix = prefixes[i];
+            if (prefix == null) {
+                return null;
+            }
+            if (prefix.overridden == overridden) {
+                return prefix.bytes;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Caches the prefix, unless the cache is full. Threads racing for a slot
+     * may overwrite each other, which only means the prefix is built again.
+     */
+    private void cachePrefix(long overridden, byte[] bytes) {
+        if (cachedPrefixes >= MAX_CACHED_PREFIXES) {
+            return;
+        }
+        for (int probes = 0, i = slot(overridden); probes < PREFIX_SLOTS; probes++, i = (i + 1) & (PREFIX_SLOTS - 1)) {
+            if (prefixes[i] == null) {
+                prefixes[i] = new Prefix(overridden, bytes);
+                cachedPrefixes++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Appends the default parameter at given index.
+     */
+    void append(GoogleAnalyticsPayload payload, int index) {
+        if (!payload.isEmpty()) {
+            payload.append((byte) '&');
+        }
+        payload.append(encoded[index]);
+    }
+
+    /**
+     * Default custom dimensions or metrics, encoded by index.
+     */
+    private static final class EncodedCustomParameters {
+        private final long[] present = new long[(CustomParameters.MAX_INDEX >>> 6) + 1];
+        private final byte[][] encoded = new byte[CustomParameters.MAX_INDEX + 1][];
+        private final byte[] all;
+
+        EncodedCustomParameters(CustomParameters parameters, GoogleAnalyticsPayload payload) {
+            GoogleAnalyticsPayload allPayload = new GoogleAnalyticsPayload(256);
+            for (int i = parameters.next(1); i >= 0; i = parameters.next(i + 1)) {
+                String value = parameters.get(i);
+                if (value != null) {
+                    payload.reset();
+                    payload.append(parameters.key(i));
+                    payload.appendEncoded(value);
+                    encoded[i] = payload.toByteArray();
+                    present[i >>> 6] |= 1L << i;
+
+                    if (!allPayload.isEmpty()) {
+                        allPayload.append((byte) '&');
+                    }
+                    allPayload.append(encoded[i]);
+                }
+            }
+            all = allPayload.toByteArray();
+        }
+
+        void appendTo(GoogleAnalyticsPayload payload, CustomParameters overrides) {
+            if (all.length == 0) {
+                return;
+            }
+
+            boolean overridden = false;
+            for (int w = 0; w < present.length; w++) {
+                if ((present[w] & overrides.presentWord(w)) != 0) {
+                    overridden = true;
+                    break;
+                }
+            }
+
+            if (!overridden) {
+                if (!payload.isEmpty()) {
+                    payload.append((byte) '&');
+                }
+                payload.append(all);
+                return;
+            }
+
+            for (int w = 0; w < present.length; w++) {
+                long bits = present[w] & ~overrides.presentWord(w);
+                while (bits != 0) {
+                    int index = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (!payload.isEmpty()) {
+                        payload.append((byte) '&');
+                    }
+                    payload.append(encoded[index]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import static com.brsanthu.googleanalytics.GoogleAnalyticsParameter.EVENT_ACTION;
+import static com.brsanthu.googleanalytics.GoogleAnalyticsParameter.EVENT_CATEGORY;
+import static com.brsanthu.googleanalytics.GoogleAnalyticsParameter.EVENT_LABEL;
+import static com.brsanthu.googleanalytics.GoogleAnalyticsParameter.EVENT_VALUE;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rolls up the events of same tracking id, client id, category, action and
+ * label into one hit, which has the sum of their values and is sent once
+ * per flush (see {@link GoogleAnalyticsConfig#setEventAggregationEnabled(boolean)}).
+ *
+ * <p>Rollups are kept in a fixed number of stripes, each a map guarded by
+ * its own lock, so threads adding different events seldom contend. Each
+ * stripe holds up to its share of the max rollups; once it is full, its
+ * least recently updated rollup is sent right away to make room, so no
+ * totals are lost. Likewise, a rollup whose value would no longer fit the
+ * int event value is sent right away and a new one started for the event.
+ */
+class EventAggregator {
+
+    private static final int STRIPES = 16;
+
+    private final GoogleAnalytics analytics;
+    private final int countMetric;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    EventAggregator(GoogleAnalytics analytics, GoogleAnalyticsConfig config) {
+        this.analytics = analytics;
+        this.countMetric = config.getEventAggregationCountMetric();
+        int capacity = Math.max(1, config.getMaxAggregatedEvents() / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(capacity);
+        }
+    }
+
+    /**
+     * Adds the event to the rollup of its key. Other parameters of the hit
+     * sent for the rollup, like custom dimensions, are of the first event
+     * added to it.
+     *
+     * @param trackingId tracking id of the event, or the default one.
+     * @param clientId client id of the event, or the default one.
+     */
+    void add(GoogleAnalyticsRequest<?> event, String trackingId, String clientId) {
+        Key key = new Key(trackingId, clientId, event.getString(EVENT_CATEGORY), event.getString(EVENT_ACTION),
+                event.getString(EVENT_LABEL));
+        Integer value = event.getInteger(EVENT_VALUE);
+        long now = System.currentTimeMillis();
+
+        Stripe stripe = stripes[key.hash & (STRIPES - 1)];
+        Rollup evicted = null;
+        synchronized (stripe) {
+            Rollup rollup = stripe.rollups.get(key);
+            if (rollup != null && rollup.overflows(value)) {
+                evicted = stripe.rollups.remove(key);
+                rollup = null;
+            }
+            if (rollup == null) {
+                if (evicted == null && stripe.rollups.size() >= stripe.capacity) {
+                    Iterator<Rollup> eldest = stripe.rollups.values().iterator();
+                    evicted = eldest.next();
+                    eldest.remove();
+                }
+                rollup = new Rollup(event, trackingId, clientId, now);
+                stripe.rollups.put(key, rollup);
+            }
+            rollup.add(value);
+        }
+
+        if (evicted != null) {
+            analytics.sendAggregated(evicted.toHit(countMetric, now));
+        }
+    }
+
+    /**
+     * Sends the hits of all the rollups and starts new ones.
+     *
+     * @return number of hits sent.
+     */
+    int flush() {
+        long now = System.currentTimeMillis();
+        int sent = 0;
+        for (Stripe stripe : stripes) {
+            Map<Key, Rollup> rollups;
+            synchronized (stripe) {
+                if (stripe.rollups.isEmpty()) {
+                    continue;
+                }
+                rollups = stripe.rollups;
+                stripe.rollups = Stripe.newRollups();
+            }
+
+            for (Rollup rollup : rollups.values()) {
+                analytics.sendAggregated(rollup.toHit(countMetric, now));
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * @return number of rollups not sent yet.
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.rollups.size();
+            }
+        }
+        return size;
+    }
+
+    private static final class Stripe {
+        final int capacity;
+        /** In access order, so the eldest is the least recently updated. */
+        Map<Key, Rollup> rollups = newRollups();
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+        }
+
+        static Map<Key, Rollup> newRollups() {
+            return new LinkedHashMap<Key, Rollup>(16, 0.75f, true);
+        }
+    }
+
+    private static final class Key {
+        final String trackingId;
+        final String clientId;
+        final String category;
+        final String action;
+        final String label;
+        final int hash;
+
+        Key(String trackingId, String clientId, String category, String action, String label) {
+            this.trackingId = trackingId;
+            this.clientId = clientId;
+            this.category = category;
+            this.action = action;
+            this.label = label;
+
+            int h = 1;
+            h = 31 * h + hashCode(trackingId);
+            h = 31 * h + hashCode(clientId);
+            h = 31 * h + hashCode(category);
+            h = 31 * h + hashCode(action);
+            h = 31 * h + hashCode(label);
+            //Spreads the high bits to the low ones picking the stripe
+            this.hash = h ^ (h >>> 16);
+        }
+
+        private static int hashCode(String s) {
+            return s == null ? 0 : s.hashCode();
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && equal(trackingId, other.trackingId) && equal(clientId, other.clientId)
+                    && equal(category, other.category) && equal(action, other.action) && equal(label, other.label);
+        }
+    }
+
+    private static final class Rollup {
+        /** Copy of the first event, so the caller is free to change or reuse it. */
+        private final EventHit hit;
+        private final long first;
+        private long count = 0;
+        private long valueSum = 0;
+        private boolean valued = false;
+
+        Rollup(GoogleAnalyticsRequest<?> event, String trackingId, String clientId, long first) {
+            this.hit = new EventHit();
+            hit.getParameters().putAll(event.getParameters());
+            hit.customDimentions().putAll(event.customDimentions());
+            hit.custommMetrics().putAll(event.custommMetrics());
+            hit.trackingId(trackingId);
+            hit.clientId(clientId);
+            this.first = first;
+        }
+
+        /**
+         * @return true if adding the value would take the sum out of the int range.
+         */
+        boolean overflows(Integer value) {
+            if (value == null) {
+                return false;
+            }
+            long sum = valueSum + value;
+            return sum > Integer.MAX_VALUE || sum < Integer.MIN_VALUE;
+        }
+
+        void add(Integer value) {
+            count++;
+            if (value != null) {
+                valueSum += value;
+                valued = true;
+            }
+        }
+
+        /**
+         * @return the hit of the rollup, queued for the time since the first event.
+         */
+        EventHit toHit(int countMetric, long now) {
+            hit.eventValue(valued ? Integer.valueOf((int) valueSum) : null);
+            if (countMetric > 0) {
+                hit.customMetric(countMetric, count);
+            }
+            Integer queueTime = hit.queueTime();
+            long millis = (queueTime == null ? 0 : queueTime) + Math.max(0, now - first);
+            hit.queueTime((int) Math.min(Integer.MAX_VALUE, millis));
+            return hit;
+        }
+    }
+}
@@ -200,6 +200,14 @@ public class EventHit extends GoogleAnalyticsRequest<EventHit> {
 		setInteger(EVENT_VALUE, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #eventValue(Integer)}, without boxing the value.
+	 */
+	public EventHit eventValue(int value) {
+		setInteger(EVENT_VALUE, value);
+	   	return this;
+	}
 	public Integer eventValue() {
 		return getInteger(EVENT_VALUE);
 	}
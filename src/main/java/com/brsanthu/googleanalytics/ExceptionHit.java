@@ -115,6 +115,14 @@ public class ExceptionHit extends GoogleAnalyticsRequest<ExceptionHit> {
 		setBoolean(EXCEPTION_FATAL, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #exceptionFatal(Boolean)}, without boxing the value.
+	 */
+	public ExceptionHit exceptionFatal(boolean value) {
+		setBoolean(EXCEPTION_FATAL, value);
+	   	return this;
+	}
 	public Boolean exceptionFatal() {
 		return getBoolean(EXCEPTION_FATAL);
 	}
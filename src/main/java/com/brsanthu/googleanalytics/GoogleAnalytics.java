@@ -15,19 +15,28 @@ package com.brsanthu.googleanalytics;
 
 import static com.brsanthu.googleanalytics.GaUtils.isEmpty;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,11 +63,49 @@ public abstract class GoogleAnalytics {
 
     protected static final Charset UTF8 = Charset.forName("UTF-8");
 
+    /** Waits for all the async hits, including the ones queued while waiting (see {@link #awaitDone(long, long)}). */
+    private static final long ALL_HITS = Long.MAX_VALUE;
+
     protected GoogleAnalyticsConfig config = null;
-    protected DefaultRequest defaultRequest = null;
-    protected ThreadPoolExecutor executor = null;
+    protected volatile DefaultRequest defaultRequest = null;
+    protected volatile ThreadPoolExecutor executor = null;
     protected GoogleAnalyticsStats stats = new GoogleAnalyticsStats();
 
+    private GoogleAnalyticsBatcher batcher = null;
+    private ScheduledExecutorService scheduler = null;
+    private HitSpool spool = null;
+    private HitRetrier retrier = null;
+    private CircuitBreaker circuitBreaker = null;
+    private HitRateLimiter rateLimiter = null;
+    private HitSampler sampler = null;
+    private AdaptiveSampler adaptiveSampler = null;
+    private EventAggregator eventAggregator = null;
+    private TimingAggregator timingAggregator = null;
+    private HitDispatcher dispatcher = null;
+    private volatile boolean dispatcherCreated = false;
+
+    /**
+     * Async hits queued (or accepted by {@link #acceptHit()}) and done so far.
+     * Hits queued or being sent are the difference, and a flush waits until as
+     * many hits are done as were queued when it started.
+     */
+    private final AtomicLong queuedHits = new AtomicLong();
+    private final AtomicLong doneHits = new AtomicLong();
+    /** Number of threads waiting for the hits to be done, which are notified of each hit done. */
+    private final AtomicInteger waitingForHits = new AtomicInteger();
+    private final Object pendingLock = new Object();
+    private final AtomicLong postedHits = new AtomicLong();
+    private final AtomicLong spilledHits = new AtomicLong();
+    private volatile boolean closing = false;
+
+    /** Responses reused by the hits sent with {@link #send(GoogleAnalyticsRequest)}. */
+    private final ThreadLocal<GoogleAnalyticsResponse> responses = new ThreadLocal<GoogleAnalyticsResponse>() {
+        @Override
+        protected GoogleAnalyticsResponse initialValue() {
+            return new GoogleAnalyticsResponse();
+        }
+    };
+
     public GoogleAnalytics(String trackingId) {
         this(new GoogleAnalyticsConfig(), new DefaultRequest().trackingId(trackingId));
     }
@@ -85,6 +132,35 @@ public abstract class GoogleAnalytics {
         this.config = config;
         this.defaultRequest = defaultRequest;
         createClient();
+
+        if (config.isAdaptiveSamplingEnabled()) {
+            createAdaptiveSampler();
+        }
+        if (config.isSampling() || adaptiveSampler != null) {
+            sampler = new HitSampler(config, adaptiveSampler);
+            publishSampleRates();
+        }
+        if (config.getTrackingIdRateLimit() > 0 || config.getClientIdRateLimit() > 0) {
+            rateLimiter = new HitRateLimiter(config);
+        }
+        if (config.isCircuitBreakerEnabled()) {
+            circuitBreaker = new CircuitBreaker(config);
+        }
+        if (config.isEventAggregationEnabled()) {
+            createEventAggregator();
+        }
+        if (config.isTimingAggregationEnabled()) {
+            createTimingAggregator();
+        }
+        if (config.isBatchingEnabled()) {
+            createBatcher();
+        }
+        if (config.getSpoolDirectory() != null) {
+            createSpool();
+        }
+        if (config.getMaxRetries() > 0) {
+            createRetrier();
+        }
     }
 
     public GoogleAnalyticsConfig getConfig() {
@@ -99,118 +175,477 @@ public abstract class GoogleAnalytics {
         this.defaultRequest = request;
     }
 
+    /**
+     * Posts the given request, merged with the default request, to GA. Neither
+     * of the requests is modified, so the same request can be posted from
+     * several threads at once, as long as it is not changed meanwhile.
+     */
     @SuppressWarnings({"rawtypes"})
     public GoogleAnalyticsResponse post(GoogleAnalyticsRequest request) {
         GoogleAnalyticsResponse response = new GoogleAnalyticsResponse();
-        if (!config.isEnabled()) {
+        if (!config.isEnabled() || isSampledOut(request) || isAggregated(request)) {
             return response;
         }
 
         try {
-            Map<String, String> postParms = new HashMap<String, String>();
+            deliver(response, request);
+        } catch (Exception e) {
+            logSendFailure(request, e);
+        }
+
+        return response;
+    }
+
+    /**
+     * Sends the given request asynchronously, same as
+     * {@link #postAsync(GoogleAnalyticsRequest)} but without any future to
+     * track it, so nothing is allocated apart from queueing the request (with
+     * {@link DispatchMode#RING_BUFFER}, not even that). Outcome of the hit is
+     * passed to the callback set with
+     * {@link GoogleAnalyticsConfig#setSendCallback(GoogleAnalyticsCallback)},
+     * if any.
+     *
+     * <p>Request must not be changed until it is sent.
+     */
+    @SuppressWarnings("rawtypes")
+    public void send(GoogleAnalyticsRequest request) {
+        if (!config.isEnabled() || isSampledOut(request) || isAggregated(request)) {
+            return;
+        }
 
-            logger.debug("Processing " + request);
+        dispatch(request, null);
+    }
 
-            //Process the parameters
-            processParameters(request, postParms);
+    /**
+     * Queues the hit (a request or a request provider) for async posting, or
+     * spills it if GA is being closed.
+     */
+    private void dispatch(Object hit, GoogleAnalyticsFuture future) {
+        queuedHits.incrementAndGet();
+        if (closing) {
+            spillQueued(hit, future);
+            return;
+        }
 
-            //Process custom dimensions
-            processCustomDimentionParameters(request, postParms);
+        HitDispatcher hitDispatcher = getDispatcher();
+        if (hitDispatcher != null) {
+            hitDispatcher.dispatch(hit, future);
+        } else {
+            getExecutor().execute(new QueuedHit(hit, future));
+        }
+    }
 
-            //Process custom metrics
-            processCustomMetricParameters(request, postParms);
+    /**
+     * Posts the hit queued by {@link #dispatch(Object, GoogleAnalyticsFuture)}
+     * and completes the future, or fails it if hit could not be sent. If
+     * there is no future, hit was queued by {@link #send(GoogleAnalyticsRequest)}.
+     */
+    void postQueued(Object hit, GoogleAnalyticsFuture future) {
+        try {
+            post(hit, future);
+        } finally {
+            hitDone();
+        }
+    }
 
-            logger.debug("Processed all parameters and sending the request " + postParms);
+    @SuppressWarnings("rawtypes")
+    private void post(Object hit, GoogleAnalyticsFuture future) {
+        if (future == null) {
+            sendQueued((GoogleAnalyticsRequest) hit);
+            return;
+        }
+        if (future.isDone()) {
+            return;
+        }
 
-            sendRequest(response, postParms);
-            
-            if (config.isGatherStats()) {
-                gatherStats(request);
+        GoogleAnalyticsRequest request;
+        if (hit instanceof RequestProvider) {
+            request = provideRequest((RequestProvider) hit);
+            if (request == null) {
+                future.complete(null);
+                return;
             }
+            future.setRequest(request);
+            if (isSampledOut(request) || isAggregated(request)) {
+                future.complete(new GoogleAnalyticsResponse());
+                return;
+            }
+        } else {
+            request = (GoogleAnalyticsRequest) hit;
+        }
 
+        GoogleAnalyticsResponse response = new GoogleAnalyticsResponse();
+        try {
+            deliver(response, request);
         } catch (Exception e) {
-            if (e instanceof UnknownHostException) {
-                logger.warn("Coudln't connect to Google Analytics. Internet may not be available. " + e.toString());
+            logSendFailure(request, e);
+            future.fail(e);
+            return;
+        }
+        future.complete(response);
+    }
+
+    /**
+     * Drops the hit queued by {@link #dispatch(Object, GoogleAnalyticsFuture)}
+     * as the queue is full.
+     */
+    @SuppressWarnings("rawtypes")
+    void dropQueued(Object hit, GoogleAnalyticsFuture future) {
+        logger.debug("Google Analytics hit queue is full, dropping the hit");
+
+        try {
+            stats.droppedHit();
+            if (future != null) {
+                future.cancel(false);
             } else {
-                logger.warn("Exception while sending the Google Analytics tracker request " + request, e);
+                sendDropped((GoogleAnalyticsRequest) hit, "Hit queue is full, hit is dropped");
             }
+        } finally {
+            release();
         }
+    }
 
-        return response;
+    /**
+     * Hands the hit queued by {@link #dispatch(Object, GoogleAnalyticsFuture)},
+     * which is not going to be posted as GA is being closed, to the
+     * {@link UnsentHitHandler} or the spool, or else drops it.
+     */
+    @SuppressWarnings("rawtypes")
+    void spillQueued(Object hit, GoogleAnalyticsFuture future) {
+        try {
+            if (future != null && future.isDone()) {
+                return;
+            }
+
+            GoogleAnalyticsRequest request = hit instanceof RequestProvider
+                    ? provideRequest((RequestProvider) hit)
+                    : (GoogleAnalyticsRequest) hit;
+            if (request != null && spill(request)) {
+                spilledHits.incrementAndGet();
+            } else {
+                logger.debug("Google Analytics is closed, dropping the hit");
+                stats.droppedHit();
+            }
+
+            if (future != null) {
+                future.cancel(false);
+            } else if (request != null) {
+                sendDropped(request, "Google Analytics is closed, hit is not sent");
+            }
+        } finally {
+            release();
+        }
     }
 
-    @SuppressWarnings({"rawtypes", "unchecked"})
-    private void processParameters(GoogleAnalyticsRequest request, 
-            Map<String, String> postParms) {
-        Map<GoogleAnalyticsParameter, String> requestParms = request.getParameters();
-        Map<GoogleAnalyticsParameter, String> defaultParms = defaultRequest.getParameters();
-        
-        for (GoogleAnalyticsParameter parm : defaultParms.keySet()) {
-            String value = requestParms.get(parm);
-            String defaultValue = defaultParms.get(parm);
-            if (isEmpty(value) && !isEmpty(defaultValue)) {
-                requestParms.put(parm, defaultValue);
+    /**
+     * @return true if the request is handed to the unsent hit handler or
+     *         stored in the spool.
+     */
+    @SuppressWarnings("rawtypes")
+    private boolean spill(GoogleAnalyticsRequest request) {
+        UnsentHitHandler handler = config.getUnsentHitHandler();
+        if (handler != null) {
+            try {
+                handler.unsent(request);
+                return true;
+            } catch (Exception e) {
+                logger.warn("Unsent hit handler (" + handler + ") thrown exception " + e.toString());
+                return false;
             }
         }
-        
-        for (GoogleAnalyticsParameter key : requestParms.keySet()) {
-            postParms.put(key.getParameterName(), requestParms.get(key));
+
+        if (spool == null) {
+            return false;
+        }
+        try {
+            GoogleAnalyticsPayload payload = encode(request);
+            return spool.store(payload.array(), 0, payload.length(), System.currentTimeMillis());
+        } catch (Exception e) {
+            logSendFailure(request, e);
+            return false;
         }
     }
 
     /**
-     * Processes the custom dimentions and adds the values to list of
-     * parameters, which would be posted to GA.
+     * Counts the async hit which is posted without going through the queue
+     * (like {@link #postAsync(GoogleAnalyticsRequest, GoogleAnalyticsCallback)}
+     * of a transport sending it asynchronously), so flush and close wait for it.
+     * {@link #hitDone()} must be called once the hit is done.
+     *
+     * @return false if GA is being closed, in which case the hit must not be
+     *         posted by the caller.
+     */
+    protected final boolean acceptHit() {
+        queuedHits.incrementAndGet();
+        if (closing) {
+            release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Marks the async hit accepted by {@link #acceptHit()} or queued by
+     * {@link #dispatch(Object, GoogleAnalyticsFuture)} as posted.
+     */
+    protected final void hitDone() {
+        postedHits.incrementAndGet();
+        release();
+    }
+
+    private void release() {
+        if (doneHits.incrementAndGet() >= queuedHits.get() || waitingForHits.get() > 0) {
+            synchronized (pendingLock) {
+                pendingLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return number of async hits queued or being sent.
+     */
+    private long pendingHits() {
+        return Math.max(0, queuedHits.get() - doneHits.get());
+    }
+
+    /**
+     * Waits until the given number of async hits are done, counting from the
+     * first one, or if it is {@link #ALL_HITS}, until there is no async hit
+     * queued or being sent.
      *
-     * @param request
-     * @param postParms
+     * @return false if not as many are done at the deadline.
+     */
+    private boolean awaitDone(long hits, long deadline) {
+        waitingForHits.incrementAndGet();
+        try {
+            synchronized (pendingLock) {
+                while (doneHits.get() < Math.min(hits, queuedHits.get())) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    try {
+                        pendingLock.wait(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            waitingForHits.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return true if GA is being closed, so no more hits are sent.
+     */
+    protected boolean isClosing() {
+        return closing;
+    }
+
+    /**
+     * @return true if a transport with a non-blocking client may send the
+     *         async hits on its own instead of queuing them. False if any
+     *         stage which needs the hits to go through the executor is in
+     *         use: a dispatch mode other than {@link DispatchMode#EXECUTOR},
+     *         priority lanes, batching, rate limiting, adaptive sampling, the
+     *         circuit breaker or retries.
+     */
+    protected boolean isDirectSendAllowed() {
+        return getDispatcher() == null && !config.isPriorityLanesEnabled() && batcher == null && rateLimiter == null
+                && adaptiveSampler == null && circuitBreaker == null && retrier == null;
+    }
+
+    /**
+     * Sends the request queued by {@link #send(GoogleAnalyticsRequest)} with
+     * the response object of the current thread, and notifies the callback.
+     */
+    @SuppressWarnings("rawtypes")
+    private void sendQueued(GoogleAnalyticsRequest request) {
+        GoogleAnalyticsResponse response = responses.get();
+        Exception failure = null;
+        try {
+            deliver(response, request);
+        } catch (Exception e) {
+            logSendFailure(request, e);
+            failure = e;
+        }
+
+        GoogleAnalyticsCallback callback = config.getSendCallback();
+        if (callback != null) {
+            try {
+                if (failure == null) {
+                    callback.onSuccess(request, response);
+                } else {
+                    callback.onFailure(request, failure);
+                }
+            } catch (Exception e) {
+                logger.warn("Callback (" + callback + ") thrown exception " + e.toString());
+            }
+        }
+        response.reset();
+    }
+
+    /**
+     * Notifies the callback of the request queued by
+     * {@link #send(GoogleAnalyticsRequest)} which is not going to be sent.
      */
-    private void processCustomDimentionParameters(
-            @SuppressWarnings("rawtypes") GoogleAnalyticsRequest request, 
-            Map<String, String> postParms) {
-        Map<String, String> customDimParms = new HashMap<String, String>();
-        for (String defaultCustomDimKey : defaultRequest.customDimentions().keySet()) {
-            customDimParms.put(defaultCustomDimKey, defaultRequest.customDimentions().get(defaultCustomDimKey));
+    @SuppressWarnings("rawtypes")
+    private void sendDropped(GoogleAnalyticsRequest request, String reason) {
+        GoogleAnalyticsCallback callback = config.getSendCallback();
+        if (callback != null) {
+            try {
+                callback.onFailure(request, new GoogleAnalyticsException(reason));
+            } catch (Exception e) {
+                logger.warn("Callback (" + callback + ") thrown exception " + e.toString());
+            }
+        }
+    }
+
+    @SuppressWarnings({"rawtypes"})
+    private void deliver(GoogleAnalyticsResponse response, GoogleAnalyticsRequest request) throws Exception {
+        if (rateLimiter != null && !acquire(request)) {
+            logger.debug("Hit exceeds the rate limit, dropping it");
+            stats.throttledHit();
+            response.setStatusCode(429);
+            return;
+        }
+
+        GoogleAnalyticsPayload payload = encode(request);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Sending the request " + payload);
         }
 
-        @SuppressWarnings("unchecked")
-        Map<String, String> requestCustomDims = request.customDimentions();
-        for (String requestCustomDimKey : requestCustomDims.keySet()) {
-            customDimParms.put(requestCustomDimKey, requestCustomDims.get(requestCustomDimKey));
+        if (batcher != null) {
+            batcher.add(response, payload);
+        } else {
+            boolean sent;
+            try {
+                sent = transmit(response, payload, false);
+            } catch (IOException e) {
+                undelivered(payload, false);
+                throw e;
+            }
+            if (!sent) {
+                shortCircuited(payload, 1, false);
+            } else if (response.getStatusCode() >= 500) {
+                undelivered(payload, false);
+            }
         }
+        setPostedParms(response, request);
 
-        for (String key : customDimParms.keySet()) {
-            postParms.put(key, customDimParms.get(key));
+        if (config.isGatherStats()) {
+            gatherStats(request);
         }
     }
 
     /**
-     * Processes the custom metrics and adds the values to list of parameters,
-     * which would be posted to GA.
+     * Takes a token for the tracking id and client id of the request.
+     */
+    @SuppressWarnings({"rawtypes"})
+    private boolean acquire(GoogleAnalyticsRequest request) {
+        return rateLimiter.tryAcquire(trackingId(request), clientId(request), System.nanoTime());
+    }
+
+    /**
+     * Checks whether the user of the request is left out of the sample, before
+     * any work is done for the request, and counts it if so.
      *
-     * @param request
-     * @param postParms
+     * @return true if the request should not be sent.
      */
-    private void processCustomMetricParameters(
-            @SuppressWarnings("rawtypes") GoogleAnalyticsRequest request, 
-            Map<String, String> postParms) {
-        Map<String, String> customMetricParms = new HashMap<String, String>();
-        for (String defaultCustomMetricKey : defaultRequest.custommMetrics().keySet()) {
-            customMetricParms.put(defaultCustomMetricKey, defaultRequest.custommMetrics().get(defaultCustomMetricKey));
+    @SuppressWarnings({"rawtypes"})
+    protected boolean isSampledOut(GoogleAnalyticsRequest request) {
+        if (sampler == null || sampler.isSampled(trackingId(request), clientId(request), request.hitType())) {
+            return false;
         }
+        stats.sampledOutHit();
+        return true;
+    }
 
-        @SuppressWarnings("unchecked")
-        Map<String, String> requestCustomMetrics = request.custommMetrics();
-        for (String requestCustomDimKey : requestCustomMetrics.keySet()) {
-            customMetricParms.put(requestCustomDimKey, requestCustomMetrics.get(requestCustomDimKey));
+    /**
+     * Adds the request to its rollup, if it is an event and events are
+     * aggregated, or a user timing and timings are aggregated, and counts it
+     * if so.
+     *
+     * @return true if the request should not be sent by itself.
+     */
+    @SuppressWarnings({"rawtypes"})
+    protected boolean isAggregated(GoogleAnalyticsRequest request) {
+        if (eventAggregator != null && "event".equals(request.hitType())) {
+            eventAggregator.add(request, trackingId(request), clientId(request));
+        } else if (timingAggregator == null || !"timing".equals(request.hitType())
+                || !timingAggregator.add(request, trackingId(request), clientId(request))) {
+            return false;
         }
+        stats.aggregatedHit();
+        return true;
+    }
+
+    /**
+     * Sends the aggregated hit asynchronously, as {@link #send(GoogleAnalyticsRequest)}
+     * does, but without aggregating it again.
+     */
+    void sendAggregated(GoogleAnalyticsRequest<?> hit) {
+        dispatch(hit, null);
+    }
+
+    /**
+     * @return the tracking id of the request, or of the default request if not set.
+     */
+    @SuppressWarnings({"rawtypes"})
+    private String trackingId(GoogleAnalyticsRequest request) {
+        String trackingId = request.trackingId();
+        return isEmpty(trackingId) ? defaultRequest.trackingId() : trackingId;
+    }
+
+    /**
+     * @return the client id of the request, or of the default request if not set.
+     */
+    @SuppressWarnings({"rawtypes"})
+    private String clientId(GoogleAnalyticsRequest request) {
+        String clientId = request.clientId();
+        return isEmpty(clientId) ? defaultRequest.clientId() : clientId;
+    }
+
+    /**
+     * Merges the given request with the default request and returns the
+     * parameters to be posted to GA, keyed by the parameter name. Neither the
+     * request nor the default request is modified.
+     */
+    @SuppressWarnings({"rawtypes"})
+    protected Map<String, String> buildPostParms(GoogleAnalyticsRequest request) {
+        return GoogleAnalyticsEncoder.merge(request, defaultRequest.snapshot());
+    }
+
+    /**
+     * Encodes the given request, merged with the default request, into the
+     * payload of the current thread, which is reused by the next call.
+     */
+    @SuppressWarnings({"rawtypes"})
+    protected GoogleAnalyticsPayload encode(GoogleAnalyticsRequest request) {
+        return GoogleAnalyticsEncoder.encode(request, defaultRequest.snapshot());
+    }
 
-        for (String key : customMetricParms.keySet()) {
-            postParms.put(key, customMetricParms.get(key));
+    /**
+     * Sets the posted parameters of the response, which are built only if
+     * {@link GoogleAnalyticsResponse#getPostedParms()} is called.
+     */
+    @SuppressWarnings({"rawtypes"})
+    protected void setPostedParms(GoogleAnalyticsResponse response, GoogleAnalyticsRequest request) {
+        response.setPostedRequest(request, defaultRequest.snapshot());
+    }
+
+    protected void logSendFailure(@SuppressWarnings("rawtypes") GoogleAnalyticsRequest request, Throwable e) {
+        if (e instanceof UnknownHostException) {
+            logger.warn("Coudln't connect to Google Analytics. Internet may not be available. " + e.toString());
+        } else {
+            logger.warn("Exception while sending the Google Analytics tracker request " + request, e);
         }
     }
 
-    private void gatherStats(@SuppressWarnings("rawtypes") GoogleAnalyticsRequest request) {
+    protected void gatherStats(@SuppressWarnings("rawtypes") GoogleAnalyticsRequest request) {
         String hitType = request.hitType();
 
         if ("pageview".equalsIgnoreCase(hitType)) {
@@ -236,49 +671,593 @@ public abstract class GoogleAnalytics {
         }
     }
 
-    public Future<GoogleAnalyticsResponse> postAsync(final RequestProvider requestProvider) {
+    /**
+     * Same as {@link #postAsync(RequestProvider, GoogleAnalyticsCallback)},
+     * except that it returns null if GA is disabled, and that the future is
+     * completed with an empty response if the request could not be sent, as
+     * it was before the callback variants.
+     */
+    public Future<GoogleAnalyticsResponse> postAsync(RequestProvider requestProvider) {
         if (!config.isEnabled()) {
             return null;
         }
 
-        Future<GoogleAnalyticsResponse> future = getExecutor().submit(new Callable<GoogleAnalyticsResponse>() {
-            public GoogleAnalyticsResponse call() throws Exception {
-                try {
-                    @SuppressWarnings("rawtypes")
-                    GoogleAnalyticsRequest request = requestProvider.getRequest();
-                    if (request != null) {
-                        return post(request);
-                    }
-                } catch (Exception e) {
-                    logger.warn("Request Provider (" + requestProvider + ") thrown exception " + e.toString() + " and hence nothing is posted to GA.");
-                }
+        return new ResponseFuture(postAsync(requestProvider, null));
+    }
 
-                return null;
-            }
-        });
+    /**
+     * Posts the request returned by the provider asynchronously. Provider is
+     * called by the thread posting the request, so the cost of building the
+     * request is not paid by the calling thread. Future is completed with null
+     * response if provider returns null or throws exception.
+     *
+     * @param callback callback notified once the request is posted, can be null.
+     * @return the future of the request, never null. If GA is disabled, future
+     *         is completed right away.
+     */
+    public GoogleAnalyticsFuture postAsync(RequestProvider requestProvider, GoogleAnalyticsCallback callback) {
+        GoogleAnalyticsFuture future = new GoogleAnalyticsFuture(null);
+        if (callback != null) {
+            future.addCallback(callback);
+        }
+
+        if (!config.isEnabled()) {
+            future.complete(new GoogleAnalyticsResponse());
+        } else {
+            dispatch(requestProvider, future);
+        }
         return future;
     }
 
+    /**
+     * @return the request returned by the provider, or null if it throws exception.
+     */
+    @SuppressWarnings("rawtypes")
+    private GoogleAnalyticsRequest provideRequest(RequestProvider requestProvider) {
+        try {
+            return requestProvider.getRequest();
+        } catch (Exception e) {
+            logger.warn("Request Provider (" + requestProvider + ") thrown exception " + e.toString() + " and hence nothing is posted to GA.");
+            return null;
+        }
+    }
+
+    /**
+     * Same as {@link #postAsync(GoogleAnalyticsRequest, GoogleAnalyticsCallback)},
+     * except that it returns null if GA is disabled, and that the future is
+     * completed with an empty response if the request could not be sent, as
+     * it was before the callback variants.
+     */
     @SuppressWarnings("rawtypes")
-    public Future<GoogleAnalyticsResponse> postAsync(final GoogleAnalyticsRequest request) {
+    public Future<GoogleAnalyticsResponse> postAsync(GoogleAnalyticsRequest request) {
         if (!config.isEnabled()) {
             return null;
         }
 
-        Future<GoogleAnalyticsResponse> future = getExecutor().submit(new Callable<GoogleAnalyticsResponse>() {
-            public GoogleAnalyticsResponse call() throws Exception {
-                return post(request);
-            }
-        });
+        return new ResponseFuture(postAsync(request, null));
+    }
+
+    /**
+     * Posts the request asynchronously. Returned future is completed with the
+     * response once the request is posted, or fails with the error if it could
+     * not be sent, and notifies the callbacks added to it, so the outcome can
+     * be handled without blocking on {@link Future#get()}.
+     *
+     * @param callback callback notified once the request is posted, can be null.
+     * @return the future of the request, never null. If GA is disabled, future
+     *         is completed right away.
+     */
+    @SuppressWarnings("rawtypes")
+    public GoogleAnalyticsFuture postAsync(GoogleAnalyticsRequest request, GoogleAnalyticsCallback callback) {
+        GoogleAnalyticsFuture future = new GoogleAnalyticsFuture(request);
+        if (callback != null) {
+            future.addCallback(callback);
+        }
+
+        if (!config.isEnabled() || isSampledOut(request) || isAggregated(request)) {
+            future.complete(new GoogleAnalyticsResponse());
+        } else {
+            dispatch(request, future);
+        }
         return future;
     }
 
+    /**
+     * Same as {@link #newFlowProcessor(int)}, posting as many requests at once
+     * as the transport has connections for.
+     */
+    public Object newFlowProcessor() {
+        return newFlowProcessor(getDefaultMaxPerRoute(config));
+    }
+
+    /**
+     * Creates a
+     * <code>java.util.concurrent.Flow.Processor&lt;GoogleAnalyticsRequest&lt;?&gt;, GoogleAnalyticsResponse&gt;</code>
+     * which posts the requests published to it with a {@link GoogleAnalyticsSink},
+     * and publishes their responses. Returned as <code>Object</code>, as
+     * <code>Flow</code> is not there on the Java versions this library is built
+     * for, so cast it to the type above:
+     *
+     * <pre>
+     * &#64;SuppressWarnings("unchecked")
+     * Flow.Processor&lt;GoogleAnalyticsRequest&lt;?&gt;, GoogleAnalyticsResponse&gt; processor =
+     *         (Flow.Processor&lt;GoogleAnalyticsRequest&lt;?&gt;, GoogleAnalyticsResponse&gt;) ga.newFlowProcessor(10);
+     * </pre>
+     *
+     * Reactive Streams publishers can be adapted with
+     * <code>org.reactivestreams.FlowAdapters.toSubscriber(processor)</code>.
+     *
+     * @param maxInFlight number of requests posted at once.
+     * @return the processor, or null on Java versions before 11, where
+     *         {@link GoogleAnalyticsSink} can be used directly.
+     */
+    public Object newFlowProcessor(int maxInFlight) {
+        return GoogleAnalyticsFlowProcessor.create(this, maxInFlight);
+    }
+
+    /**
+     * Sends the rolled up events and timings (see
+     * {@link GoogleAnalyticsConfig#setEventAggregationEnabled(boolean)} and
+     * {@link GoogleAnalyticsConfig#setTimingAggregationEnabled(boolean)}) and
+     * the hits collected so far for batching right away. Does nothing if none
+     * is enabled (see {@link GoogleAnalyticsConfig#setBatchingEnabled(boolean)}).
+     */
+    public void flush() {
+        flushAggregated();
+        flushBatch();
+    }
+
+    private void flushAggregated() {
+        flushEvents();
+        flushTimings();
+    }
+
+    private void flushEvents() {
+        if (eventAggregator != null) {
+            eventAggregator.flush();
+        }
+    }
+
+    private void flushTimings() {
+        if (timingAggregator != null) {
+            timingAggregator.flush();
+        }
+    }
+
+    private void flushBatch() {
+        if (batcher != null) {
+            batcher.flush();
+        }
+    }
+
+    /**
+     * Sends the queued async hits and waits for the ones being sent, up to the
+     * given timeout, and then sends the hits collected for batching. Queued
+     * hits are also sent by the calling thread, a batch at a time
+     * ({@link GoogleAnalyticsConfig#getMaxBatchSize()} hits), with the deadline
+     * checked between the batches. Hits can be posted meanwhile, but are not
+     * waited for: flush is completed once as many hits are done as were queued
+     * or being sent when it started.
+     *
+     * @return how many hits were sent or dropped while flushing.
+     */
+    public GoogleAnalyticsFlushResult flush(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + timeoutNanos(timeout, unit);
+        Counts counts = new Counts();
+
+        flushAggregated();
+        boolean completed = drain(queuedHits.get(), deadline);
+        flushBatch();
+        return counts.result(completed);
+    }
+
+    /**
+     * Closes GA, waiting up to {@link GoogleAnalyticsConfig#getCloseTimeout()}
+     * for the queued hits to be sent (see {@link #close(long, TimeUnit)}).
+     */
     public void close() {
+        GoogleAnalyticsFlushResult result = close(config.getCloseTimeout(), TimeUnit.MILLISECONDS);
+        if (!result.isCompleted() || result.getDroppedHits() > 0) {
+            logger.info("Google Analytics closed before all the hits were sent " + result);
+        }
+    }
+
+    /**
+     * Stops accepting hits and sends the queued async hits, as
+     * {@link #flush(long, TimeUnit)}, up to the given timeout. Hits still
+     * queued at the deadline, or posted after this is called, are handed to
+     * the {@link UnsentHitHandler} (see
+     * {@link GoogleAnalyticsConfig#setUnsentHitHandler(UnsentHitHandler)}) or
+     * stored in the spool, or else dropped. Hits being sent at the deadline are
+     * not waited for any further. Then all the resources are released, so
+     * this instance cannot be used any more.
+     *
+     * @return how many hits were sent, spilled or dropped while closing.
+     */
+    public GoogleAnalyticsFlushResult close(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + timeoutNanos(timeout, unit);
+        Counts counts = new Counts();
+
+        try {
+            //Queued before closing, so they are sent as the other queued hits
+            flushAggregated();
+        } catch (Exception e) {
+            //ignore
+        }
+        closing = true;
+
+        try {
+            if (scheduler != null) {
+                scheduler.shutdown();
+            }
+        } catch (Exception e) {
+            //ignore
+        }
+
+        boolean completed = false;
+        try {
+            if (dispatcherCreated && dispatcher != null) {
+                completed = dispatcher.close(deadline) && awaitDone(ALL_HITS, deadline);
+            } else {
+                completed = drain(ALL_HITS, deadline);
+                if (!completed) {
+                    spillExecutorQueue();
+                }
+            }
+        } catch (Exception e) {
+            //ignore
+        }
+
+        try {
+            flushBatch();
+        } catch (Exception e) {
+            //ignore
+        }
+
+        try {
+            if (retrier != null) {
+                retrier.close();
+            }
+        } catch (Exception e) {
+            //ignore
+        }
+
+        try {
+            if (spool != null) {
+                spool.close();
+            }
+        } catch (Exception e) {
+            //ignore
+        }
+
+        try {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        } catch (Exception e) {
+            //ignore
+        }
+
         try {
-            executor.shutdown();
+            closeClient();
         } catch (Exception e) {
             //ignore
         }
+
+        return counts.result(completed);
+    }
+
+    /**
+     * Releases the resources of the transport once GA is closed.
+     */
+    protected void closeClient() {
+    }
+
+    private static long timeoutNanos(long timeout, TimeUnit unit) {
+        //Keeps the deadline from overflowing
+        return Math.max(0, Math.min(unit.toNanos(timeout), TimeUnit.DAYS.toNanos(365)));
+    }
+
+    /**
+     * Sends the hits queued to the executor, a batch at a time, on the calling
+     * thread until the hits queued when this started are taken, or the queue
+     * is empty, or the deadline passes. Then waits for the given number of
+     * async hits to be done (see {@link #awaitDone(long, long)}).
+     *
+     * @return false if not as many hits are done at the deadline.
+     */
+    private boolean drain(long hits, long deadline) {
+        ThreadPoolExecutor pool = executor;
+        if (pool != null && !(dispatcherCreated && dispatcher != null)) {
+            int batchSize = Math.max(1, config.getMaxBatchSize());
+            int left = hits == ALL_HITS ? Integer.MAX_VALUE : pool.getQueue().size();
+            List<Runnable> batch = new ArrayList<Runnable>(batchSize);
+            while (left > 0 && deadline - System.nanoTime() > 0 && pool.getQueue().drainTo(batch, Math.min(batchSize, left)) > 0) {
+                left -= batch.size();
+                for (Runnable r : batch) {
+                    r.run();
+                }
+                batch.clear();
+            }
+        }
+        return awaitDone(hits, deadline);
+    }
+
+    /**
+     * Spills the hits left in the executor queue, as they are not going to be
+     * sent before the deadline.
+     */
+    private void spillExecutorQueue() {
+        ThreadPoolExecutor pool = executor;
+        if (pool == null) {
+            return;
+        }
+
+        List<Runnable> left = new ArrayList<Runnable>();
+        pool.getQueue().drainTo(left);
+        for (Runnable r : left) {
+            if (r instanceof QueuedHit) {
+                spillQueued(((QueuedHit) r).hit, ((QueuedHit) r).future);
+            } else if (!abandonRetry(r)) {
+                QueueOverflowHandler.drop(this, r);
+            }
+        }
+    }
+
+    protected boolean isBatchingEnabled() {
+        return batcher != null;
+    }
+
+    private void createBatcher() {
+        batcher = new GoogleAnalyticsBatcher(this, config);
+
+        if (config.getBatchFlushInterval() > 0) {
+            getScheduler().scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    flushBatch();
+                }
+            }, config.getBatchFlushInterval(), config.getBatchFlushInterval(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void createEventAggregator() {
+        eventAggregator = new EventAggregator(this, config);
+
+        if (config.getEventAggregationInterval() > 0) {
+            getScheduler().scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    flushEvents();
+                }
+            }, config.getEventAggregationInterval(), config.getEventAggregationInterval(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void createTimingAggregator() {
+        timingAggregator = new TimingAggregator(this, config);
+
+        if (config.getTimingAggregationInterval() > 0) {
+            getScheduler().scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    flushTimings();
+                }
+            }, config.getTimingAggregationInterval(), config.getTimingAggregationInterval(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void createSpool() {
+        try {
+            spool = new HitSpool(new File(config.getSpoolDirectory()), config.getSpoolSegmentBytes(), config.getSpoolMaxBytes(), this);
+        } catch (IOException e) {
+            logger.warn("Could not open the spool in " + config.getSpoolDirectory() + ", hits which could not be sent will be lost", e);
+            return;
+        }
+
+        if (config.getSpoolReplayInterval() > 0) {
+            getScheduler().scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    replaySpool();
+                }
+            }, 0, config.getSpoolReplayInterval(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void createRetrier() {
+        retrier = new HitRetrier(this, config, getExecutor());
+        getScheduler().scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                retrier.tick();
+            }
+        }, HitRetrier.TICK_MILLIS, HitRetrier.TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void createAdaptiveSampler() {
+        adaptiveSampler = new AdaptiveSampler(config);
+        long interval = Math.max(1, config.getAdaptiveSamplingInterval());
+        getScheduler().scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                adjustSampling();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adjusts the adaptive sample rate to the number of async hits waiting or
+     * being sent. Called by the scheduler.
+     */
+    void adjustSampling() {
+        double previous = adaptiveSampler.getRate();
+        double rate = adaptiveSampler.adjust((int) Math.min(Integer.MAX_VALUE, pendingHits()));
+        if (rate != previous) {
+            logger.debug("Adaptive sample rate of the low priority hits changed from " + previous + " to " + rate);
+        }
+        publishSampleRates();
+    }
+
+    /**
+     * Sets the sample rate of each hit type in the stats.
+     */
+    private void publishSampleRates() {
+        if (sampler == null) {
+            return;
+        }
+        String trackingId = defaultRequest.trackingId();
+        Map<String, Double> rates = new HashMap<String, Double>();
+        for (String hitType : HitSampler.HIT_TYPES) {
+            rates.put(hitType, sampler.getRate(trackingId, hitType));
+        }
+        stats.sampleRates(rates);
+    }
+
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = new ScheduledThreadPoolExecutor(1, createThreadFactory());
+        }
+        return scheduler;
+    }
+
+    /**
+     * Sends the hit (or new line separated hits of a batch) to GA, through the
+     * circuit breaker if it is enabled.
+     *
+     * @return false if the hit is not sent as the circuit breaker is open, in
+     *         which case response status is set to 503.
+     */
+    boolean transmit(GoogleAnalyticsResponse response, GoogleAnalyticsPayload payload, boolean batch) throws IOException {
+        long start = System.currentTimeMillis();
+        if (circuitBreaker != null && !circuitBreaker.allowRequest(start)) {
+            response.setStatusCode(503);
+            return false;
+        }
+
+        boolean failed = true;
+        try {
+            if (batch) {
+                sendBatchPayload(response, payload);
+            } else {
+                sendPayload(response, payload);
+            }
+            failed = response.getStatusCode() >= 500;
+        } finally {
+            if (circuitBreaker != null || adaptiveSampler != null) {
+                long end = System.currentTimeMillis();
+                if (circuitBreaker != null) {
+                    circuitBreaker.record(end, end - start, failed);
+                }
+                if (adaptiveSampler != null) {
+                    adaptiveSampler.recordLatency(end - start);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Handles the hits which are not sent as the circuit breaker is open, as
+     * per {@link GoogleAnalyticsConfig#getCircuitBreakerFallback()}.
+     */
+    void shortCircuited(GoogleAnalyticsPayload payload, int hits, boolean batch) {
+        stats.shortCircuitedHits(hits);
+        if (config.getCircuitBreakerFallback() == CircuitBreakerFallback.SPOOL && spool != null) {
+            spool(payload, batch);
+        } else {
+            for (int i = 0; i < hits; i++) {
+                stats.droppedHit();
+            }
+        }
+    }
+
+    CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Handles the hit (or new line separated hits of a batch) which could not
+     * be sent due to a transient error, by retrying it later if retries are
+     * enabled, or else storing it in the spool.
+     */
+    void undelivered(GoogleAnalyticsPayload payload, boolean batch) {
+        if (retrier != null) {
+            retrier.retry(payload, batch);
+        } else {
+            spool(payload, batch);
+        }
+    }
+
+    /**
+     * Handles the encoded hit which a subclass sending hits on its own could
+     * not deliver due to a transient error, the same way as a failed
+     * {@link #post(GoogleAnalyticsRequest)}.
+     */
+    protected final void undelivered(byte[] hit, int length) {
+        GoogleAnalyticsPayload payload = new GoogleAnalyticsPayload(length);
+        payload.append(hit, 0, length);
+        undelivered(payload, false);
+    }
+
+    /**
+     * Stores the hit (or new line separated hits of a batch) which could not be
+     * sent in the spool, if there is one.
+     */
+    void spool(GoogleAnalyticsPayload payload, boolean batch) {
+        if (spool == null) {
+            return;
+        }
+        if (batch) {
+            spool.storeBatch(payload, System.currentTimeMillis());
+        } else {
+            spool.store(payload.array(), 0, payload.length(), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Hands the hit, if it is a retry which is not going to be sent, to the
+     * spool.
+     *
+     * @return false if the runnable is not a retry.
+     */
+    boolean abandonRetry(Runnable r) {
+        return retrier != null && retrier.abandon(r);
+    }
+
+    /**
+     * Stores the hit which failed first at given time in the spool.
+     *
+     * @return false if there is no spool or hit could not be stored.
+     */
+    boolean spool(byte[] hit, int length, long failedAt) {
+        return spool != null && spool.store(hit, 0, length, failedAt);
+    }
+
+    /**
+     * Sends the spooled hits, in batches if batching is enabled.
+     *
+     * @return number of hits sent.
+     */
+    int replaySpool() {
+        if (spool == null || spool.isEmpty()) {
+            return 0;
+        }
+
+        HitSpool.Sender sender = new HitSpool.Sender() {
+            @Override
+            public void send(GoogleAnalyticsPayload payload, int hits) throws IOException {
+                GoogleAnalyticsResponse response = new GoogleAnalyticsResponse();
+                if (!transmit(response, payload, batcher != null)) {
+                    throw new IOException("Circuit breaker is open");
+                }
+                if (response.getStatusCode() >= 500) {
+                    throw new IOException("GA responded with status " + response.getStatusCode());
+                }
+            }
+        };
+
+        int sent = batcher != null
+                ? spool.replay(sender, config.getMaxBatchSize(), config.getMaxBatchBytes())
+                : spool.replay(sender, 1, GoogleAnalyticsBatcher.MAX_HIT_BYTES);
+        if (sent > 0) {
+            logger.info("Sent " + sent + " spooled hits");
+        }
+        return sent;
     }
 
     protected int getDefaultMaxPerRoute(GoogleAnalyticsConfig config) {
@@ -287,16 +1266,71 @@ public abstract class GoogleAnalytics {
 
     protected ThreadPoolExecutor getExecutor() {
         if (executor == null) {
-            executor = createExecutor(config);
+            synchronized (this) {
+                if (executor == null) {
+                    executor = createExecutor(config);
+                }
+            }
         }
         return executor;
     }
 
+    /**
+     * @return the dispatcher of the configured {@link DispatchMode}, or null
+     *         if hits are queued to the executor.
+     */
+    HitDispatcher getDispatcher() {
+        if (!dispatcherCreated) {
+            synchronized (this) {
+                if (!dispatcherCreated) {
+                    dispatcher = createDispatcher(config);
+                    dispatcherCreated = true;
+                }
+            }
+        }
+        return dispatcher;
+    }
+
+    private HitDispatcher createDispatcher(GoogleAnalyticsConfig config) {
+        if (config.getDispatchMode() == DispatchMode.RING_BUFFER) {
+            return new RingBufferDispatcher(this, config);
+        }
+
+        if (config.getDispatchMode() == DispatchMode.VIRTUAL_THREADS) {
+            ExecutorService virtualThreads = VirtualThreadDispatcher.newVirtualThreadPerTaskExecutor();
+            if (virtualThreads != null) {
+                return new VirtualThreadDispatcher(this, config, virtualThreads);
+            }
+            logger.warn("Virtual threads are not supported by this JVM, using the thread pool to send the hits");
+        }
+
+        return null;
+    }
+
+    /**
+     * Creates the executor used for async posting. Pool has core size equal to
+     * max threads (with core threads timing out when idle) because with
+     * core size of zero, pool would never grow beyond one thread as long as the
+     * queue accepts the hits. Queue has a lane per {@link HitPriority} if
+     * priority lanes are enabled.
+     */
     protected synchronized ThreadPoolExecutor createExecutor(
             GoogleAnalyticsConfig config) {
-        return new ThreadPoolExecutor(0, config.getMaxThreads(), 5, 
-                TimeUnit.MINUTES, new LinkedBlockingDeque<Runnable>(), 
-                createThreadFactory());
+        int threads = Math.max(config.getMaxThreads(), 1);
+        BlockingQueue<Runnable> queue;
+        if (config.isPriorityLanesEnabled()) {
+            queue = new PriorityLaneQueue(this, config);
+        } else if (config.getQueueCapacity() > 0) {
+            queue = new LinkedBlockingDeque<Runnable>(config.getQueueCapacity());
+        } else {
+            queue = new LinkedBlockingDeque<Runnable>();
+        }
+
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threads,
+                threads, 5, TimeUnit.MINUTES, queue, createThreadFactory(),
+                new QueueOverflowHandler(this, config));
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
     }
 
     protected ThreadFactory createThreadFactory() {
@@ -309,13 +1343,170 @@ public abstract class GoogleAnalytics {
 
     public void resetStats() {
         stats = new GoogleAnalyticsStats();
+        publishSampleRates();
+    }
+
+    /**
+     * Url encodes the given parameters as <code>application/x-www-form-urlencoded</code>
+     * body, skipping the parameters without value.
+     */
+    protected static GoogleAnalyticsPayload urlEncode(Map<String, String> postParms) {
+        return GoogleAnalyticsEncoder.encode(postParms);
     }
 
     protected abstract void createClient();
     
+    /**
+     * Posts the given parameters to GA. Used by the implementations written
+     * before hits were encoded straight into {@link GoogleAnalyticsPayload};
+     * built-in implementations encode the parameters and delegate to
+     * {@link #sendPayload(GoogleAnalyticsResponse, GoogleAnalyticsPayload)}.
+     */
     protected abstract void sendRequest(GoogleAnalyticsResponse response, 
             Map<String, String> postParms) throws IOException;
-    
+
+    /**
+     * Posts the given url encoded hit to GA url ({@link GoogleAnalyticsConfig#getUrl()}).
+     * Payload is reused once this method returns, so implementations must not
+     * hold on to it. Default implementation decodes the payload and calls
+     * {@link #sendRequest(GoogleAnalyticsResponse, Map)}.
+     *
+     * @param response to be updated with the status code of the request.
+     * @param payload url encoded hit.
+     */
+    protected void sendPayload(GoogleAnalyticsResponse response,
+            GoogleAnalyticsPayload payload) throws IOException {
+        sendRequest(response, GoogleAnalyticsEncoder.decode(payload));
+    }
+
+    /**
+     * Posts the given payload to the batch url ({@link GoogleAnalyticsConfig#getBatchUrl()}).
+     * Payload contains one url encoded hit per line and is reused once this method
+     * returns. Default implementation posts each line on its own with
+     * {@link #sendPayload(GoogleAnalyticsResponse, GoogleAnalyticsPayload)} and
+     * sets the highest status code of them to the response. It stops at the first
+     * line which fails with an I/O error or a 5xx response, and leaves only that
+     * line and the ones after it in the payload, so the hits already sent are not
+     * retried or spooled again. Implementations which support batching should
+     * override this method.
+     *
+     * @param response to be updated with the status code of the batch request.
+     * @param payload new line separated, url encoded hits.
+     */
+    protected void sendBatchPayload(GoogleAnalyticsResponse response,
+            GoogleAnalyticsPayload payload) throws IOException {
+        byte[] bytes = payload.array();
+        int length = payload.length();
+        GoogleAnalyticsPayload line = new GoogleAnalyticsPayload(Math.min(length, GoogleAnalyticsBatcher.MAX_HIT_BYTES));
+        GoogleAnalyticsResponse lineResponse = new GoogleAnalyticsResponse();
+        int statusCode = 0;
+
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && bytes[end] != '\n') {
+                end++;
+            }
+            if (end > start) {
+                line.reset();
+                line.append(bytes, start, end - start);
+                lineResponse.setStatusCode(0);
+                try {
+                    sendPayload(lineResponse, line);
+                } catch (IOException e) {
+                    payload.removeFirst(start);
+                    throw e;
+                }
+                statusCode = Math.max(statusCode, lineResponse.getStatusCode());
+                if (lineResponse.getStatusCode() >= 500) {
+                    payload.removeFirst(start);
+                    break;
+                }
+            }
+            start = end + 1;
+        }
+        response.setStatusCode(statusCode);
+    }
+
+    /**
+     * Counters taken at the start of a flush, to report the hits handled by
+     * it.
+     */
+    private class Counts {
+        final long posted = postedHits.get();
+        final long spilled = spilledHits.get();
+        final GoogleAnalyticsStats startStats = stats;
+        final long dropped = startStats.getDroppedHits();
+
+        GoogleAnalyticsFlushResult result(boolean completed) {
+            long droppedNow = stats == startStats ? stats.getDroppedHits() - dropped : stats.getDroppedHits();
+            return new GoogleAnalyticsFlushResult(completed, postedHits.get() - posted, spilledHits.get() - spilled, droppedNow);
+        }
+    }
+
+    /**
+     * Future of the postAsync variants without callback, which returns an
+     * empty response instead of throwing if the hit could not be sent. The
+     * failure is logged when the hit is sent.
+     */
+    private static final class ResponseFuture implements Future<GoogleAnalyticsResponse> {
+        private final GoogleAnalyticsFuture future;
+
+        ResponseFuture(GoogleAnalyticsFuture future) {
+            this.future = future;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return future.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+        @Override
+        public GoogleAnalyticsResponse get() throws InterruptedException {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                return new GoogleAnalyticsResponse();
+            }
+        }
+
+        @Override
+        public GoogleAnalyticsResponse get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+            try {
+                return future.get(timeout, unit);
+            } catch (ExecutionException e) {
+                return new GoogleAnalyticsResponse();
+            }
+        }
+    }
+
+    /**
+     * Hit queued to the executor by {@link GoogleAnalytics#dispatch(Object, GoogleAnalyticsFuture)}.
+     */
+    class QueuedHit implements Runnable {
+        final Object hit;
+        final GoogleAnalyticsFuture future;
+
+        QueuedHit(Object hit, GoogleAnalyticsFuture future) {
+            this.hit = hit;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            postQueued(hit, future);
+        }
+    }
 }
 
 class GoogleAnalyticsThreadFactory implements ThreadFactory {
@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the encoded hits and sends them to GA batch endpoint, up to
+ * configured number of hits and bytes per request.
+ *
+ * <p>Hits are added by the posting threads and batch is sent by the thread
+ * which fills it up (or by {@link #flush()}), outside the lock, so the posting
+ * threads only contend for the time it takes to append the payload.
+ */
+class GoogleAnalyticsBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(GoogleAnalyticsBatcher.class);
+
+    /** Measurement protocol rejects any single hit bigger than this. */
+    static final int MAX_HIT_BYTES = 8 * 1024;
+
+    private final GoogleAnalytics analytics;
+    private final int maxBatchSize;
+    private final int maxBatchBytes;
+
+    /** Hits collected so far, separated by new line. */
+    private GoogleAnalyticsPayload batch = null;
+    private int batchSize = 0;
+
+    /** Payloads of the batches which are sent, to be reused for the next ones. */
+    private final Queue<GoogleAnalyticsPayload> pool = new ConcurrentLinkedQueue<GoogleAnalyticsPayload>();
+
+    GoogleAnalyticsBatcher(GoogleAnalytics analytics, GoogleAnalyticsConfig config) {
+        this.analytics = analytics;
+        this.maxBatchSize = config.getMaxBatchSize();
+        this.maxBatchBytes = config.getMaxBatchBytes();
+        this.batch = new GoogleAnalyticsPayload(maxBatchBytes);
+    }
+
+    /**
+     * Appends the given hit to the current batch and sends the batch if it is
+     * full. Hit payload is copied, so it can be reused once this returns.
+     *
+     * @param response response to update with the status of the batch request,
+     *            if this hit caused a batch to be sent.
+     */
+    void add(GoogleAnalyticsResponse response, GoogleAnalyticsPayload payload) {
+        int bytes = payload.length();
+
+        if (bytes > MAX_HIT_BYTES) {
+            logger.warn("Hit payload of " + bytes + " bytes exceeds the limit of GA, dropping it " + payload);
+            analytics.getStats().droppedHit();
+            return;
+        }
+        if (bytes > maxBatchBytes) {
+            logger.warn("Hit payload of " + bytes + " bytes exceeds the batch limit, sending it on its own " + payload);
+            sendSingle(response, payload);
+            return;
+        }
+
+        GoogleAnalyticsPayload overflow = null;
+        int overflowSize = 0;
+        GoogleAnalyticsPayload full = null;
+        int fullSize = 0;
+        synchronized (this) {
+            //+1 for the new line separating this payload from previous one
+            if (batchSize > 0 && batch.length() + 1 + bytes > maxBatchBytes) {
+                overflowSize = batchSize;
+                overflow = swap();
+            }
+
+            if (batchSize > 0) {
+                batch.append((byte) '\n');
+            }
+            batch.append(payload);
+            batchSize++;
+
+            if (batchSize >= maxBatchSize) {
+                fullSize = batchSize;
+                full = swap();
+            }
+        }
+
+        if (overflow != null) {
+            send(response, overflow, overflowSize);
+            recycle(overflow);
+        }
+        if (full != null) {
+            send(response, full, fullSize);
+            recycle(full);
+        }
+    }
+
+    /**
+     * Sends whatever hits are collected so far, if any.
+     */
+    void flush() {
+        GoogleAnalyticsPayload pending = null;
+        int pendingSize = 0;
+        synchronized (this) {
+            if (batchSize == 0) {
+                return;
+            }
+            pendingSize = batchSize;
+            pending = swap();
+        }
+
+        send(new GoogleAnalyticsResponse(), pending, pendingSize);
+        recycle(pending);
+    }
+
+    synchronized int size() {
+        return batchSize;
+    }
+
+    private GoogleAnalyticsPayload swap() {
+        GoogleAnalyticsPayload pending = batch;
+        batch = pool.poll();
+        if (batch == null) {
+            batch = new GoogleAnalyticsPayload(maxBatchBytes);
+        }
+        batchSize = 0;
+        return pending;
+    }
+
+    private void recycle(GoogleAnalyticsPayload payload) {
+        payload.reset();
+        pool.offer(payload);
+    }
+
+    /**
+     * Sends the hit to the url of the single hits, as it does not fit in a batch.
+     */
+    private void sendSingle(GoogleAnalyticsResponse response, GoogleAnalyticsPayload payload) {
+        try {
+            if (!analytics.transmit(response, payload, false)) {
+                analytics.shortCircuited(payload, 1, false);
+            } else if (response.getStatusCode() >= 500) {
+                analytics.undelivered(payload, false);
+            }
+        } catch (IOException e) {
+            logger.warn("Exception while sending the Google Analytics request", e);
+            analytics.undelivered(payload, false);
+        } catch (Exception e) {
+            logger.warn("Exception while sending the Google Analytics request", e);
+        }
+    }
+
+    private void send(GoogleAnalyticsResponse response, GoogleAnalyticsPayload payload, int hits) {
+        try {
+            logger.debug("Sending batch of " + hits + " hits");
+            if (!analytics.transmit(response, payload, true)) {
+                analytics.shortCircuited(payload, hits, true);
+            } else if (response.getStatusCode() >= 500) {
+                analytics.undelivered(payload, true);
+            }
+        } catch (IOException e) {
+            logger.warn("Exception while sending the Google Analytics batch request of " + hits + " hits", e);
+            analytics.undelivered(payload, true);
+        } catch (Exception e) {
+            logger.warn("Exception while sending the Google Analytics batch request of " + hits + " hits", e);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+/**
+ * Receives the outcome of the hits sent asynchronously.
+ * <p>
+ * Methods are called on the thread which sent the hit, so they should return quickly. Any exception
+ * thrown is logged and ignored.
+ */
+public interface GoogleAnalyticsCallback {
+
+	/**
+	 * Called once the hit is sent to GA.
+	 *
+	 * @param response response of the hit. For hits sent with {@link GoogleAnalytics#send(GoogleAnalyticsRequest)}
+	 * 		the response object is reused by the next hit, so it must not be retained after this method returns.
+	 */
+	@SuppressWarnings("rawtypes")
+	void onSuccess(GoogleAnalyticsRequest request, GoogleAnalyticsResponse response);
+
+	/**
+	 * Called if the hit could not be sent, or was dropped because the queue was full.
+	 */
+	@SuppressWarnings("rawtypes")
+	void onFailure(GoogleAnalyticsRequest request, Throwable error);
+}
@@ -13,6 +13,9 @@
  */
 package com.brsanthu.googleanalytics;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Properties that can be configured in this library. These would include any properties that are required to process the
  * tracking request or enhance the tracking request (but not specified in measurement protocol like User agent).
@@ -30,10 +33,64 @@ public class GoogleAnalyticsConfig {
 	private String threadNameFormat = "googleanalytics-thread-{0}";
 	private boolean enabled = true;
 	private int maxThreads = 1;
+	private int queueCapacity = 0;
+	private QueueOverflowPolicy queueOverflowPolicy = QueueOverflowPolicy.DROP_NEWEST;
+	private long queueBlockTimeout = 1000;
+	private DispatchMode dispatchMode = DispatchMode.EXECUTOR;
+	private GoogleAnalyticsCallback sendCallback = null;
+	private boolean priorityLanesEnabled = false;
+	private Map<String, HitPriority> hitPriorities = defaultHitPriorities();
+	private int[] priorityLaneWeights = {8, 3, 1};
+	private int[] priorityLaneCapacities = {0, 0, 0};
+	private int connectTimeout = 10000;
+	private int readTimeout = 10000;
 	private boolean useHttps = true;
 	private boolean validate = true;
 	private String httpUrl = "http://www.google-analytics.com/collect";
 	private String httpsUrl = "https://ssl.google-analytics.com/collect";
+	private String httpBatchUrl = "http://www.google-analytics.com/batch";
+	private String httpsBatchUrl = "https://ssl.google-analytics.com/batch";
+	private boolean batchingEnabled = false;
+	private int maxBatchSize = 20;
+	private int maxBatchBytes = 16 * 1024;
+	private long batchFlushInterval = 5000;
+	private String spoolDirectory = null;
+	private int spoolSegmentBytes = 4 * 1024 * 1024;
+	private long spoolMaxBytes = 64 * 1024 * 1024;
+	private long spoolReplayInterval = 30000;
+	private int maxRetries = 0;
+	private long retryBaseDelay = 1000;
+	private long retryMaxDelay = 60000;
+	private boolean circuitBreakerEnabled = false;
+	private float circuitBreakerFailureRate = 0.5f;
+	private long circuitBreakerSlowCallDuration = 5000;
+	private int circuitBreakerMinimumCalls = 20;
+	private long circuitBreakerWindow = 10000;
+	private long circuitBreakerOpenDuration = 30000;
+	private CircuitBreakerFallback circuitBreakerFallback = CircuitBreakerFallback.SPOOL;
+	private double trackingIdRateLimit = 0;
+	private int trackingIdRateBurst = 100;
+	private double clientIdRateLimit = 0;
+	private int clientIdRateBurst = 20;
+	private int maxRateLimitedClientIds = 10000;
+	private long closeTimeout = 5000;
+	private double sampleRate = 1;
+	private Map<String, Double> trackingIdSampleRates = new HashMap<String, Double>();
+	private Map<String, Double> hitTypeSampleRates = new HashMap<String, Double>();
+	private boolean adaptiveSamplingEnabled = false;
+	private long adaptiveSamplingInterval = 1000;
+	private int adaptiveSamplingMaxQueueDepth = 1000;
+	private long adaptiveSamplingMaxLatency = 1000;
+	private double adaptiveSamplingMinRate = 0.01;
+	private boolean eventAggregationEnabled = false;
+	private long eventAggregationInterval = 60000;
+	private int maxAggregatedEvents = 10000;
+	private int eventAggregationCountMetric = 0;
+	private boolean timingAggregationEnabled = false;
+	private long timingAggregationInterval = 60000;
+	private int maxAggregatedTimings = 1000;
+	private double[] timingAggregationPercentiles = {50, 90, 99};
+	private UnsentHitHandler unsentHitHandler = null;
 	private String userAgent = null;
 	private String proxyHost = null;
 	private int proxyPort = 80;
@@ -128,6 +185,10 @@ public class GoogleAnalyticsConfig {
 	/**
 	 * Sets the user name which should be used to authenticate to the proxy server. This is applicable only if {@link #setProxyHost(String)} is not empty.
 	 *
+	 * <p>Only Basic authentication is supported. For https, the JDK implementations authenticate the proxy tunnel with a
+	 * {@link java.net.Authenticator} set on each connection, which needs Java 9 or later. The JDK does not do that for Basic
+	 * unless the JVM is started with <code>-Djdk.http.auth.tunneling.disabledSchemes=""</code>.</p>
+	 *
 	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
 	 */
 	public GoogleAnalyticsConfig setProxyUserName(String proxyUserName) {
@@ -219,6 +280,192 @@ public class GoogleAnalyticsConfig {
 		this.maxThreads = maxThreads;
 		return this;
 	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * Maximum number of asynchronous hits waiting to be sent. Once the queue is full, {@link #getQueueOverflowPolicy()}
+	 * decides what happens to new hits. Zero or negative value makes the queue unbounded, in which case
+	 * {@link DispatchMode#RING_BUFFER} uses a buffer of 65536 slots. Default is 0, so no hit is dropped unless a
+	 * bound is set.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+		return this;
+	}
+
+	public QueueOverflowPolicy getQueueOverflowPolicy() {
+		return queueOverflowPolicy;
+	}
+
+	/**
+	 * Sets what should happen to asynchronous hits posted while the queue is full. Default is {@link QueueOverflowPolicy#DROP_NEWEST}.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setQueueOverflowPolicy(QueueOverflowPolicy queueOverflowPolicy) {
+		this.queueOverflowPolicy = queueOverflowPolicy;
+		return this;
+	}
+
+	public long getQueueBlockTimeout() {
+		return queueBlockTimeout;
+	}
+
+	/**
+	 * Maximum time in milliseconds the posting thread waits for room in the queue when overflow policy
+	 * is {@link QueueOverflowPolicy#BLOCK}. Default is 1000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setQueueBlockTimeout(long queueBlockTimeout) {
+		this.queueBlockTimeout = queueBlockTimeout;
+		return this;
+	}
+
+	public DispatchMode getDispatchMode() {
+		return dispatchMode;
+	}
+
+	/**
+	 * Sets how asynchronous hits are handed over to the threads sending them. Default is {@link DispatchMode#EXECUTOR}.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setDispatchMode(DispatchMode dispatchMode) {
+		this.dispatchMode = dispatchMode;
+		return this;
+	}
+
+	public GoogleAnalyticsCallback getSendCallback() {
+		return sendCallback;
+	}
+
+	/**
+	 * Sets the callback notified of the outcome of every hit sent with {@link GoogleAnalytics#send(GoogleAnalyticsRequest)}.
+	 * Default is null, in which case outcomes are only logged.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setSendCallback(GoogleAnalyticsCallback sendCallback) {
+		this.sendCallback = sendCallback;
+		return this;
+	}
+
+	public boolean isPriorityLanesEnabled() {
+		return priorityLanesEnabled;
+	}
+
+	/**
+	 * If true, asynchronous hits wait in a lane per {@link HitPriority} of their hit type (see
+	 * {@link #setHitPriority(String, HitPriority)}), so that transaction, item and exception hits are not held up by
+	 * page views, and page views are dropped first once the queue is full. Applies to {@link DispatchMode#EXECUTOR}
+	 * only. Default is false.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setPriorityLanesEnabled(boolean priorityLanesEnabled) {
+		this.priorityLanesEnabled = priorityLanesEnabled;
+		return this;
+	}
+
+	/**
+	 * @return the priority of the hits of given hit type, {@link HitPriority#NORMAL} if it is not set.
+	 */
+	public HitPriority getHitPriority(String hitType) {
+		HitPriority priority = hitType == null ? null : hitPriorities.get(hitType.toLowerCase());
+		return priority == null ? HitPriority.NORMAL : priority;
+	}
+
+	/**
+	 * Sets the lane in which the hits of given hit type (like "pageview") wait, when priority lanes are enabled.
+	 * By default, transaction, item and exception hits are {@link HitPriority#HIGH}, page view, app view and timing
+	 * hits are {@link HitPriority#LOW} and others are {@link HitPriority#NORMAL}.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setHitPriority(String hitType, HitPriority priority) {
+		hitPriorities.put(hitType.toLowerCase(), priority);
+		return this;
+	}
+
+	public int getPriorityLaneWeight(HitPriority priority) {
+		return priorityLaneWeights[priority.ordinal()];
+	}
+
+	/**
+	 * Number of hits taken from the lane in turn, before moving on to the next lane, while other lanes have hits
+	 * waiting too. Defaults are 8 for {@link HitPriority#HIGH}, 3 for {@link HitPriority#NORMAL} and 1 for
+	 * {@link HitPriority#LOW}.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setPriorityLaneWeight(HitPriority priority, int weight) {
+		priorityLaneWeights[priority.ordinal()] = weight;
+		return this;
+	}
+
+	public int getPriorityLaneCapacity(HitPriority priority) {
+		return priorityLaneCapacities[priority.ordinal()];
+	}
+
+	/**
+	 * Maximum number of hits waiting in the lane. Hits of a full lane are handled as per
+	 * {@link #getQueueOverflowPolicy()}, even if the queue has room. Zero or negative value limits the lane only
+	 * by {@link #getQueueCapacity()}. Default is 0 for all the lanes.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setPriorityLaneCapacity(HitPriority priority, int capacity) {
+		priorityLaneCapacities[priority.ordinal()] = capacity;
+		return this;
+	}
+
+	private static Map<String, HitPriority> defaultHitPriorities() {
+		Map<String, HitPriority> priorities = new HashMap<String, HitPriority>();
+		priorities.put("transaction", HitPriority.HIGH);
+		priorities.put("item", HitPriority.HIGH);
+		priorities.put("exception", HitPriority.HIGH);
+		priorities.put("pageview", HitPriority.LOW);
+		priorities.put("appview", HitPriority.LOW);
+		priorities.put("timing", HitPriority.LOW);
+		return priorities;
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * Maximum time in milliseconds to wait while establishing the connection to Google Analytics. Zero means
+	 * wait forever. Default is 10000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+		return this;
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * Maximum time in milliseconds to wait for Google Analytics to respond, once connected. Zero means
+	 * wait forever. Default is 10000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+		return this;
+	}
+
 	public boolean isUseHttps() {
 		return useHttps;
 	}
@@ -281,6 +528,701 @@ public class GoogleAnalyticsConfig {
 		return useHttps?httpsUrl:httpUrl;
 	}
 
+	public String getHttpBatchUrl() {
+		return httpBatchUrl;
+	}
+
+	/**
+	 * URL to use when posting batched events in http mode. This url is Google Analytics service url and usually not updated by the clients.
+	 *
+	 * <p>Default value is <code>http://www.google-analytics.com/batch</code></p>
+	 *
+	 * <p>This is <strong>request</strong> level configuration (can be changed any time).</p>
+	 */
+	public GoogleAnalyticsConfig setHttpBatchUrl(String httpBatchUrl) {
+		this.httpBatchUrl = httpBatchUrl;
+		return this;
+	}
+
+	public String getHttpsBatchUrl() {
+		return httpsBatchUrl;
+	}
+
+	/**
+	 * URL to use when posting batched events in https mode. This url is Google Analytics service url and usually not updated by the clients.
+	 *
+	 * <p>Default value is <code>https://ssl.google-analytics.com/batch</code></p>
+	 *
+	 * <p>This is <strong>request</strong> level configuration (can be changed any time).</p>
+	 */
+	public GoogleAnalyticsConfig setHttpsBatchUrl(String httpsBatchUrl) {
+		this.httpsBatchUrl = httpsBatchUrl;
+		return this;
+	}
+
+	public String getBatchUrl() {
+		return useHttps?httpsBatchUrl:httpBatchUrl;
+	}
+
+	public boolean isBatchingEnabled() {
+		return batchingEnabled;
+	}
+
+	/**
+	 * If set to true, hits are not posted one by one but are collected and sent together to the batch url
+	 * (see {@link #getBatchUrl()}), which reduces the number of http round trips considerably. A batch is sent
+	 * when it reaches {@link #getMaxBatchSize()} hits or {@link #getMaxBatchBytes()} bytes, every
+	 * {@link #getBatchFlushInterval()} milliseconds and when {@link GoogleAnalytics#close()} is called. Default is false.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setBatchingEnabled(boolean batchingEnabled) {
+		this.batchingEnabled = batchingEnabled;
+		return this;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * Maximum number of hits sent in a single batch request. Measurement protocol accepts at most 20 hits per batch,
+	 * so values are capped to 20. Default is 20.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = Math.max(1, Math.min(maxBatchSize, 20));
+		return this;
+	}
+
+	public int getMaxBatchBytes() {
+		return maxBatchBytes;
+	}
+
+	/**
+	 * Maximum size in bytes of the body of a single batch request. Measurement protocol accepts at most 16K bytes
+	 * per batch, so values are capped to 16K. Default is 16K.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setMaxBatchBytes(int maxBatchBytes) {
+		this.maxBatchBytes = Math.max(1, Math.min(maxBatchBytes, 16 * 1024));
+		return this;
+	}
+
+	public long getBatchFlushInterval() {
+		return batchFlushInterval;
+	}
+
+	/**
+	 * Interval in milliseconds after which a partially filled batch is sent anyway, so hits are not held back
+	 * for long when there is little traffic. Zero or negative value disables the periodic flush. Default is 5000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setBatchFlushInterval(long batchFlushInterval) {
+		this.batchFlushInterval = batchFlushInterval;
+		return this;
+	}
+
+	public String getSpoolDirectory() {
+		return spoolDirectory;
+	}
+
+	/**
+	 * Directory where the hits which could not be sent (because GA could not be reached or responded with server
+	 * error) are stored, to be sent again once GA can be reached, with the queue time (<code>qt</code>) parameter
+	 * set to the time since the hit was stored. Hits older than 4 hours are discarded, as GA does not accept them.
+	 * Default is null, which disables the spool and such hits are lost.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setSpoolDirectory(String spoolDirectory) {
+		this.spoolDirectory = spoolDirectory;
+		return this;
+	}
+
+	public int getSpoolSegmentBytes() {
+		return spoolSegmentBytes;
+	}
+
+	/**
+	 * Size in bytes of each spool file, which is memory mapped and written sequentially. A new file is started
+	 * when the current one is full. Default is 4MB.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setSpoolSegmentBytes(int spoolSegmentBytes) {
+		this.spoolSegmentBytes = spoolSegmentBytes;
+		return this;
+	}
+
+	public long getSpoolMaxBytes() {
+		return spoolMaxBytes;
+	}
+
+	/**
+	 * Maximum disk space in bytes used by the spool. Once reached, oldest spool file is deleted along with the hits
+	 * in it to make room for the new hits. At least two spool files are kept irrespective of this. Default is 64MB.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setSpoolMaxBytes(long spoolMaxBytes) {
+		this.spoolMaxBytes = spoolMaxBytes;
+		return this;
+	}
+
+	public long getSpoolReplayInterval() {
+		return spoolReplayInterval;
+	}
+
+	/**
+	 * Interval in milliseconds at which sending the spooled hits is attempted. Hits are sent in batches if batching
+	 * is enabled (see {@link #setBatchingEnabled(boolean)}). Default is 30000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setSpoolReplayInterval(long spoolReplayInterval) {
+		this.spoolReplayInterval = spoolReplayInterval;
+		return this;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * Maximum number of times a hit which failed transiently (GA could not be reached or responded with server
+	 * error) is sent again, in the background, after the original post has reported the failure. Retries are
+	 * delayed exponentially starting from {@link #getRetryBaseDelay()} up to {@link #getRetryMaxDelay()}, with
+	 * random jitter, and carry the queue time (<code>qt</code>) since the first failure. Hits which still fail
+	 * are stored in the spool (see {@link #setSpoolDirectory(String)}) if there is one. Hits older than 4 hours
+	 * are discarded. Default is 0, which disables retries.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+		return this;
+	}
+
+	public long getRetryBaseDelay() {
+		return retryBaseDelay;
+	}
+
+	/**
+	 * Delay in milliseconds before the first retry of a failed hit, which is doubled for each further retry.
+	 * Delays are resolved to 100 milliseconds. Default is 1000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setRetryBaseDelay(long retryBaseDelay) {
+		this.retryBaseDelay = retryBaseDelay;
+		return this;
+	}
+
+	public long getRetryMaxDelay() {
+		return retryMaxDelay;
+	}
+
+	/**
+	 * Maximum delay in milliseconds between the retries of a failed hit. Default is 60000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setRetryMaxDelay(long retryMaxDelay) {
+		this.retryMaxDelay = retryMaxDelay;
+		return this;
+	}
+
+	public boolean isCircuitBreakerEnabled() {
+		return circuitBreakerEnabled;
+	}
+
+	/**
+	 * If set to true, hits are not sent at all while GA is failing, so threads and queues are not held up waiting
+	 * for the timeouts. Circuit opens when the rate of the failed (server errors or exceptions) or slow requests
+	 * over the last {@link #getCircuitBreakerWindow()} milliseconds reaches {@link #getCircuitBreakerFailureRate()}.
+	 * While it is open, hits are handled as per {@link #getCircuitBreakerFallback()}. After
+	 * {@link #getCircuitBreakerOpenDuration()} milliseconds, a single hit is sent as a probe, and circuit closes
+	 * if it succeeds. Default is false.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+		this.circuitBreakerEnabled = circuitBreakerEnabled;
+		return this;
+	}
+
+	public float getCircuitBreakerFailureRate() {
+		return circuitBreakerFailureRate;
+	}
+
+	/**
+	 * Rate (0 to 1) of the failed requests, or of the slow requests, at which circuit breaker opens. Default is 0.5.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setCircuitBreakerFailureRate(float circuitBreakerFailureRate) {
+		this.circuitBreakerFailureRate = circuitBreakerFailureRate;
+		return this;
+	}
+
+	public long getCircuitBreakerSlowCallDuration() {
+		return circuitBreakerSlowCallDuration;
+	}
+
+	/**
+	 * Requests taking this many milliseconds or more are considered slow by the circuit breaker. Zero or negative
+	 * value disables tracking of the slow requests. Default is 5000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setCircuitBreakerSlowCallDuration(long circuitBreakerSlowCallDuration) {
+		this.circuitBreakerSlowCallDuration = circuitBreakerSlowCallDuration;
+		return this;
+	}
+
+	public int getCircuitBreakerMinimumCalls() {
+		return circuitBreakerMinimumCalls;
+	}
+
+	/**
+	 * Minimum number of requests in the window before circuit breaker can open, so few failures when there is
+	 * little traffic do not open it. Default is 20.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setCircuitBreakerMinimumCalls(int circuitBreakerMinimumCalls) {
+		this.circuitBreakerMinimumCalls = circuitBreakerMinimumCalls;
+		return this;
+	}
+
+	public long getCircuitBreakerWindow() {
+		return circuitBreakerWindow;
+	}
+
+	/**
+	 * Length in milliseconds of the sliding window over which the circuit breaker tracks the outcome of the
+	 * requests. Default is 10000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setCircuitBreakerWindow(long circuitBreakerWindow) {
+		this.circuitBreakerWindow = circuitBreakerWindow;
+		return this;
+	}
+
+	public long getCircuitBreakerOpenDuration() {
+		return circuitBreakerOpenDuration;
+	}
+
+	/**
+	 * Time in milliseconds the circuit breaker stays open before probing GA with a single hit. Default is 30000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setCircuitBreakerOpenDuration(long circuitBreakerOpenDuration) {
+		this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+		return this;
+	}
+
+	public CircuitBreakerFallback getCircuitBreakerFallback() {
+		return circuitBreakerFallback;
+	}
+
+	/**
+	 * What to do with the hits which are not sent while the circuit breaker is open. Default is
+	 * {@link CircuitBreakerFallback#SPOOL}.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setCircuitBreakerFallback(CircuitBreakerFallback circuitBreakerFallback) {
+		this.circuitBreakerFallback = circuitBreakerFallback;
+		return this;
+	}
+
+	public double getTrackingIdRateLimit() {
+		return trackingIdRateLimit;
+	}
+
+	/**
+	 * Maximum hits per second sent for each tracking id, on average. Hits beyond the rate (and the burst of
+	 * {@link #getTrackingIdRateBurst()} hits) are not sent and are counted in
+	 * {@link GoogleAnalyticsStats#getThrottledHits()}, as GA would discard them anyway once the property quota is
+	 * exceeded. Zero or negative value disables the limit. Default is 0.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setTrackingIdRateLimit(double trackingIdRateLimit) {
+		this.trackingIdRateLimit = trackingIdRateLimit;
+		return this;
+	}
+
+	public int getTrackingIdRateBurst() {
+		return trackingIdRateBurst;
+	}
+
+	/**
+	 * Number of hits which can be sent at once for a tracking id, above the rate limit, after a period of little
+	 * traffic. Default is 100.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setTrackingIdRateBurst(int trackingIdRateBurst) {
+		this.trackingIdRateBurst = trackingIdRateBurst;
+		return this;
+	}
+
+	public double getClientIdRateLimit() {
+		return clientIdRateLimit;
+	}
+
+	/**
+	 * Maximum hits per second sent for each client id, on average, same as {@link #setTrackingIdRateLimit(double)}.
+	 * GA tracking libraries allow 2 hits per second with burst of 20 per client. Zero or negative value disables
+	 * the limit. Default is 0.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setClientIdRateLimit(double clientIdRateLimit) {
+		this.clientIdRateLimit = clientIdRateLimit;
+		return this;
+	}
+
+	public int getClientIdRateBurst() {
+		return clientIdRateBurst;
+	}
+
+	/**
+	 * Number of hits which can be sent at once for a client id, above the rate limit. Default is 20.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setClientIdRateBurst(int clientIdRateBurst) {
+		this.clientIdRateBurst = clientIdRateBurst;
+		return this;
+	}
+
+	public int getMaxRateLimitedClientIds() {
+		return maxRateLimitedClientIds;
+	}
+
+	/**
+	 * Maximum number of client ids tracked for rate limiting. Client ids which have been idle long enough to be
+	 * within the limit again are forgotten to make room for new ones; if there are still too many, hits of new
+	 * client ids are not limited per client. Default is 10000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setMaxRateLimitedClientIds(int maxRateLimitedClientIds) {
+		this.maxRateLimitedClientIds = maxRateLimitedClientIds;
+		return this;
+	}
+
+	public long getCloseTimeout() {
+		return closeTimeout;
+	}
+
+	/**
+	 * Maximum time in milliseconds {@link GoogleAnalytics#close()} waits for the queued and in-flight asynchronous
+	 * hits to be sent. Hits still queued after that are handed to {@link #getUnsentHitHandler()}. Default is 5000.
+	 *
+	 * <p>This is <strong>request</strong> level configuration (can be changed any time).</p>
+	 */
+	public GoogleAnalyticsConfig setCloseTimeout(long closeTimeout) {
+		this.closeTimeout = closeTimeout;
+		return this;
+	}
+
+	public UnsentHitHandler getUnsentHitHandler() {
+		return unsentHitHandler;
+	}
+
+	/**
+	 * Sets the handler receiving the asynchronous hits which are not sent before the close timeout, or are posted
+	 * once GA is being closed. Default is null, in which case such hits are stored in the spool (see
+	 * {@link #setSpoolDirectory(String)}), or dropped if there is no spool.
+	 *
+	 * <p>This is <strong>request</strong> level configuration (can be changed any time).</p>
+	 */
+	public GoogleAnalyticsConfig setUnsentHitHandler(UnsentHitHandler unsentHitHandler) {
+		this.unsentHitHandler = unsentHitHandler;
+		return this;
+	}
+
+	public double getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Fraction (0 to 1) of the users whose hits are sent. Users are chosen by the hash of their client id (of the
+	 * request, or else of the default request), so all the hits of a user are either sent or not. Hits which are not
+	 * sent are counted in {@link GoogleAnalyticsStats#getSampledOutHits()}. Default is 1, which sends all the hits.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setSampleRate(double sampleRate) {
+		this.sampleRate = sampleRate;
+		return this;
+	}
+
+	/**
+	 * @return the sample rate of the tracking id, or {@link #getSampleRate()} if it is not set.
+	 */
+	public double getTrackingIdSampleRate(String trackingId) {
+		Double rate = trackingId == null ? null : trackingIdSampleRates.get(trackingId);
+		return rate == null ? sampleRate : rate;
+	}
+
+	/**
+	 * Sets the sample rate of the hits of given tracking id, in place of {@link #setSampleRate(double)}.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setTrackingIdSampleRate(String trackingId, double rate) {
+		trackingIdSampleRates.put(trackingId, rate);
+		return this;
+	}
+
+	/**
+	 * @return the sample rate of the hit type, 1 if it is not set.
+	 */
+	public double getHitTypeSampleRate(String hitType) {
+		Double rate = hitType == null ? null : hitTypeSampleRates.get(hitType.toLowerCase());
+		return rate == null ? 1 : rate;
+	}
+
+	/**
+	 * Sets the sample rate of the hits of given hit type (like "pageview"). Lower of this and the sample rate of the
+	 * tracking id applies. Users whose hits of this type are sent are a subset of the users whose other hits are sent.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setHitTypeSampleRate(String hitType, double rate) {
+		hitTypeSampleRates.put(hitType.toLowerCase(), rate);
+		return this;
+	}
+
+	public boolean isAdaptiveSamplingEnabled() {
+		return adaptiveSamplingEnabled;
+	}
+
+	/**
+	 * If true, the rate at which the hits of {@link HitPriority#LOW} hit types (page views, app views and timings by
+	 * default, see {@link #setHitPriority(String, HitPriority)}) are sampled is lowered while the async hits waiting to
+	 * be sent exceed {@link #getAdaptiveSamplingMaxQueueDepth()} or requests to GA take longer than
+	 * {@link #getAdaptiveSamplingMaxLatency()}, and raised again once they are back to normal. Users are sampled by
+	 * their client id, same as with {@link #setSampleRate(double)}. Current rates are in
+	 * {@link GoogleAnalyticsStats#getSampleRates()}. Default is false.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setAdaptiveSamplingEnabled(boolean adaptiveSamplingEnabled) {
+		this.adaptiveSamplingEnabled = adaptiveSamplingEnabled;
+		return this;
+	}
+
+	public long getAdaptiveSamplingInterval() {
+		return adaptiveSamplingInterval;
+	}
+
+	/**
+	 * Time in milliseconds between the adjustments of the adaptive sample rate. Default is 1000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setAdaptiveSamplingInterval(long adaptiveSamplingInterval) {
+		this.adaptiveSamplingInterval = adaptiveSamplingInterval;
+		return this;
+	}
+
+	public int getAdaptiveSamplingMaxQueueDepth() {
+		return adaptiveSamplingMaxQueueDepth;
+	}
+
+	/**
+	 * Number of async hits waiting or being sent above which the adaptive sample rate is lowered. Default is 1000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setAdaptiveSamplingMaxQueueDepth(int adaptiveSamplingMaxQueueDepth) {
+		this.adaptiveSamplingMaxQueueDepth = adaptiveSamplingMaxQueueDepth;
+		return this;
+	}
+
+	public long getAdaptiveSamplingMaxLatency() {
+		return adaptiveSamplingMaxLatency;
+	}
+
+	/**
+	 * Average time in milliseconds of the requests to GA above which the adaptive sample rate is lowered. Default
+	 * is 1000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setAdaptiveSamplingMaxLatency(long adaptiveSamplingMaxLatency) {
+		this.adaptiveSamplingMaxLatency = adaptiveSamplingMaxLatency;
+		return this;
+	}
+
+	public double getAdaptiveSamplingMinRate() {
+		return adaptiveSamplingMinRate;
+	}
+
+	/**
+	 * Lowest the adaptive sample rate goes. Default is 0.01.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setAdaptiveSamplingMinRate(double adaptiveSamplingMinRate) {
+		this.adaptiveSamplingMinRate = adaptiveSamplingMinRate;
+		return this;
+	}
+
+	public boolean isEventAggregationEnabled() {
+		return eventAggregationEnabled;
+	}
+
+	/**
+	 * If true, events of same tracking id, client id, category, action and label are not sent one by one, but rolled
+	 * up into one event hit, with the sum of their values, which is sent every {@link #getEventAggregationInterval()}
+	 * milliseconds, when {@link GoogleAnalytics#flush()} is called and when GA is closed. Other parameters of the
+	 * rolled up hit are of the first event. Default is false.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setEventAggregationEnabled(boolean eventAggregationEnabled) {
+		this.eventAggregationEnabled = eventAggregationEnabled;
+		return this;
+	}
+
+	public long getEventAggregationInterval() {
+		return eventAggregationInterval;
+	}
+
+	/**
+	 * Time in milliseconds between the sends of the rolled up events. Default is 60000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setEventAggregationInterval(long eventAggregationInterval) {
+		this.eventAggregationInterval = eventAggregationInterval;
+		return this;
+	}
+
+	public int getMaxAggregatedEvents() {
+		return maxAggregatedEvents;
+	}
+
+	/**
+	 * Max number of rolled up events kept between the sends. Once there are as many, the least recently updated
+	 * ones are sent early to make room. Default is 10000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setMaxAggregatedEvents(int maxAggregatedEvents) {
+		this.maxAggregatedEvents = maxAggregatedEvents;
+		return this;
+	}
+
+	public int getEventAggregationCountMetric() {
+		return eventAggregationCountMetric;
+	}
+
+	/**
+	 * Index of the custom metric set to the number of events in each rolled up event, so the counts are not lost
+	 * either. Default is 0, which means no such metric.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setEventAggregationCountMetric(int eventAggregationCountMetric) {
+		this.eventAggregationCountMetric = eventAggregationCountMetric;
+		return this;
+	}
+
+	public boolean isTimingAggregationEnabled() {
+		return timingAggregationEnabled;
+	}
+
+	/**
+	 * If true, user timings of same tracking id, category, variable and label are not sent one by one, but recorded
+	 * into a histogram. Every {@link #getTimingAggregationInterval()} milliseconds, when {@link GoogleAnalytics#flush()}
+	 * is called and when GA is closed, a timing hit is sent for each of {@link #getTimingAggregationPercentiles()} of
+	 * the histogram, with the percentile appended to the label (like <code>label p99</code>). Other parameters of these
+	 * hits are of the first timing. Timings without user timing time are sent as usual. Default is false.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setTimingAggregationEnabled(boolean timingAggregationEnabled) {
+		this.timingAggregationEnabled = timingAggregationEnabled;
+		return this;
+	}
+
+	public long getTimingAggregationInterval() {
+		return timingAggregationInterval;
+	}
+
+	/**
+	 * Time in milliseconds between the sends of the timing percentiles. Default is 60000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setTimingAggregationInterval(long timingAggregationInterval) {
+		this.timingAggregationInterval = timingAggregationInterval;
+		return this;
+	}
+
+	public int getMaxAggregatedTimings() {
+		return maxAggregatedTimings;
+	}
+
+	/**
+	 * Max number of timing histograms kept between the sends, each a few KB. Once there are as many, the
+	 * percentiles of the least recently updated ones are sent early to make room. Default is 1000.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setMaxAggregatedTimings(int maxAggregatedTimings) {
+		this.maxAggregatedTimings = maxAggregatedTimings;
+		return this;
+	}
+
+	public double[] getTimingAggregationPercentiles() {
+		return timingAggregationPercentiles;
+	}
+
+	/**
+	 * Percentiles, between 0 and 100, of the aggregated timings sent as timing hits. Default is 50, 90 and 99.
+	 *
+	 * <p>This is <strong>initialization</strong> level configuration (must be set while creating GoogleAnalytics object).</p>
+	 */
+	public GoogleAnalyticsConfig setTimingAggregationPercentiles(double... timingAggregationPercentiles) {
+		this.timingAggregationPercentiles = timingAggregationPercentiles;
+		return this;
+	}
+
+	/**
+	 * @return true if any sample rate is below 1.
+	 */
+	boolean isSampling() {
+		if (sampleRate < 1) {
+			return true;
+		}
+		for (Double rate : trackingIdSampleRates.values()) {
+			if (rate < 1) {
+				return true;
+			}
+		}
+		for (Double rate : hitTypeSampleRates.values()) {
+			if (rate < 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
@@ -294,6 +1236,16 @@ public class GoogleAnalyticsConfig {
 		builder.append(enabled);
 		builder.append(", maxThreads=");
 		builder.append(maxThreads);
+		builder.append(", queueCapacity=");
+		builder.append(queueCapacity);
+		builder.append(", queueOverflowPolicy=");
+		builder.append(queueOverflowPolicy);
+		builder.append(", dispatchMode=");
+		builder.append(dispatchMode);
+		builder.append(", connectTimeout=");
+		builder.append(connectTimeout);
+		builder.append(", readTimeout=");
+		builder.append(readTimeout);
 		builder.append(", useHttps=");
 		builder.append(useHttps);
 		builder.append(", validate=");
@@ -336,6 +1288,34 @@ public class GoogleAnalyticsConfig {
 		builder.append(discoverRequestParameters);
 		builder.append(", gatherStats=");
 		builder.append(gatherStats);
+		builder.append(", batchingEnabled=");
+		builder.append(batchingEnabled);
+		builder.append(", maxBatchSize=");
+		builder.append(maxBatchSize);
+		builder.append(", maxBatchBytes=");
+		builder.append(maxBatchBytes);
+		builder.append(", batchFlushInterval=");
+		builder.append(batchFlushInterval);
+		builder.append(", spoolDirectory=");
+		builder.append(spoolDirectory);
+		builder.append(", maxRetries=");
+		builder.append(maxRetries);
+		builder.append(", circuitBreakerEnabled=");
+		builder.append(circuitBreakerEnabled);
+		builder.append(", priorityLanesEnabled=");
+		builder.append(priorityLanesEnabled);
+		builder.append(", sampleRate=");
+		builder.append(sampleRate);
+		builder.append(", adaptiveSamplingEnabled=");
+		builder.append(adaptiveSamplingEnabled);
+		builder.append(", eventAggregationEnabled=");
+		builder.append(eventAggregationEnabled);
+		builder.append(", timingAggregationEnabled=");
+		builder.append(timingAggregationEnabled);
+		builder.append(", trackingIdRateLimit=");
+		builder.append(trackingIdRateLimit);
+		builder.append(", clientIdRateLimit=");
+		builder.append(clientIdRateLimit);
 		builder.append("]");
 		return builder.toString();
 	}
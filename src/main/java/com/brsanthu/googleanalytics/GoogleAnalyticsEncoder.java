@@ -0,0 +1,203 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import static com.brsanthu.googleanalytics.GaUtils.isEmpty;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Url encodes the request, merged with the default request, straight into a
+ * per thread reusable {@link GoogleAnalyticsPayload}, without building any
+ * intermediate maps or strings.
+ */
+class GoogleAnalyticsEncoder {
+
+    /** Encoded <code>name=</code> prefix of each parameter, indexed by ordinal. */
+    private static final byte[][] PREFIXES;
+
+    static {
+        GoogleAnalyticsParameter[] parameters = GoogleAnalyticsParameter.values();
+        PREFIXES = new byte[parameters.length][];
+        for (GoogleAnalyticsParameter parameter : parameters) {
+            PREFIXES[parameter.ordinal()] = (parameter.getParameterName() + "=").getBytes(GoogleAnalytics.UTF8);
+        }
+    }
+
+    private static final ThreadLocal<GoogleAnalyticsPayload> PAYLOADS = new ThreadLocal<GoogleAnalyticsPayload>() {
+        @Override
+        protected GoogleAnalyticsPayload initialValue() {
+            return new GoogleAnalyticsPayload(1024);
+        }
+    };
+
+    /**
+     * Encodes the given request. Request values which are empty are replaced with
+     * the default request values, and default request values which are not
+     * present in the request are added.
+     *
+     * @return the payload of the current thread. It is overwritten by the next
+     *         call from the same thread.
+     */
+    @SuppressWarnings("rawtypes")
+    static GoogleAnalyticsPayload encode(GoogleAnalyticsRequest request, EncodedDefaultRequest defaults) {
+        GoogleAnalyticsPayload payload = PAYLOADS.get();
+        payload.reset();
+        return encode(request, defaults, payload);
+    }
+
+    /**
+     * Encodes the given request into the given payload, same as
+     * {@link #encode(GoogleAnalyticsRequest, EncodedDefaultRequest)}.
+     */
+    @SuppressWarnings("rawtypes")
+    static GoogleAnalyticsPayload encode(GoogleAnalyticsRequest request, EncodedDefaultRequest defaults,
+            GoogleAnalyticsPayload payload) {
+        boolean masked = defaults.size() <= EncodedDefaultRequest.MAX_MASKED_PARAMETERS;
+        long overridden = 0;
+        boolean[] overriddenEntries = masked ? null : new boolean[defaults.size()];
+
+        for (int i = request.nextParameter(0); i >= 0; i = request.nextParameter(i + 1)) {
+            boolean numeric = request.isNumeric(i);
+            String value = numeric ? null : request.parameterValue(i);
+            int index = defaults.indexOf(i);
+            if (index >= 0) {
+                if (!numeric && isEmpty(value)) {
+                    //Default value is posted instead
+                    continue;
+                }
+                if (overriddenEntries == null) {
+                    overridden |= 1L << index;
+                } else {
+                    overriddenEntries[index] = true;
+                }
+            }
+
+            if (numeric) {
+                appendSeparator(payload);
+                payload.append(PREFIXES[i]);
+                request.appendNumber(payload, i);
+            } else {
+                appendParameter(payload, i, value);
+            }
+        }
+
+        appendCustomParameters(payload, request.dimensions());
+        appendCustomParameters(payload, request.metrics());
+
+        if (masked) {
+            defaults.appendTo(payload, overridden);
+        } else {
+            for (int i = 0; i < overriddenEntries.length; i++) {
+                if (!overriddenEntries[i]) {
+                    defaults.append(payload, i);
+                }
+            }
+        }
+
+        defaults.appendCustomTo(payload, request);
+
+        return payload;
+    }
+
+    private static void appendParameter(GoogleAnalyticsPayload payload, int ordinal, String value) {
+        if (value == null) {
+            return;
+        }
+        appendSeparator(payload);
+        payload.append(PREFIXES[ordinal]);
+        payload.appendEncoded(value);
+    }
+
+    /**
+     * Appends the custom dimensions/metrics of the request. Ones which are set
+     * to null are skipped, but still override the default values.
+     */
+    private static void appendCustomParameters(GoogleAnalyticsPayload payload, CustomParameters parameters) {
+        for (int i = parameters.next(1); i >= 0; i = parameters.next(i + 1)) {
+            if (parameters.isNumeric(i)) {
+                appendSeparator(payload);
+                payload.append(parameters.key(i));
+                payload.appendDecimal(parameters.getNumber(i));
+            } else {
+                String value = parameters.get(i);
+                if (value != null) {
+                    appendSeparator(payload);
+                    payload.append(parameters.key(i));
+                    payload.appendEncoded(value);
+                }
+            }
+        }
+    }
+
+    private static void appendSeparator(GoogleAnalyticsPayload payload) {
+        if (!payload.isEmpty()) {
+            payload.append((byte) '&');
+        }
+    }
+
+    private static void appendCustomParameter(GoogleAnalyticsPayload payload, String name, String value) {
+        if (value == null) {
+            return;
+        }
+        appendSeparator(payload);
+        payload.appendEncoded(name);
+        payload.append((byte) '=');
+        payload.appendEncoded(value);
+    }
+
+    /**
+     * Encodes the given parameters into a new payload. Used for the requests
+     * which are built as map of parameters.
+     */
+    static GoogleAnalyticsPayload encode(Map<String, String> postParms) {
+        GoogleAnalyticsPayload payload = new GoogleAnalyticsPayload(1024);
+        for (Map.Entry<String, String> entry : postParms.entrySet()) {
+            appendCustomParameter(payload, entry.getKey(), entry.getValue());
+        }
+        return payload;
+    }
+
+    /**
+     * Returns the parameters, keyed by parameter name, which are posted for
+     * the given request. Neither of the requests is modified.
+     */
+    @SuppressWarnings("rawtypes")
+    static Map<String, String> merge(GoogleAnalyticsRequest request, EncodedDefaultRequest defaults) {
+        return decode(encode(request, defaults, new GoogleAnalyticsPayload(256)));
+    }
+
+    /**
+     * Decodes the single hit payload back into the map of parameters.
+     */
+    static Map<String, String> decode(GoogleAnalyticsPayload payload) {
+        Map<String, String> postParms = new HashMap<String, String>();
+        try {
+            for (String pair : payload.toString().split("&")) {
+                int index = pair.indexOf('=');
+                if (index > 0) {
+                    postParms.put(URLDecoder.decode(pair.substring(0, index), "UTF-8"),
+                            URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            //UTF-8 is always supported
+            throw new GoogleAnalyticsException(e);
+        }
+        return postParms;
+    }
+}
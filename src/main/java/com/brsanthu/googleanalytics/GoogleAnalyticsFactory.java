@@ -16,14 +16,17 @@
 package com.brsanthu.googleanalytics;
 
 import com.brsanthu.googleanalytics.internal.ApacheGoogleAnalytics;
+import com.brsanthu.googleanalytics.internal.HttpClientGoogleAnalytics;
 import com.brsanthu.googleanalytics.internal.JaxRsGoogleAnalytics;
 import com.brsanthu.googleanalytics.internal.JdkGoogleAnalytics;
 import java.net.HttpURLConnection;
 
 /**
  * Factory to instanciate a GoogleAnalytics implementation based on the
- * available connection library. Currently using 3 libraries:
+ * available connection library. Currently using 4 libraries, in the order of
+ * preference:
  * <ul>
+ * <li>Java 11+ <code>java.net.http.HttpClient</code></li>
  * <li>Apache HTTP Client</li>
  * <li>JAX-RS Client Implementation (defaults to Jersey 2)</li>
  * <li>Native {@link HttpURLConnection}</li>
@@ -35,13 +38,15 @@ public class GoogleAnalyticsFactory {
 
     private enum ConnectionImplType {
 
-        APACHE, JAX_RS, JDK
+        HTTP_CLIENT, APACHE, JAX_RS, JDK
     }
 
     private static ConnectionImplType defaultImpl;
 
     public static GoogleAnalytics createInstance(String trackingId) {
         switch (chooseImpl()) {
+            case HTTP_CLIENT:
+                return new HttpClientGoogleAnalytics(trackingId);
             case APACHE:
                 return new ApacheGoogleAnalytics(trackingId);
             case JAX_RS:
@@ -54,6 +59,8 @@ public class GoogleAnalyticsFactory {
     public static GoogleAnalytics createInstance(GoogleAnalyticsConfig config,
             String trackingId) {
         switch (chooseImpl()) {
+            case HTTP_CLIENT:
+                return new HttpClientGoogleAnalytics(config, trackingId);
             case APACHE:
                 return new ApacheGoogleAnalytics(config, trackingId);
             case JAX_RS:
@@ -66,6 +73,8 @@ public class GoogleAnalyticsFactory {
     public static GoogleAnalytics createInstance(String trackingId,
             String appName, String appVersion) {
         switch (chooseImpl()) {
+            case HTTP_CLIENT:
+                return new HttpClientGoogleAnalytics(trackingId, appName, appVersion);
             case APACHE:
                 return new ApacheGoogleAnalytics(trackingId, appName, appVersion);
             case JAX_RS:
@@ -78,6 +87,8 @@ public class GoogleAnalyticsFactory {
     public static GoogleAnalytics createInstance(GoogleAnalyticsConfig config,
             String trackingId, String appName, String appVersion) {
         switch (chooseImpl()) {
+            case HTTP_CLIENT:
+                return new HttpClientGoogleAnalytics(config, trackingId, appName, appVersion);
             case APACHE:
                 return new ApacheGoogleAnalytics(config, trackingId, appName, appVersion);
             case JAX_RS:
@@ -90,6 +101,8 @@ public class GoogleAnalyticsFactory {
     public static GoogleAnalytics createInstance(GoogleAnalyticsConfig config,
             DefaultRequest defaultRequest) {
         switch (chooseImpl()) {
+            case HTTP_CLIENT:
+                return new HttpClientGoogleAnalytics(config, defaultRequest);
             case APACHE:
                 return new ApacheGoogleAnalytics(config, defaultRequest);
             case JAX_RS:
@@ -101,6 +114,10 @@ public class GoogleAnalyticsFactory {
 
     private static ConnectionImplType chooseImpl() {
         if (defaultImpl == null) {
+            if (HttpClientGoogleAnalytics.isSupported()) {
+                return defaultImpl = ConnectionImplType.HTTP_CLIENT;
+            }
+
             try {
                 Class.forName("org.apache.http.client.HttpClient");
                 return defaultImpl = ConnectionImplType.APACHE;
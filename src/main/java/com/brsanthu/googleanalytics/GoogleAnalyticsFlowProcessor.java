@@ -0,0 +1,33 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+/**
+ * Creates the <code>Flow.Processor</code> of
+ * {@link GoogleAnalytics#newFlowProcessor(int)}. This version is used on Java
+ * versions before 11, which have no <code>java.util.concurrent.Flow</code>;
+ * the Java 11 version of this class replaces it in the multi-release jar.
+ */
+final class GoogleAnalyticsFlowProcessor {
+
+    private GoogleAnalyticsFlowProcessor() {
+    }
+
+    /**
+     * @return null, as there is no <code>Flow</code> to implement.
+     */
+    static Object create(GoogleAnalytics analytics, int maxInFlight) {
+        return null;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+/**
+ * Outcome of {@link GoogleAnalytics#flush(long, java.util.concurrent.TimeUnit)} or
+ * {@link GoogleAnalytics#close(long, java.util.concurrent.TimeUnit)}. Counts include the hits handled by any thread
+ * while flushing.
+ */
+public class GoogleAnalyticsFlushResult {
+
+    private final boolean completed;
+    private final long sentHits;
+    private final long spilledHits;
+    private final long droppedHits;
+
+    GoogleAnalyticsFlushResult(boolean completed, long sentHits, long spilledHits, long droppedHits) {
+        this.completed = completed;
+        this.sentHits = sentHits;
+        this.spilledHits = spilledHits;
+        this.droppedHits = droppedHits;
+    }
+
+    /**
+     * @return true if all the queued and in-flight hits were done before the
+     *         deadline.
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return number of hits posted, successfully or not (failed hits are
+     *         retried or spooled as usual).
+     */
+    public long getSentHits() {
+        return sentHits;
+    }
+
+    /**
+     * @return number of hits not sent before the deadline which were handed to
+     *         the {@link UnsentHitHandler} or stored in the spool.
+     */
+    public long getSpilledHits() {
+        return spilledHits;
+    }
+
+    /**
+     * @return number of hits dropped.
+     */
+    public long getDroppedHits() {
+        return droppedHits;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("FlushResult [completed=");
+        builder.append(completed);
+        builder.append(", sentHits=");
+        builder.append(sentHits);
+        builder.append(", spilledHits=");
+        builder.append(spilledHits);
+        builder.append(", droppedHits=");
+        builder.append(droppedHits);
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Future of a hit posted asynchronously, which notifies the callbacks added to
+ * it once the hit is sent, so the outcome can be handled without blocking a
+ * thread on {@link #get()}.
+ *
+ * <p>Callbacks are called on the thread completing the future (the thread
+ * sending the hit or, for non-blocking transports, the thread receiving the
+ * response), or right away on the calling thread if the future is already
+ * done. Cancelled futures notify the callbacks with {@link CancellationException}.
+ */
+public class GoogleAnalyticsFuture implements Future<GoogleAnalyticsResponse> {
+
+    private static final Logger logger = LoggerFactory.getLogger(GoogleAnalyticsFuture.class);
+
+    private static final int PENDING = 0;
+    private static final int COMPLETED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    @SuppressWarnings("rawtypes")
+    private volatile GoogleAnalyticsRequest request;
+    private int state = PENDING;
+    private GoogleAnalyticsResponse response = null;
+    private Throwable failure = null;
+    private List<GoogleAnalyticsCallback> callbacks = null;
+
+    /**
+     * @param request the request posted, which is passed to the callbacks. Can
+     *        be null if it is not known yet (see {@link RequestProvider}).
+     */
+    @SuppressWarnings("rawtypes")
+    public GoogleAnalyticsFuture(GoogleAnalyticsRequest request) {
+        this.request = request;
+    }
+
+    /**
+     * @return a future already completed with given response.
+     */
+    @SuppressWarnings("rawtypes")
+    public static GoogleAnalyticsFuture completed(GoogleAnalyticsRequest request, GoogleAnalyticsResponse response) {
+        GoogleAnalyticsFuture future = new GoogleAnalyticsFuture(request);
+        future.complete(response);
+        return future;
+    }
+
+    @SuppressWarnings("rawtypes")
+    public GoogleAnalyticsRequest getRequest() {
+        return request;
+    }
+
+    @SuppressWarnings("rawtypes")
+    void setRequest(GoogleAnalyticsRequest request) {
+        this.request = request;
+    }
+
+    /**
+     * Adds the callback to be notified once this future is done, or notifies
+     * it right away if it is done already.
+     *
+     * @return this future, for chaining.
+     */
+    public GoogleAnalyticsFuture addCallback(GoogleAnalyticsCallback callback) {
+        synchronized (this) {
+            if (state == PENDING) {
+                if (callbacks == null) {
+                    callbacks = new ArrayList<GoogleAnalyticsCallback>(2);
+                }
+                callbacks.add(callback);
+                return this;
+            }
+        }
+
+        notifyCallback(callback);
+        return this;
+    }
+
+    /**
+     * Completes this future with given response, unless it is done already.
+     *
+     * @return true if this call completed the future.
+     */
+    public boolean complete(GoogleAnalyticsResponse response) {
+        synchronized (this) {
+            if (state != PENDING) {
+                return false;
+            }
+            this.response = response;
+            state = COMPLETED;
+            notifyAll();
+        }
+        notifyCallbacks();
+        return true;
+    }
+
+    /**
+     * Fails this future with given error, unless it is done already.
+     *
+     * @return true if this call completed the future.
+     */
+    public boolean fail(Throwable failure) {
+        synchronized (this) {
+            if (state != PENDING) {
+                return false;
+            }
+            this.failure = failure;
+            state = FAILED;
+            notifyAll();
+        }
+        notifyCallbacks();
+        return true;
+    }
+
+    /**
+     * Cancels the hit if it is not sent yet. Hit which is being sent is not
+     * interrupted.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (state != PENDING) {
+                return false;
+            }
+            state = CANCELLED;
+            notifyAll();
+        }
+        notifyCallbacks();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state != PENDING;
+    }
+
+    @Override
+    public synchronized GoogleAnalyticsResponse get() throws InterruptedException, ExecutionException {
+        while (state == PENDING) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized GoogleAnalyticsResponse get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+            TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (state == PENDING) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    private GoogleAnalyticsResponse result() throws ExecutionException {
+        if (state == CANCELLED) {
+            throw new CancellationException();
+        }
+        if (state == FAILED) {
+            throw new ExecutionException(failure);
+        }
+        return response;
+    }
+
+    private void notifyCallbacks() {
+        List<GoogleAnalyticsCallback> pending;
+        synchronized (this) {
+            pending = callbacks;
+            callbacks = null;
+        }
+        if (pending != null) {
+            for (GoogleAnalyticsCallback callback : pending) {
+                notifyCallback(callback);
+            }
+        }
+    }
+
+    private void notifyCallback(GoogleAnalyticsCallback callback) {
+        try {
+            int done;
+            synchronized (this) {
+                done = state;
+            }
+            if (done == COMPLETED) {
+                callback.onSuccess(request, response);
+            } else if (done == FAILED) {
+                callback.onFailure(request, failure);
+            } else {
+                callback.onFailure(request, new CancellationException());
+            }
+        } catch (Exception e) {
+            logger.warn("Callback (" + callback + ") thrown exception " + e.toString());
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("GoogleAnalyticsFuture [state=");
+        synchronized (this) {
+            builder.append(state == PENDING ? "pending" : state == COMPLETED ? "completed" : state == FAILED ? "failed" : "cancelled");
+        }
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer holding the url encoded body of a request to GA, which
+ * is either a single hit (<code>application/x-www-form-urlencoded</code>) or a
+ * batch of new line separated hits.
+ *
+ * <p>Payloads are reused by the library, so transports must not hold on to
+ * the buffer (returned by {@link #array()}) after the send method returns.
+ * Use {@link #toByteArray()} if the bytes are needed later.
+ */
+public final class GoogleAnalyticsPayload {
+
+    /** Buffers which grew beyond this are not retained on reset. */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L};
+
+    /** Characters which are not encoded, same as {@link java.net.URLEncoder}. */
+    private static final boolean[] UNRESERVED = new boolean[128];
+
+    static {
+        for (int c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (int c = 'A'; c <= 'Z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (int c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        UNRESERVED['-'] = true;
+        UNRESERVED['_'] = true;
+        UNRESERVED['.'] = true;
+        UNRESERVED['*'] = true;
+    }
+
+    private final int initialCapacity;
+    private byte[] bytes;
+    private int length = 0;
+
+    GoogleAnalyticsPayload(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.bytes = new byte[initialCapacity];
+    }
+
+    /**
+     * @return the backing array. Only first {@link #length()} bytes are valid.
+     */
+    public byte[] array() {
+        return bytes;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+    }
+
+    void reset() {
+        length = 0;
+        if (bytes.length > MAX_RETAINED_CAPACITY) {
+            bytes = new byte[initialCapacity];
+        }
+    }
+
+    /**
+     * Removes the first given number of bytes, keeping the rest.
+     */
+    void removeFirst(int count) {
+        System.arraycopy(bytes, count, bytes, 0, length - count);
+        length -= count;
+    }
+
+    void append(byte b) {
+        ensureCapacity(length + 1);
+        bytes[length++] = b;
+    }
+
+    void append(byte[] b) {
+        append(b, 0, b.length);
+    }
+
+    void append(byte[] b, int offset, int count) {
+        ensureCapacity(length + count);
+        System.arraycopy(b, offset, bytes, length, count);
+        length += count;
+    }
+
+    void append(GoogleAnalyticsPayload payload) {
+        append(payload.bytes, 0, payload.length);
+    }
+
+    /**
+     * Appends the number in decimal, without going through String.
+     */
+    void appendDecimal(long value) {
+        if (value < 0) {
+            append((byte) '-');
+            if (value == Long.MIN_VALUE) {
+                append(Long.toString(value).substring(1).getBytes());
+                return;
+            }
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+
+        ensureCapacity(length + digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            bytes[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    /**
+     * Appends the number in decimal with exactly given number of fraction
+     * digits (rounded half up), without going through String. Values which
+     * cannot be represented so are appended as {@link Double#toString(double)}.
+     */
+    void appendFixed(double value, int scale) {
+        long factor = POWERS_OF_TEN[scale];
+        double scaled = Math.abs(value) * factor;
+        if (Double.isNaN(value) || scaled >= Long.MAX_VALUE) {
+            append(Double.toString(value).getBytes(GoogleAnalytics.UTF8));
+            return;
+        }
+
+        long units = Math.round(scaled);
+        if (value < 0 && units != 0) {
+            append((byte) '-');
+        }
+        appendDecimal(units / factor);
+        if (scale > 0) {
+            append((byte) '.');
+            long fraction = units % factor;
+            for (long f = factor / 10; f > 0; f /= 10) {
+                append((byte) ('0' + fraction / f));
+                fraction %= f;
+            }
+        }
+    }
+
+    /**
+     * Appends the value url encoded as UTF-8, same as
+     * {@link java.net.URLEncoder#encode(String, String)}. ASCII characters are
+     * written directly without any intermediate copies.
+     */
+    void appendEncoded(String value) {
+        int count = value.length();
+        //Optimistically assume ascii, grows further if not
+        ensureCapacity(length + count);
+
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+
+            if (c < 128 && UNRESERVED[c]) {
+                if (length == bytes.length) {
+                    ensureCapacity(length + 1);
+                }
+                bytes[length++] = (byte) c;
+
+            } else if (c == ' ') {
+                append((byte) '+');
+
+            } else if (c < 0x80) {
+                appendEscaped(c);
+
+            } else if (c < 0x800) {
+                appendEscaped(0xc0 | (c >> 6));
+                appendEscaped(0x80 | (c & 0x3f));
+
+            } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                appendEscaped(0xf0 | (codePoint >> 18));
+                appendEscaped(0x80 | ((codePoint >> 12) & 0x3f));
+                appendEscaped(0x80 | ((codePoint >> 6) & 0x3f));
+                appendEscaped(0x80 | (codePoint & 0x3f));
+
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                //Unpaired surrogate, encoded as '?' like String.getBytes does
+                appendEscaped('?');
+
+            } else {
+                appendEscaped(0xe0 | (c >> 12));
+                appendEscaped(0x80 | ((c >> 6) & 0x3f));
+                appendEscaped(0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private void appendEscaped(int b) {
+        ensureCapacity(length + 3);
+        bytes[length++] = '%';
+        bytes[length++] = HEX[(b >> 4) & 0x0f];
+        bytes[length++] = HEX[b & 0x0f];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+        }
+    }
+
+    /**
+     * @return the payload as string, which is ASCII as all values are url encoded.
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, GoogleAnalytics.UTF8);
+    }
+}
@@ -50,8 +50,13 @@ import static com.brsanthu.googleanalytics.GoogleAnalyticsParameter.USER_ID;
 import static com.brsanthu.googleanalytics.GoogleAnalyticsParameter.USER_LANGUAGE;
 import static com.brsanthu.googleanalytics.GoogleAnalyticsParameter.VIEWPORT_SIZE;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * Base GA Tracking Request containing the standard and custom parameter values.
@@ -65,9 +70,38 @@ import java.util.Map;
 @SuppressWarnings("unchecked")
 public class GoogleAnalyticsRequest<T> {
 
-	protected Map<GoogleAnalyticsParameter, String> parms = new HashMap<GoogleAnalyticsParameter, String>();
-	protected Map<String, String> customDimentions = new HashMap<String, String>();
-	protected Map<String, String> customMetrics = new HashMap<String, String>();
+	private static final GoogleAnalyticsParameter[] PARAMETERS = GoogleAnalyticsParameter.values();
+
+	/** Parameter values indexed by parameter ordinal. */
+	private final String[] values = new String[PARAMETERS.length];
+	/** Bit mask of the parameters which are set, bit <code>i</code> of word <code>i / 64</code> for ordinal <code>i</code>. */
+	private final long[] present = new long[(PARAMETERS.length + 63) >>> 6];
+
+	/** Kinds of the values stored unboxed, formatted only when encoded. */
+	private static final byte LONG = 1;
+	private static final byte DOUBLE = 2;
+	private static final byte BOOLEAN = 3;
+
+	/** Number of fraction digits posted for currency values. */
+	static final int CURRENCY_SCALE = 2;
+
+	/** Bit mask of the parameters which are stored unboxed, in the arrays below. */
+	private final long[] numeric = new long[present.length];
+	private int[] numberOrdinals = null;
+	private long[] numberBits = null;
+	private byte[] numberKinds = null;
+	private int numberCount = 0;
+
+	/** Map view of the parameters, kept for compatibility. */
+	protected final Map<GoogleAnalyticsParameter, String> parms = new ParameterMap();
+	private final CustomParameters dimensions = new CustomParameters("cd", CustomParameters.DIMENSION_KEYS);
+	private final CustomParameters metrics = new CustomParameters("cm", CustomParameters.METRIC_KEYS);
+
+	/** Map views of the custom dimensions and metrics, kept for compatibility. */
+	protected final Map<String, String> customDimentions = dimensions.asMap();
+	protected final Map<String, String> customMetrics = metrics.asMap();
+
+	private volatile int version = 0;
 
 	public GoogleAnalyticsRequest() {
 		this(null, null, null, null);
@@ -95,59 +129,51 @@ public class GoogleAnalyticsRequest<T> {
 	 * @return
 	 */
 	protected T setString(GoogleAnalyticsParameter parameter, String value) {
-		if (value == null) {
-			parms.remove(parameter);
-		} else {
-			String stringValue = value;
-			parms.put(parameter, stringValue);
-		}
-		return (T) this;
+		return parameter(parameter, value);
 	}
 
 	protected String getString(GoogleAnalyticsParameter parameter) {
-		return parms.get(parameter);
+		return parameterValue(parameter.ordinal());
 	}
 
 	protected T setInteger(GoogleAnalyticsParameter parameter, Integer value) {
-		if (value == null) {
-			parms.remove(parameter);
-		} else {
-			String stringValue = fromInteger(value);
-			parms.put(parameter, stringValue);
-		}
-		return (T) this;
+		return value == null ? parameter(parameter, null) : setInteger(parameter, value.intValue());
+	}
+
+	protected T setInteger(GoogleAnalyticsParameter parameter, int value) {
+		return number(parameter, LONG, value);
+	}
+
+	protected T setLong(GoogleAnalyticsParameter parameter, long value) {
+		return number(parameter, LONG, value);
 	}
 
 	protected Double getDouble(GoogleAnalyticsParameter parameter) {
-		return toDouble(parms.get(parameter));
+		return toDouble(parameterValue(parameter.ordinal()));
 	}
 
 	protected T setDouble(GoogleAnalyticsParameter parameter, Double value) {
-		if (value == null) {
-			parms.remove(parameter);
-		} else {
-			String stringValue = fromDouble(value);
-			parms.put(parameter, stringValue);
-		}
-		return (T) this;
+		return value == null ? parameter(parameter, null) : setDouble(parameter, value.doubleValue());
+	}
+
+	protected T setDouble(GoogleAnalyticsParameter parameter, double value) {
+		return number(parameter, DOUBLE, Double.doubleToLongBits(value));
 	}
 
 	protected Boolean getBoolean(GoogleAnalyticsParameter parameter) {
-		return toBoolean(parms.get(parameter));
+		return toBoolean(parameterValue(parameter.ordinal()));
 	}
 
 	protected T setBoolean(GoogleAnalyticsParameter parameter, Boolean value) {
-		if (value == null) {
-			parms.remove(parameter);
-		} else {
-			String stringValue = fromBoolean(value);
-			parms.put(parameter, stringValue);
-		}
-		return (T) this;
+		return value == null ? parameter(parameter, null) : setBoolean(parameter, value.booleanValue());
+	}
+
+	protected T setBoolean(GoogleAnalyticsParameter parameter, boolean value) {
+		return number(parameter, BOOLEAN, value ? 1 : 0);
 	}
 
 	protected Integer getInteger(GoogleAnalyticsParameter parameter) {
-		return toInteger(parms.get(parameter));
+		return toInteger(parameterValue(parameter.ordinal()));
 	}
 
 	protected String fromBoolean(Boolean booleanString) {
@@ -198,25 +224,199 @@ public class GoogleAnalyticsRequest<T> {
 		return Double.parseDouble(doubleString);
 	}
 
+	/**
+	 * Sets the value for specified parameter. If value is null, the parameter
+	 * is removed. All the setters end up here.
+	 */
 	protected T parameter(GoogleAnalyticsParameter parameter, String value) {
+		int ordinal = parameter.ordinal();
+		if (isNumeric(ordinal)) {
+			removeNumber(ordinal);
+		}
+		values[ordinal] = value;
 		if (value == null) {
-			parms.remove(parameter);
+			present[ordinal >>> 6] &= ~(1L << ordinal);
 		} else {
-			parms.put(parameter, value);
+			present[ordinal >>> 6] |= 1L << ordinal;
 		}
+		modified();
 		return (T) this;
 	}
 
 	protected String parameter(GoogleAnalyticsParameter parameter) {
-		return parms.get(parameter);
+		return parameterValue(parameter.ordinal());
+	}
+
+	/**
+	 * Sets the value for specified parameter, without boxing or formatting it.
+	 */
+	T number(GoogleAnalyticsParameter parameter, byte kind, long bits) {
+		int ordinal = parameter.ordinal();
+		int slot = numberSlot(ordinal);
+		if (slot < 0) {
+			if (numberOrdinals == null) {
+				numberOrdinals = new int[4];
+				numberBits = new long[4];
+				numberKinds = new byte[4];
+			} else if (numberCount == numberOrdinals.length) {
+				numberOrdinals = Arrays.copyOf(numberOrdinals, numberCount * 2);
+				numberBits = Arrays.copyOf(numberBits, numberCount * 2);
+				numberKinds = Arrays.copyOf(numberKinds, numberCount * 2);
+			}
+			slot = numberCount++;
+			numberOrdinals[slot] = ordinal;
+		}
+		numberBits[slot] = bits;
+		numberKinds[slot] = kind;
+
+		values[ordinal] = null;
+		numeric[ordinal >>> 6] |= 1L << ordinal;
+		present[ordinal >>> 6] |= 1L << ordinal;
+		modified();
+		return (T) this;
+	}
+
+	private void removeNumber(int ordinal) {
+		int slot = numberSlot(ordinal);
+		if (slot >= 0) {
+			numberCount--;
+			numberOrdinals[slot] = numberOrdinals[numberCount];
+			numberBits[slot] = numberBits[numberCount];
+			numberKinds[slot] = numberKinds[numberCount];
+		}
+		numeric[ordinal >>> 6] &= ~(1L << ordinal);
+	}
+
+	/**
+	 * @return index of the given parameter in the number arrays, or -1.
+	 */
+	private int numberSlot(int ordinal) {
+		if (!isNumeric(ordinal)) {
+			return -1;
+		}
+		int[] ordinals = numberOrdinals;
+		int count = Math.min(numberCount, ordinals == null ? 0 : ordinals.length);
+		for (int i = 0; i < count; i++) {
+			if (ordinals[i] == ordinal) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if the parameter with given ordinal is stored unboxed.
+	 */
+	boolean isNumeric(int ordinal) {
+		return (numeric[ordinal >>> 6] & (1L << ordinal)) != 0;
+	}
+
+	/**
+	 * Appends the value of the unboxed parameter with given ordinal to the payload.
+	 */
+	void appendNumber(GoogleAnalyticsPayload payload, int ordinal) {
+		int slot = numberSlot(ordinal);
+		if (slot < 0) {
+			return;
+		}
+
+		long bits = numberBits[slot];
+		switch (numberKinds[slot]) {
+		case LONG:
+			payload.appendDecimal(bits);
+			break;
+		case DOUBLE:
+			appendDouble(payload, PARAMETERS[ordinal], Double.longBitsToDouble(bits));
+			break;
+		case BOOLEAN:
+			payload.append(bits != 0 ? TRUE : FALSE);
+			break;
+		}
+	}
+
+	private static final byte[] TRUE = "true".getBytes();
+	private static final byte[] FALSE = "false".getBytes();
+
+	/**
+	 * Currency values are posted with fixed number of fraction digits
+	 * ({@link #CURRENCY_SCALE}), others same as {@link Double#toString(double)}.
+	 */
+	private static void appendDouble(GoogleAnalyticsPayload payload, GoogleAnalyticsParameter parameter, double value) {
+		if ("currency".equals(parameter.getType())) {
+			payload.appendFixed(value, CURRENCY_SCALE);
+		} else {
+			payload.append(Double.toString(value).getBytes());
+		}
+	}
+
+	/**
+	 * @return ordinal of the first parameter which is set, starting from the
+	 *         given ordinal (inclusive), or -1 if there are none.
+	 */
+	int nextParameter(int fromOrdinal) {
+		int word = fromOrdinal >>> 6;
+		if (word >= present.length) {
+			return -1;
+		}
+
+		long bits = present[word] & (-1L << fromOrdinal);
+		while (true) {
+			if (bits != 0) {
+				return (word << 6) + Long.numberOfTrailingZeros(bits);
+			}
+			if (++word == present.length) {
+				return -1;
+			}
+			bits = present[word];
+		}
+	}
+
+	/**
+	 * @return value of the parameter with given ordinal.
+	 */
+	String parameterValue(int ordinal) {
+		if (isNumeric(ordinal)) {
+			GoogleAnalyticsPayload payload = new GoogleAnalyticsPayload(24);
+			appendNumber(payload, ordinal);
+			return payload.isEmpty() ? null : payload.toString();
+		}
+		return values[ordinal];
+	}
+
+	int parameterCount() {
+		int count = 0;
+		for (long word : present) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/**
+	 * Marks this request as modified. Called by all the setters, so the data
+	 * derived from this request (like the encoded default request) is rebuilt.
+	 * Subclasses which update the parameter maps directly must call this.
+	 */
+	protected void modified() {
+		version++;
 	}
 
+	/**
+	 * @return number which changes every time this request is modified.
+	 */
+	int version() {
+		return version;
+	}
+
+	/**
+	 * @return map view of the parameters, backed by this request. Changes made
+	 *         through the map are reflected in this request and vice versa.
+	 */
 	public Map<GoogleAnalyticsParameter, String> getParameters() {
 		return parms;
 	}
 
 	public String customDimention(int index) {
-		return customDimentions.get("cd" + index);
+		return dimensions.get(index);
 	}
 
 	/**
@@ -252,7 +452,8 @@ public class GoogleAnalyticsRequest<T> {
 	 * </div>
 	 */
 	public T customDimention(int index, String value) {
-		customDimentions.put("cd" + index, value);
+		dimensions.set(index, value);
+		modified();
 		return (T) this;
 	}
 
@@ -289,22 +490,49 @@ public class GoogleAnalyticsRequest<T> {
 	 * </div>
 	 */
 	public T customMetric(int index, String value) {
-		customMetrics.put("cm" + index, value);
+		metrics.set(index, value);
+		modified();
+		return (T) this;
+	}
+
+	/**
+	 * Sets the custom metric without converting it to String, see
+	 * {@link #customMetric(int, String)}.
+	 */
+	public T customMetric(int index, long value) {
+		metrics.set(index, value);
+		modified();
 		return (T) this;
 	}
 
 	public String customMetric(int index) {
-		return customMetrics.get("cm" + index);
+		return metrics.get(index);
 	}
 
+	/**
+	 * @return map view of the custom dimensions keyed by name (like <code>cd5</code>),
+	 *         backed by this request.
+	 */
 	public Map<String, String> customDimentions() {
 		return customDimentions;
 	}
 
+	/**
+	 * @return map view of the custom metrics keyed by name (like <code>cm5</code>),
+	 *         backed by this request.
+	 */
 	public Map<String, String> custommMetrics() {
 		return customMetrics;
 	}
 
+	CustomParameters dimensions() {
+		return dimensions;
+	}
+
+	CustomParameters metrics() {
+		return metrics;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
@@ -443,6 +671,14 @@ public class GoogleAnalyticsRequest<T> {
 		setBoolean(ANONYMIZE_IP, value);
 	   	return (T) this;
 	}
+
+	/**
+	 * Same as {@link #anonymizeIp(Boolean)}, without boxing the value.
+	 */
+	public T anonymizeIp(boolean value) {
+		setBoolean(ANONYMIZE_IP, value);
+	   	return (T) this;
+	}
 	public Boolean anonymizeIp() {
 		return getBoolean(ANONYMIZE_IP);
 	}
@@ -483,6 +719,14 @@ public class GoogleAnalyticsRequest<T> {
 		setInteger(QUEUE_TIME, value);
 	   	return (T) this;
 	}
+
+	/**
+	 * Same as {@link #queueTime(Integer)}, without boxing the value.
+	 */
+	public T queueTime(int value) {
+		setInteger(QUEUE_TIME, value);
+	   	return (T) this;
+	}
 	public Integer queueTime() {
 		return getInteger(QUEUE_TIME);
 	}
@@ -1253,6 +1497,14 @@ public class GoogleAnalyticsRequest<T> {
 		setBoolean(JAVA_ENABLED, value);
 	   	return (T) this;
 	}
+
+	/**
+	 * Same as {@link #javaEnabled(Boolean)}, without boxing the value.
+	 */
+	public T javaEnabled(boolean value) {
+		setBoolean(JAVA_ENABLED, value);
+	   	return (T) this;
+	}
 	public Boolean javaEnabled() {
 		return getBoolean(JAVA_ENABLED);
 	}
@@ -1770,4 +2022,132 @@ public class GoogleAnalyticsRequest<T> {
 		return string == null || string.trim().length() == 0;
 	}
 	
+
+	/**
+	 * Map view over the parameter array. Setting a parameter to null through
+	 * the view removes it, same as the setters.
+	 */
+	private class ParameterMap extends AbstractMap<GoogleAnalyticsParameter, String> {
+
+		@Override
+		public String get(Object key) {
+			return key instanceof GoogleAnalyticsParameter ? parameterValue(((GoogleAnalyticsParameter) key).ordinal()) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public String put(GoogleAnalyticsParameter key, String value) {
+			String previous = parameterValue(key.ordinal());
+			parameter(key, value);
+			return previous;
+		}
+
+		@Override
+		public String remove(Object key) {
+			String previous = get(key);
+			if (previous != null) {
+				parameter((GoogleAnalyticsParameter) key, null);
+			}
+			return previous;
+		}
+
+		@Override
+		public int size() {
+			return parameterCount();
+		}
+
+		@Override
+		public Set<Map.Entry<GoogleAnalyticsParameter, String>> entrySet() {
+			return new AbstractSet<Map.Entry<GoogleAnalyticsParameter, String>>() {
+				@Override
+				public Iterator<Map.Entry<GoogleAnalyticsParameter, String>> iterator() {
+					return new ParameterIterator();
+				}
+
+				@Override
+				public int size() {
+					return parameterCount();
+				}
+			};
+		}
+	}
+
+	private class ParameterIterator implements Iterator<Map.Entry<GoogleAnalyticsParameter, String>> {
+		private int next = nextParameter(0);
+		private int last = -1;
+
+		@Override
+		public boolean hasNext() {
+			return next >= 0;
+		}
+
+		@Override
+		public Map.Entry<GoogleAnalyticsParameter, String> next() {
+			if (next < 0) {
+				throw new NoSuchElementException();
+			}
+			last = next;
+			next = nextParameter(next + 1);
+			return new ParameterEntry(PARAMETERS[last]);
+		}
+
+		@Override
+		public void remove() {
+			if (last < 0) {
+				throw new IllegalStateException();
+			}
+			parameter(PARAMETERS[last], null);
+			last = -1;
+		}
+	}
+
+	private class ParameterEntry implements Map.Entry<GoogleAnalyticsParameter, String> {
+		private final GoogleAnalyticsParameter parameter;
+
+		ParameterEntry(GoogleAnalyticsParameter parameter) {
+			this.parameter = parameter;
+		}
+
+		@Override
+		public GoogleAnalyticsParameter getKey() {
+			return parameter;
+		}
+
+		@Override
+		public String getValue() {
+			return parameterValue(parameter.ordinal());
+		}
+
+		@Override
+		public String setValue(String value) {
+			String previous = getValue();
+			parameter(parameter, value);
+			return previous;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			String value = getValue();
+			return parameter.equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			String value = getValue();
+			return parameter.hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return parameter + "=" + getValue();
+		}
+	}
 }
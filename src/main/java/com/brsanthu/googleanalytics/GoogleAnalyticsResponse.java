@@ -26,8 +26,20 @@ public class GoogleAnalyticsResponse {
 
     private int statusCode = 200;
     private Map<String, String> postedParms = null;
+    @SuppressWarnings("rawtypes")
+    private GoogleAnalyticsRequest postedRequest = null;
+    private EncodedDefaultRequest postedDefaultRequest = null;
 
+    /**
+     * @return the parameters posted to GA. These are built on the first call,
+     *         as hits are encoded straight into the request body, from the
+     *         posted request and the snapshot of the default request taken
+     *         when posting.
+     */
     public Map<String, String> getPostedParms() {
+        if (postedParms == null && postedRequest != null) {
+            postedParms = GoogleAnalyticsEncoder.merge(postedRequest, postedDefaultRequest);
+        }
         return postedParms;
     }
 
@@ -35,6 +47,23 @@ public class GoogleAnalyticsResponse {
         this.postedParms = postedParms;
     }
 
+    @SuppressWarnings("rawtypes")
+    void setPostedRequest(GoogleAnalyticsRequest request, EncodedDefaultRequest defaultRequest) {
+        this.postedRequest = request;
+        this.postedDefaultRequest = defaultRequest;
+        this.postedParms = null;
+    }
+
+    /**
+     * Clears the response, so it can be reused for another hit.
+     */
+    void reset() {
+        statusCode = 200;
+        postedParms = null;
+        postedRequest = null;
+        postedDefaultRequest = null;
+    }
+
     public void setStatusCode(int statusCode) {
         this.statusCode = statusCode;
     }
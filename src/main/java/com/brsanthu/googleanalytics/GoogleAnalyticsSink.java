@@ -0,0 +1,194 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sink posting the requests of a stream, which pulls the next request only
+ * when a request being posted is done, so a fast producer is slowed down to
+ * the pace of the transport instead of filling the async queue.
+ *
+ * <p>This follows the Reactive Streams protocol (<code>onSubscribe</code>,
+ * <code>onNext</code>, <code>onError</code> and <code>onComplete</code>) without
+ * depending on it, as the library is built for Java versions before
+ * <code>java.util.concurrent.Flow</code>. On Java 11 and later,
+ * {@link GoogleAnalytics#newFlowProcessor(int)} adapts this to a
+ * <code>Flow.Processor</code>, which can be adapted to a Reactive Streams
+ * subscriber with <code>org.reactivestreams.FlowAdapters.toSubscriber</code>.
+ *
+ * <p>Outcome of each request is passed to {@link #onResponse(GoogleAnalyticsRequest, GoogleAnalyticsResponse)}
+ * or {@link #onFailure(GoogleAnalyticsRequest, Throwable)}, and end of the
+ * stream, once all requests are done, to {@link #onDone(Throwable)}.
+ */
+public class GoogleAnalyticsSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(GoogleAnalyticsSink.class);
+
+    /**
+     * Source of the requests, which sends as many requests as requested.
+     */
+    public interface Upstream {
+
+        void request(long count);
+
+        void cancel();
+    }
+
+    private final GoogleAnalytics analytics;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private final AtomicBoolean done = new AtomicBoolean();
+    private volatile Upstream upstream = null;
+    private volatile boolean upstreamDone = false;
+    private volatile Throwable upstreamError = null;
+
+    private final GoogleAnalyticsCallback callback = new GoogleAnalyticsCallback() {
+        @Override
+        @SuppressWarnings("rawtypes")
+        public void onSuccess(GoogleAnalyticsRequest request, GoogleAnalyticsResponse response) {
+            onResponse(request, response);
+            requestDone();
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public void onFailure(GoogleAnalyticsRequest request, Throwable error) {
+            GoogleAnalyticsSink.this.onFailure(request, error);
+            requestDone();
+        }
+    };
+
+    /**
+     * Creates the sink which posts as many requests at once as the transport
+     * has connections for (see {@link GoogleAnalytics#getDefaultMaxPerRoute(GoogleAnalyticsConfig)}).
+     */
+    public GoogleAnalyticsSink(GoogleAnalytics analytics) {
+        this(analytics, analytics.getDefaultMaxPerRoute(analytics.getConfig()));
+    }
+
+    /**
+     * @param maxInFlight number of requests posted at once, which is the
+     *        demand signalled to the upstream.
+     */
+    public GoogleAnalyticsSink(GoogleAnalytics analytics, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Requests in flight must be at least one, but was " + maxInFlight);
+        }
+        this.analytics = analytics;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return number of requests being posted.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Starts pulling the requests from given upstream. Only one upstream is
+     * accepted, any other is cancelled right away.
+     */
+    public void onSubscribe(Upstream upstream) {
+        if (!subscribed.compareAndSet(false, true)) {
+            upstream.cancel();
+            return;
+        }
+        this.upstream = upstream;
+        upstream.request(maxInFlight);
+    }
+
+    /**
+     * Posts the request. Upstream must not send more requests than requested.
+     */
+    @SuppressWarnings("rawtypes")
+    public void onNext(GoogleAnalyticsRequest request) {
+        if (request == null) {
+            throw new NullPointerException("Request must not be null");
+        }
+        inFlight.incrementAndGet();
+        analytics.postAsync(request, callback);
+    }
+
+    public void onError(Throwable error) {
+        logger.warn("Stream of the requests to post failed with " + error);
+        upstreamError = error;
+        upstreamDone = true;
+        checkDone();
+    }
+
+    public void onComplete() {
+        upstreamDone = true;
+        checkDone();
+    }
+
+    /**
+     * Stops pulling the requests. Requests being posted are not cancelled.
+     */
+    public void cancel() {
+        Upstream current = upstream;
+        upstreamDone = true;
+        if (current != null) {
+            current.cancel();
+        }
+        checkDone();
+    }
+
+    private void requestDone() {
+        inFlight.decrementAndGet();
+        if (upstreamDone) {
+            checkDone();
+        } else {
+            upstream.request(1);
+        }
+    }
+
+    private void checkDone() {
+        if (upstreamDone && inFlight.get() == 0 && done.compareAndSet(false, true)) {
+            onDone(upstreamError);
+        }
+    }
+
+    /**
+     * Called once the request is posted.
+     */
+    @SuppressWarnings("rawtypes")
+    protected void onResponse(GoogleAnalyticsRequest request, GoogleAnalyticsResponse response) {
+    }
+
+    /**
+     * Called if the request could not be posted.
+     */
+    @SuppressWarnings("rawtypes")
+    protected void onFailure(GoogleAnalyticsRequest request, Throwable error) {
+    }
+
+    /**
+     * Called once the upstream is done and all its requests are posted.
+     *
+     * @param error error the upstream failed with, or null if it completed.
+     */
+    protected void onDone(Throwable error) {
+    }
+}
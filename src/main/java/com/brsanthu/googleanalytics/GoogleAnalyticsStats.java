@@ -14,6 +14,8 @@
 
 package com.brsanthu.googleanalytics;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -29,6 +31,15 @@ public class GoogleAnalyticsStats {
 	private AtomicLong transactionHits = new AtomicLong();
 	private AtomicLong timingHits = new AtomicLong();
 	private AtomicLong socialHits = new AtomicLong();
+	private AtomicLong droppedHits = new AtomicLong();
+	private AtomicLong spooledHits = new AtomicLong();
+	private AtomicLong replayedHits = new AtomicLong();
+	private AtomicLong retriedHits = new AtomicLong();
+	private AtomicLong shortCircuitedHits = new AtomicLong();
+	private AtomicLong throttledHits = new AtomicLong();
+	private AtomicLong sampledOutHits = new AtomicLong();
+	private AtomicLong aggregatedHits = new AtomicLong();
+	private volatile Map<String, Double> sampleRates = Collections.emptyMap();
 
 	void pageViewHit() {
 		pageViewHits.incrementAndGet();
@@ -58,6 +69,42 @@ public class GoogleAnalyticsStats {
 		timingHits.incrementAndGet();
 	}
 
+	void droppedHit() {
+		droppedHits.incrementAndGet();
+	}
+
+	void spooledHit() {
+		spooledHits.incrementAndGet();
+	}
+
+	void replayedHits(int count) {
+		replayedHits.addAndGet(count);
+	}
+
+	void retriedHit() {
+		retriedHits.incrementAndGet();
+	}
+
+	void shortCircuitedHits(int count) {
+		shortCircuitedHits.addAndGet(count);
+	}
+
+	void throttledHit() {
+		throttledHits.incrementAndGet();
+	}
+
+	void sampledOutHit() {
+		sampledOutHits.incrementAndGet();
+	}
+
+	void aggregatedHit() {
+		aggregatedHits.incrementAndGet();
+	}
+
+	void sampleRates(Map<String, Double> sampleRates) {
+		this.sampleRates = Collections.unmodifiableMap(sampleRates);
+	}
+
 	public long getPageViewHits () {
 		return pageViewHits.get();
 	}
@@ -86,6 +133,91 @@ public class GoogleAnalyticsStats {
 		return socialHits.get();
 	}
 
+	/**
+	 * Number of asynchronous hits dropped because the queue was full, or discarded from the spool or retries.
+	 * These are counted irrespective of {@link GoogleAnalyticsConfig#isGatherStats()}.
+	 */
+	public long getDroppedHits () {
+		return droppedHits.get();
+	}
+
+	/**
+	 * Number of hits which could not be sent and were stored in the spool (see
+	 * {@link GoogleAnalyticsConfig#setSpoolDirectory(String)}). Hits which are later discarded
+	 * from the spool, because it was full or they were too old, are counted as dropped.
+	 */
+	public long getSpooledHits () {
+		return spooledHits.get();
+	}
+
+	/**
+	 * Number of spooled hits sent to GA.
+	 */
+	public long getReplayedHits () {
+		return replayedHits.get();
+	}
+
+	/**
+	 * Number of attempts made to send again the hits which failed transiently (see
+	 * {@link GoogleAnalyticsConfig#setMaxRetries(int)}). A hit retried several times is counted for each attempt.
+	 */
+	public long getRetriedHits () {
+		return retriedHits.get();
+	}
+
+	/**
+	 * Number of hits which were not sent because the circuit breaker was open (see
+	 * {@link GoogleAnalyticsConfig#setCircuitBreakerEnabled(boolean)}). These are also counted as spooled or dropped,
+	 * as per {@link GoogleAnalyticsConfig#getCircuitBreakerFallback()}.
+	 */
+	public long getShortCircuitedHits () {
+		return shortCircuitedHits.get();
+	}
+
+	/**
+	 * Number of hits which were not sent because they exceeded the rate limit of their tracking id or client id
+	 * (see {@link GoogleAnalyticsConfig#setTrackingIdRateLimit(double)}).
+	 */
+	public long getThrottledHits () {
+		return throttledHits.get();
+	}
+
+	/**
+	 * Number of hits which were not sent because their user is not in the sample
+	 * (see {@link GoogleAnalyticsConfig#setSampleRate(double)}).
+	 */
+	public long getSampledOutHits () {
+		return sampledOutHits.get();
+	}
+
+	/**
+	 * Number of hits which were not sent one by one, but rolled up into aggregated hits (see
+	 * {@link GoogleAnalyticsConfig#setEventAggregationEnabled(boolean)} and
+	 * {@link GoogleAnalyticsConfig#setTimingAggregationEnabled(boolean)}). Aggregated hits are counted by their hit
+	 * type once sent.
+	 */
+	public long getAggregatedHits () {
+		return aggregatedHits.get();
+	}
+
+	/**
+	 * Fraction of the users whose hits are sent, by hit type, for the tracking id of the default request, as last
+	 * set by sampling (see {@link GoogleAnalyticsConfig#setSampleRate(double)} and
+	 * {@link GoogleAnalyticsConfig#setAdaptiveSamplingEnabled(boolean)}). Counts of the sent hits divided by these
+	 * rates estimate the counts of all the hits. Empty if hits are not sampled.
+	 */
+	public Map<String, Double> getSampleRates() {
+		return sampleRates;
+	}
+
+	/**
+	 * @return the sample rate of the hit type (see {@link #getSampleRates()}), 1 if hits are not sampled.
+	 */
+	public double getSampleRate(String hitType) {
+		Double rate = sampleRates.get(hitType);
+		return rate == null ? 1 : rate;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
@@ -123,6 +255,49 @@ public class GoogleAnalyticsStats {
 		if (socialHits != null) {
 			builder.append("socialHits=");
 			builder.append(socialHits);
+			builder.append(", ");
+		}
+		if (droppedHits != null) {
+			builder.append("droppedHits=");
+			builder.append(droppedHits);
+			builder.append(", ");
+		}
+		if (spooledHits != null) {
+			builder.append("spooledHits=");
+			builder.append(spooledHits);
+			builder.append(", ");
+		}
+		if (replayedHits != null) {
+			builder.append("replayedHits=");
+			builder.append(replayedHits);
+			builder.append(", ");
+		}
+		if (retriedHits != null) {
+			builder.append("retriedHits=");
+			builder.append(retriedHits);
+			builder.append(", ");
+		}
+		if (shortCircuitedHits != null) {
+			builder.append("shortCircuitedHits=");
+			builder.append(shortCircuitedHits);
+			builder.append(", ");
+		}
+		if (throttledHits != null) {
+			builder.append("throttledHits=");
+			builder.append(throttledHits);
+			builder.append(", ");
+		}
+		if (sampledOutHits != null) {
+			builder.append("sampledOutHits=");
+			builder.append(sampledOutHits);
+		}
+		if (aggregatedHits != null) {
+			builder.append(", aggregatedHits=");
+			builder.append(aggregatedHits);
+		}
+		if (!sampleRates.isEmpty()) {
+			builder.append(", sampleRates=");
+			builder.append(sampleRates);
 		}
 		builder.append("]");
 		return builder.toString();
@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+/**
+ * Hashed timing wheel holding the entries to be expired at a deadline, with
+ * constant time scheduling regardless of how many entries are pending.
+ *
+ * <p>Time is divided into ticks, and entries are kept in a circular array of
+ * buckets indexed by their deadline tick. Entries further away than one
+ * revolution of the wheel are kept with the number of remaining rounds. The
+ * wheel does not have a thread of its own, it is advanced by calling
+ * {@link #advance(long)} periodically (about once per tick). Entries are
+ * linked intrusively, so scheduling does not allocate anything.
+ */
+class HashedTimingWheel {
+
+    /**
+     * Entry of the wheel. An entry can be scheduled again once it expires.
+     */
+    abstract static class Entry {
+        long deadline;
+        private long rounds;
+        /** Next entry of the same bucket, or of the expired entries. */
+        Entry next;
+    }
+
+    private final long startTime;
+    private final long tickMillis;
+    private final Entry[] buckets;
+    private final int mask;
+
+    /** Next tick to be processed. */
+    private long tick = 0;
+    private int size = 0;
+
+    /**
+     * @param ticksPerWheel number of buckets, rounded up to power of two.
+     */
+    HashedTimingWheel(long startTime, long tickMillis, int ticksPerWheel) {
+        int capacity = 1;
+        while (capacity < ticksPerWheel) {
+            capacity <<= 1;
+        }
+        this.startTime = startTime;
+        this.tickMillis = Math.max(1, tickMillis);
+        this.buckets = new Entry[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Schedules the entry to be expired once the given time is reached. Entry
+     * whose deadline is already past is expired on the next advance.
+     */
+    synchronized void schedule(Entry entry, long deadline) {
+        long ticks = Math.max(tick, (deadline - startTime + tickMillis - 1) / tickMillis);
+        int index = (int) (ticks & mask);
+
+        entry.deadline = deadline;
+        entry.rounds = (ticks - tick) / buckets.length;
+        entry.next = buckets[index];
+        buckets[index] = entry;
+        size++;
+    }
+
+    /**
+     * Processes the ticks up to the given time.
+     *
+     * @return the expired entries, linked by {@link Entry#next}, or null if none.
+     */
+    synchronized Entry advance(long now) {
+        Entry expired = null;
+        while (startTime + tick * tickMillis <= now) {
+            int index = (int) (tick & mask);
+            Entry previous = null;
+            Entry entry = buckets[index];
+            while (entry != null) {
+                Entry next = entry.next;
+                if (entry.rounds <= 0) {
+                    if (previous == null) {
+                        buckets[index] = next;
+                    } else {
+                        previous.next = next;
+                    }
+                    entry.next = expired;
+                    expired = entry;
+                    size--;
+                } else {
+                    entry.rounds--;
+                    previous = entry;
+                }
+                entry = next;
+            }
+            tick++;
+        }
+        return expired;
+    }
+
+    /**
+     * Removes all the entries irrespective of their deadline.
+     *
+     * @return the removed entries, linked by {@link Entry#next}, or null if none.
+     */
+    synchronized Entry clear() {
+        Entry removed = null;
+        for (int i = 0; i < buckets.length; i++) {
+            Entry entry = buckets[i];
+            while (entry != null) {
+                Entry next = entry.next;
+                entry.next = removed;
+                removed = entry;
+                entry = next;
+            }
+            buckets[i] = null;
+        }
+        size = 0;
+        return removed;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+/**
+ * Hands the async hits over to the threads posting them, in place of the
+ * executor (see {@link DispatchMode}).
+ */
+interface HitDispatcher {
+
+    /**
+     * Queues the hit, which is either a {@link GoogleAnalyticsRequest} or a
+     * {@link RequestProvider}, to be posted with
+     * {@link GoogleAnalytics#postQueued(Object, GoogleAnalyticsFuture)}, or
+     * drops it with {@link GoogleAnalytics#dropQueued(Object, GoogleAnalyticsFuture)}
+     * as per the configured {@link QueueOverflowPolicy}. Future is null for the
+     * hits queued by {@link GoogleAnalytics#send(GoogleAnalyticsRequest)}.
+     */
+    void dispatch(Object hit, GoogleAnalyticsFuture future);
+
+    /**
+     * Stops accepting hits and waits for the hits queued so far to be posted,
+     * up to the deadline (as per {@link System#nanoTime()}). Hits still queued
+     * at the deadline are handed to
+     * {@link GoogleAnalytics#spillQueued(Object, GoogleAnalyticsFuture)}.
+     *
+     * @return true if all the queued hits were posted before the deadline.
+     */
+    boolean close(long deadline);
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+/**
+ * Lane in which asynchronous hits of a hit type wait to be sent, when priority lanes are enabled
+ * (see {@link GoogleAnalyticsConfig#setPriorityLanesEnabled(boolean)}).
+ *
+ * <p>Threads sending the hits take them from the lanes in weighted round robin
+ * (see {@link GoogleAnalyticsConfig#setPriorityLaneWeight(HitPriority, int)}), so hits of a higher lane are not
+ * held up by the hits of lower lanes. Once the queue is full, the oldest hit of the lowest lane is dropped to make
+ * room for a hit of a higher lane.
+ */
+public enum HitPriority {
+	/**
+	 * Transaction, item and exception hits by default.
+	 */
+	HIGH,
+
+	/**
+	 * Event and social hits by default, and hits of hit types without priority.
+	 */
+	NORMAL,
+
+	/**
+	 * Page view, app view and timing hits by default.
+	 */
+	LOW
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of the hits per tracking id and per client id with token
+ * buckets, so hits which GA would discard for exceeding its quotas are not
+ * sent at all.
+ *
+ * <p>Buckets are lock free. Client id buckets are kept in a map, which is
+ * swept of the idle buckets (ones which refilled completely, so are same as
+ * new) once it grows beyond the configured size. If there are still too many
+ * client ids, new ones are not limited until some become idle.
+ */
+class HitRateLimiter {
+
+    /** Minimum time between the sweeps of the idle buckets. */
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final Limit trackingIdLimit;
+    private final Limit clientIdLimit;
+    private final int maxClientIds;
+
+    private final ConcurrentHashMap<String, TokenBucket> trackingIds = new ConcurrentHashMap<String, TokenBucket>();
+    private final ConcurrentHashMap<String, TokenBucket> clientIds = new ConcurrentHashMap<String, TokenBucket>();
+    /** Time of the last sweep, 0 if there was none. */
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    HitRateLimiter(GoogleAnalyticsConfig config) {
+        this.trackingIdLimit = Limit.of(config.getTrackingIdRateLimit(), config.getTrackingIdRateBurst());
+        this.clientIdLimit = Limit.of(config.getClientIdRateLimit(), config.getClientIdRateBurst());
+        this.maxClientIds = Math.max(1, config.getMaxRateLimitedClientIds());
+    }
+
+    /**
+     * @return true if the hit of given tracking and client id (either can be
+     *         null) can be sent now, consuming a token from both the buckets.
+     */
+    boolean tryAcquire(String trackingId, String clientId, long now) {
+        TokenBucket clientBucket = null;
+        if (clientIdLimit != null && clientId != null) {
+            clientBucket = bucket(clientIds, clientId, clientIdLimit, now);
+            if (clientBucket != null && !clientBucket.tryAcquire(now)) {
+                return false;
+            }
+        }
+
+        if (trackingIdLimit != null && trackingId != null) {
+            TokenBucket trackingBucket = bucket(trackingIds, trackingId, trackingIdLimit, now);
+            if (!trackingBucket.tryAcquire(now)) {
+                if (clientBucket != null) {
+                    clientBucket.release();
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the bucket of the key, or null if there are too many keys.
+     */
+    private TokenBucket bucket(ConcurrentHashMap<String, TokenBucket> buckets, String key, Limit limit, long now) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+
+        if (buckets == clientIds && buckets.size() >= maxClientIds) {
+            sweep(now);
+            if (buckets.size() >= maxClientIds) {
+                return null;
+            }
+        }
+
+        bucket = new TokenBucket(limit, now);
+        TokenBucket existing = buckets.putIfAbsent(key, bucket);
+        return existing == null ? bucket : existing;
+    }
+
+    /**
+     * Removes the client id buckets which are full. A hit racing with the
+     * removal may get a token from the removed bucket, which only errs in
+     * favour of sending it.
+     */
+    private void sweep(long now) {
+        long last = lastSweep.get();
+        if ((last != 0 && now - last < SWEEP_INTERVAL) || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+
+        for (Iterator<Map.Entry<String, TokenBucket>> it = clientIds.entrySet().iterator(); it.hasNext();) {
+            if (it.next().getValue().isIdle(now)) {
+                it.remove();
+            }
+        }
+    }
+
+    int getClientIdCount() {
+        return clientIds.size();
+    }
+
+    /**
+     * Rate and burst of a bucket, as the nanoseconds per token and the
+     * nanoseconds worth of tokens a full bucket holds.
+     */
+    private static final class Limit {
+        final long interval;
+        final long capacity;
+
+        private Limit(long interval, long capacity) {
+            this.interval = interval;
+            this.capacity = capacity;
+        }
+
+        /**
+         * @return the limit, or null if rate is not limited.
+         */
+        static Limit of(double hitsPerSecond, int burst) {
+            if (hitsPerSecond <= 0) {
+                return null;
+            }
+            long interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / hitsPerSecond));
+            return new Limit(interval, interval * Math.max(1, burst));
+        }
+    }
+
+    /**
+     * Token bucket kept as the single time at which the bucket would be full
+     * again (same as the generic cell rate algorithm), so that taking a token
+     * is a single compare and set. Bucket is full when that time is past, and
+     * each token moves it further by the interval of a token; a token is
+     * available as long as it stays within the capacity from now.
+     */
+    private static final class TokenBucket {
+        private final Limit limit;
+        private final AtomicLong fullAt;
+
+        TokenBucket(Limit limit, long now) {
+            this.limit = limit;
+            this.fullAt = new AtomicLong(now);
+        }
+
+        boolean tryAcquire(long now) {
+            while (true) {
+                long current = fullAt.get();
+                long next = (current - now < 0 ? now : current) + limit.interval;
+                if (next - now > limit.capacity) {
+                    return false;
+                }
+                if (fullAt.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Gives back a token taken by {@link #tryAcquire(long)}.
+         */
+        void release() {
+            fullAt.addAndGet(-limit.interval);
+        }
+
+        boolean isIdle(long now) {
+            return fullAt.get() - now <= 0;
+        }
+    }
+}
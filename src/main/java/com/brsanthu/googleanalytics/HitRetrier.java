@@ -0,0 +1,230 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends again the hits which failed due to a transient error (GA could not be
+ * reached or responded with server error), with exponential backoff and
+ * jitter, up to configured number of attempts.
+ *
+ * <p>Hits waiting for retry are kept in a {@link HashedTimingWheel}, which is
+ * advanced by the scheduler thread, so no thread waits for any particular
+ * hit. The wheel runs on {@link System#nanoTime()}, so changes of the wall
+ * clock neither hold back nor rush the retries. Expired hits are sent by the
+ * given executor, with the queue time (<code>qt</code>) increased by the time
+ * since the first failure. The scheduler thread only queues them, so if the
+ * executor queue is full the overflow policy is not applied to them (see
+ * {@link #abandon(Runnable)}). Hits which exhaust the attempts are handed to
+ * the spool (if there is one), and hits older than the 4 hours accepted by GA
+ * are discarded.
+ */
+class HitRetrier {
+
+    private static final Logger logger = LoggerFactory.getLogger(HitRetrier.class);
+
+    /** Resolution of the retry delays. */
+    static final long TICK_MILLIS = 100;
+
+    private static final int TICKS_PER_WHEEL = 512;
+
+    private final GoogleAnalytics analytics;
+    private final Executor executor;
+    private final int maxRetries;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final Random random = new Random();
+    private final HashedTimingWheel wheel = new HashedTimingWheel(nanoMillis(), TICK_MILLIS, TICKS_PER_WHEEL);
+
+    HitRetrier(GoogleAnalytics analytics, GoogleAnalyticsConfig config, Executor executor) {
+        this.analytics = analytics;
+        this.executor = executor;
+        this.maxRetries = config.getMaxRetries();
+        this.baseDelay = Math.max(1, config.getRetryBaseDelay());
+        this.maxDelay = Math.max(baseDelay, config.getRetryMaxDelay());
+    }
+
+    /**
+     * Schedules the retry of the hit (or each of the new line separated hits of
+     * a batch) which just failed. Payload is copied, so it can be reused once
+     * this returns.
+     */
+    void retry(GoogleAnalyticsPayload payload, boolean batch) {
+        long now = nanoMillis();
+        long failedAt = System.currentTimeMillis();
+        if (!batch) {
+            schedule(new RetryHit(payload.toByteArray(), failedAt, now), now);
+            return;
+        }
+
+        byte[] bytes = payload.array();
+        int start = 0;
+        for (int i = 0; i <= payload.length(); i++) {
+            if (i == payload.length() || bytes[i] == '\n') {
+                if (i > start) {
+                    schedule(new RetryHit(Arrays.copyOfRange(bytes, start, i), failedAt, now), now);
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+    private void schedule(RetryHit hit, long now) {
+        if (hit.attempts >= maxRetries) {
+            logger.debug("Hit failed " + (hit.attempts + 1) + " times, giving up retrying it");
+            giveUp(hit);
+            return;
+        }
+
+        long delay = delay(hit.attempts);
+        if (now + delay - hit.failedTime > HitSpool.MAX_QUEUE_TIME) {
+            drop(hit);
+            return;
+        }
+        wheel.schedule(hit, now + delay);
+    }
+
+    /**
+     * @return the delay before given retry attempt (zero based), doubled for
+     *         each attempt up to the max delay, of which a random half is
+     *         jitter, so the hits which failed together are not retried together.
+     */
+    long delay(int attempt) {
+        long delay = attempt < 32 ? Math.min(maxDelay, baseDelay << attempt) : maxDelay;
+        long half = delay / 2;
+        return delay - half + (long) (random.nextDouble() * (half + 1));
+    }
+
+    /**
+     * @return {@link System#nanoTime()} in milliseconds, which the wheel and
+     *         the queue times of the hits are measured with.
+     */
+    private static long nanoMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * Queues the hits whose retry delay is over on the executor. Called by the
+     * scheduler every tick.
+     */
+    void tick() {
+        HashedTimingWheel.Entry entry = wheel.advance(nanoMillis());
+        while (entry != null) {
+            HashedTimingWheel.Entry next = entry.next;
+            entry.next = null;
+            executor.execute((RetryHit) entry);
+            entry = next;
+        }
+    }
+
+    /**
+     * @return number of the hits waiting for retry.
+     */
+    int size() {
+        return wheel.size();
+    }
+
+    /**
+     * Hands all the hits waiting for retry to the spool, or discards them if
+     * there is none.
+     */
+    void close() {
+        HashedTimingWheel.Entry entry = wheel.clear();
+        while (entry != null) {
+            HashedTimingWheel.Entry next = entry.next;
+            entry.next = null;
+            giveUp((RetryHit) entry);
+            entry = next;
+        }
+    }
+
+    /**
+     * Hands the retry which is not going to be sent, as it was taken out of
+     * the executor queue or the queue was full, to the spool.
+     *
+     * @return false if the runnable is not a retry.
+     */
+    boolean abandon(Runnable r) {
+        if (!(r instanceof RetryHit)) {
+            return false;
+        }
+        giveUp((RetryHit) r);
+        return true;
+    }
+
+    private void giveUp(RetryHit hit) {
+        if (!analytics.spool(hit.bytes, hit.bytes.length, hit.failedAt)) {
+            drop(hit);
+        }
+    }
+
+    private void drop(RetryHit hit) {
+        logger.debug("Hit could not be sent within the queue time accepted by GA, dropping it");
+        analytics.getStats().droppedHit();
+    }
+
+    /**
+     * Encoded hit waiting for retry, along with the time it first failed, as
+     * wall clock time for the spool and as {@link #nanoMillis()}.
+     */
+    private class RetryHit extends HashedTimingWheel.Entry implements Runnable {
+        final byte[] bytes;
+        final long failedAt;
+        final long failedTime;
+        int attempts = 0;
+
+        RetryHit(byte[] bytes, long failedAt, long failedTime) {
+            this.bytes = bytes;
+            this.failedAt = failedAt;
+            this.failedTime = failedTime;
+        }
+
+        @Override
+        public void run() {
+            long now = nanoMillis();
+            GoogleAnalyticsPayload payload = new GoogleAnalyticsPayload(bytes.length + 16);
+            if (HitSpool.appendWithQueueTime(payload, bytes, bytes.length, now - failedTime) > HitSpool.MAX_QUEUE_TIME) {
+                drop(this);
+                return;
+            }
+
+            attempts++;
+            analytics.getStats().retriedHit();
+            GoogleAnalyticsResponse response = new GoogleAnalyticsResponse();
+            try {
+                if (!analytics.transmit(response, payload, false)) {
+                    logger.debug("Retry " + attempts + " of the hit is skipped as the circuit breaker is open");
+                } else if (response.getStatusCode() < 500) {
+                    return;
+                } else {
+                    logger.debug("Retry " + attempts + " of the hit failed with status " + response.getStatusCode());
+                }
+            } catch (IOException e) {
+                logger.debug("Retry " + attempts + " of the hit failed: " + e);
+            } catch (Exception e) {
+                logger.warn("Exception while retrying the Google Analytics hit " + payload, e);
+                return;
+            }
+            schedule(this, nanoMillis());
+        }
+    }
+}
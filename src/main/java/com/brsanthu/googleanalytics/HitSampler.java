@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+/**
+ * Keeps a fraction of the users, chosen by the hash of their client id, so
+ * either all or none of the hits of a user are sent and sessions stay whole
+ * (see {@link GoogleAnalyticsConfig#setSampleRate(double)}). Rate of the low
+ * priority hit types is lowered further by the {@link AdaptiveSampler}, if
+ * there is one.
+ *
+ * <p>Client id is hashed with 64 bit FNV-1a, whose bits are then mixed with
+ * the finalizer of MurmurHash3, and the top 53 bits are compared with the
+ * sample rate scaled to the same range. A user kept at some rate is kept at
+ * any higher rate as well, so users kept for a hit type with lower rate are
+ * a subset of the users kept for the others.
+ */
+class HitSampler {
+
+    /** 2^53, range of the hash values compared with the sample rate. */
+    private static final double SCALE = 1L << 53;
+
+    /** Hit types of the hit classes of this library. */
+    static final String[] HIT_TYPES = {"pageview", "appview", "event", "item", "transaction", "social", "exception", "timing"};
+
+    private final GoogleAnalyticsConfig config;
+    private final AdaptiveSampler adaptiveSampler;
+
+    /**
+     * @param adaptiveSampler can be null.
+     */
+    HitSampler(GoogleAnalyticsConfig config, AdaptiveSampler adaptiveSampler) {
+        this.config = config;
+        this.adaptiveSampler = adaptiveSampler;
+    }
+
+    /**
+     * @return true if the hit of given client should be sent. Hits without
+     *         client id are always sent.
+     */
+    boolean isSampled(String trackingId, String clientId, String hitType) {
+        if (clientId == null) {
+            return true;
+        }
+        return isSampled(clientId, getRate(trackingId, hitType));
+    }
+
+    /**
+     * @return the fraction of the users whose hits of given tracking id and
+     *         hit type are kept now.
+     */
+    double getRate(String trackingId, String hitType) {
+        double rate = Math.min(config.getTrackingIdSampleRate(trackingId), config.getHitTypeSampleRate(hitType));
+        if (adaptiveSampler != null) {
+            rate *= adaptiveSampler.getRate(hitType);
+        }
+        return rate;
+    }
+
+    static boolean isSampled(String clientId, double rate) {
+        if (rate >= 1) {
+            return true;
+        }
+        return (hash(clientId) >>> 11) < (long) (rate * SCALE);
+    }
+
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
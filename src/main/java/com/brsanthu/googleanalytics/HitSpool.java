@@ -0,0 +1,493 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the encoded hits which could not be sent in memory mapped segment
+ * files, so they can be sent again once GA can be reached, even after restart.
+ *
+ * <p>Each segment is a file of fixed size, to which hits are appended
+ * sequentially as records of <code>[length][timestamp][payload]</code>. Length
+ * is written last, so a record is only visible once it is complete, and zero
+ * length marks the end of the records. Records which are sent are marked by
+ * negating their length, and a segment is deleted once all its records are
+ * sent. When the spool is full, the oldest segment is deleted.
+ *
+ * <p>Hits are sent with the queue time (<code>qt</code>) increased by the time
+ * since they were stored, and hits which would exceed the 4 hours accepted by
+ * GA are discarded.
+ */
+class HitSpool {
+
+    private static final Logger logger = LoggerFactory.getLogger(HitSpool.class);
+
+    /** GA ignores the hits queued for longer than this. */
+    static final long MAX_QUEUE_TIME = TimeUnit.HOURS.toMillis(4);
+
+    private static final String PREFIX = "hits-";
+    private static final String SUFFIX = ".spool";
+
+    /** Length and timestamp of each record. */
+    static final int HEADER_BYTES = 4 + 8;
+
+    private static final byte[] QUEUE_TIME = "qt=".getBytes(GoogleAnalytics.UTF8);
+
+    /**
+     * Sends the payload of spooled hits.
+     */
+    interface Sender {
+
+        /**
+         * @param payload single hit, or new line separated hits if batching.
+         * @throws IOException if the hits could not be sent.
+         */
+        void send(GoogleAnalyticsPayload payload, int hits) throws IOException;
+    }
+
+    private final File directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final GoogleAnalytics analytics;
+
+    /** Segments which are not written anymore, oldest first. */
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    private Segment active = null;
+    private long nextSequence = 0;
+    private boolean closed = false;
+
+    HitSpool(File directory, int segmentBytes, long maxBytes, GoogleAnalytics analytics) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = (int) Math.max(2, Math.min(Integer.MAX_VALUE, maxBytes / segmentBytes));
+        this.analytics = analytics;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the spool directory " + directory);
+        }
+
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return sequence(name) >= 0;
+            }
+        });
+        Arrays.sort(files);
+        for (File file : files) {
+            Segment segment = Segment.open(file, sequence(file.getName()), 0);
+            nextSequence = segment.sequence + 1;
+            if (segment.pending == 0) {
+                segment.delete();
+            } else {
+                segments.add(segment);
+            }
+        }
+    }
+
+    private static long sequence(String name) {
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Stores the hit.
+     *
+     * @return false if hit could not be stored.
+     */
+    synchronized boolean store(byte[] bytes, int offset, int length, long timestamp) {
+        if (closed) {
+            return false;
+        }
+        if (HEADER_BYTES + length > segmentBytes) {
+            logger.warn("Hit of " + length + " bytes is too big for the spool, dropping it");
+            return false;
+        }
+
+        try {
+            if (active != null && !active.hasRoom(length)) {
+                seal();
+            }
+            if (active == null) {
+                open();
+            }
+            active.append(bytes, offset, length, timestamp);
+            analytics.getStats().spooledHit();
+            return true;
+        } catch (IOException e) {
+            logger.warn("Could not store the hit in the spool " + directory, e);
+            return false;
+        }
+    }
+
+    /**
+     * Stores each of the new line separated hits of the batch.
+     */
+    void storeBatch(GoogleAnalyticsPayload batch, long timestamp) {
+        byte[] bytes = batch.array();
+        int start = 0;
+        for (int i = 0; i <= batch.length(); i++) {
+            if (i == batch.length() || bytes[i] == '\n') {
+                if (i > start) {
+                    store(bytes, start, i - start, timestamp);
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return segments.isEmpty() && (active == null || active.pending == 0);
+    }
+
+    /**
+     * Stops writing to the active segment, so it can be replayed.
+     */
+    private void seal() {
+        active.force();
+        segments.add(active);
+        active = null;
+    }
+
+    /**
+     * Starts new active segment, deleting the oldest ones if spool is full.
+     */
+    private void open() throws IOException {
+        while (segments.size() + 1 > maxSegments) {
+            Segment oldest = segments.removeFirst();
+            logger.warn("Spool is full, dropping " + oldest.pending + " hits of " + oldest.file);
+            for (int i = 0; i < oldest.pending; i++) {
+                analytics.getStats().droppedHit();
+            }
+            oldest.delete();
+        }
+
+        String name = PREFIX + String.format("%020d", nextSequence) + SUFFIX;
+        active = Segment.open(new File(directory, name), nextSequence, segmentBytes);
+        nextSequence++;
+    }
+
+    /**
+     * Sends the stored hits, oldest first, until all are sent or sending
+     * fails. Called by one thread at a time, and other threads keep storing
+     * the hits meanwhile.
+     *
+     * @param maxBatchSize maximum hits per payload, one if not batching.
+     * @param maxBatchBytes maximum bytes per payload when batching.
+     * @return number of hits sent.
+     */
+    int replay(Sender sender, int maxBatchSize, int maxBatchBytes) {
+        synchronized (this) {
+            if (active != null && active.pending > 0) {
+                seal();
+            }
+        }
+
+        Replay replay = new Replay(sender, maxBatchSize, maxBatchBytes);
+        while (true) {
+            Segment segment;
+            synchronized (this) {
+                segment = segments.peekFirst();
+            }
+            if (segment == null || !replay.replay(segment)) {
+                break;
+            }
+            synchronized (this) {
+                //Might be deleted meanwhile if the spool filled up
+                if (segments.remove(segment)) {
+                    segment.delete();
+                }
+            }
+        }
+        return replay.sent;
+    }
+
+    synchronized void close() {
+        closed = true;
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+        if (active != null) {
+            active.close();
+            active = null;
+        }
+    }
+
+    /**
+     * Replays the records of the segments into payloads of up to configured
+     * size, with the queue time updated.
+     */
+    private class Replay {
+        private final Sender sender;
+        private final int maxBatchSize;
+        private final int maxBatchBytes;
+        private final GoogleAnalyticsPayload payload;
+        private final GoogleAnalyticsPayload hit = new GoogleAnalyticsPayload(1024);
+        private int[] positions;
+        private int count = 0;
+        private byte[] record = new byte[1024];
+        int sent = 0;
+
+        Replay(Sender sender, int maxBatchSize, int maxBatchBytes) {
+            this.sender = sender;
+            this.maxBatchSize = Math.max(1, maxBatchSize);
+            this.maxBatchBytes = maxBatchBytes;
+            this.payload = new GoogleAnalyticsPayload(maxBatchSize > 1 ? maxBatchBytes : 1024);
+            this.positions = new int[this.maxBatchSize];
+        }
+
+        /**
+         * @return true if all the records of the segment are sent or discarded.
+         */
+        boolean replay(Segment segment) {
+            long now = System.currentTimeMillis();
+            MappedByteBuffer buffer = segment.buffer;
+            int position = 0;
+            while (position + HEADER_BYTES <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length == 0) {
+                    break;
+                }
+                if (length > 0) {
+                    if (record.length < length) {
+                        record = new byte[Math.max(length, record.length * 2)];
+                    }
+                    long timestamp = buffer.getLong(position + 4);
+                    segment.read(position + HEADER_BYTES, record, length);
+
+                    hit.reset();
+                    long queueTime = appendWithQueueTime(hit, record, length, Math.max(0, now - timestamp));
+                    if (queueTime > MAX_QUEUE_TIME) {
+                        logger.debug("Spooled hit is older than GA accepts, dropping it");
+                        segment.consume(position);
+                        analytics.getStats().droppedHit();
+                    } else {
+                        if (count > 0 && (count == maxBatchSize || payload.length() + 1 + hit.length() > maxBatchBytes)) {
+                            if (!send(segment)) {
+                                return false;
+                            }
+                        }
+                        if (count > 0) {
+                            payload.append((byte) '\n');
+                        }
+                        payload.append(hit);
+                        positions[count++] = position;
+                    }
+                }
+                position += HEADER_BYTES + Math.abs(length);
+            }
+            return count == 0 || send(segment);
+        }
+
+        private boolean send(Segment segment) {
+            try {
+                sender.send(payload, count);
+            } catch (Exception e) {
+                logger.debug("Could not send the spooled hits, will try again later: " + e);
+                payload.reset();
+                count = 0;
+                return false;
+            }
+
+            for (int i = 0; i < count; i++) {
+                segment.consume(positions[i]);
+            }
+            analytics.getStats().replayedHits(count);
+            sent += count;
+            payload.reset();
+            count = 0;
+            return true;
+        }
+    }
+
+    /**
+     * Appends the hit with its queue time increased by given milliseconds.
+     *
+     * @return the new queue time.
+     */
+    static long appendWithQueueTime(GoogleAnalyticsPayload target, byte[] hit, int length, long millis) {
+        long queueTime = millis;
+        int start = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || hit[i] == '&') {
+                if (isQueueTime(hit, start, i)) {
+                    queueTime += parseQueueTime(hit, start + QUEUE_TIME.length, i);
+                } else if (i > start) {
+                    if (!target.isEmpty()) {
+                        target.append((byte) '&');
+                    }
+                    target.append(hit, start, i - start);
+                }
+                start = i + 1;
+            }
+        }
+
+        if (!target.isEmpty()) {
+            target.append((byte) '&');
+        }
+        target.append(QUEUE_TIME);
+        target.appendDecimal(queueTime);
+        return queueTime;
+    }
+
+    private static boolean isQueueTime(byte[] hit, int start, int end) {
+        if (end - start < QUEUE_TIME.length) {
+            return false;
+        }
+        for (int i = 0; i < QUEUE_TIME.length; i++) {
+            if (hit[start + i] != QUEUE_TIME[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseQueueTime(byte[] hit, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            if (hit[i] < '0' || hit[i] > '9') {
+                return 0;
+            }
+            value = value * 10 + (hit[i] - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Memory mapped segment file.
+     */
+    private static final class Segment {
+        final File file;
+        final long sequence;
+        final MappedByteBuffer buffer;
+        /** Views for bulk writes (by the storing threads) and reads (by the replaying thread). */
+        private final ByteBuffer writer;
+        private final ByteBuffer reader;
+        private final RandomAccessFile raf;
+        private int writePosition = 0;
+        /** Records which are not sent yet. */
+        int pending = 0;
+
+        private Segment(File file, long sequence, RandomAccessFile raf, MappedByteBuffer buffer) {
+            this.file = file;
+            this.sequence = sequence;
+            this.raf = raf;
+            this.buffer = buffer;
+            this.writer = buffer.duplicate();
+            this.reader = buffer.duplicate();
+        }
+
+        /**
+         * Opens the segment file, creating it with given size if it does not exist.
+         */
+        static Segment open(File file, long sequence, int size) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                if (raf.length() == 0) {
+                    raf.setLength(size);
+                }
+                MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+                Segment segment = new Segment(file, sequence, raf, buffer);
+                segment.scan();
+                return segment;
+            } catch (IOException e) {
+                raf.close();
+                throw e;
+            }
+        }
+
+        private void scan() {
+            while (writePosition + HEADER_BYTES <= buffer.capacity()) {
+                int length = buffer.getInt(writePosition);
+                if (length == 0) {
+                    break;
+                }
+                if (length > 0) {
+                    pending++;
+                }
+                writePosition += HEADER_BYTES + Math.abs(length);
+            }
+        }
+
+        boolean hasRoom(int length) {
+            return writePosition + HEADER_BYTES + length <= buffer.capacity();
+        }
+
+        void append(byte[] bytes, int offset, int length, long timestamp) {
+            buffer.putLong(writePosition + 4, timestamp);
+            writer.position(writePosition + HEADER_BYTES);
+            writer.put(bytes, offset, length);
+            //Written last, so the record is complete once it is visible
+            buffer.putInt(writePosition, length);
+            writePosition += HEADER_BYTES + length;
+            pending++;
+        }
+
+        void read(int position, byte[] bytes, int length) {
+            reader.position(position);
+            reader.get(bytes, 0, length);
+        }
+
+        void consume(int position) {
+            int length = buffer.getInt(position);
+            if (length > 0) {
+                buffer.putInt(position, -length);
+                pending--;
+            }
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void close() {
+            force();
+            try {
+                raf.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+
+        /**
+         * Deletes the file. Mapping is released by the garbage collector, as
+         * there is no way to unmap it explicitly before Java 9.
+         */
+        void delete() {
+            close();
+            if (!file.delete()) {
+                logger.warn("Could not delete the spool file " + file);
+            }
+        }
+    }
+}
@@ -152,6 +152,14 @@ public class ItemHit extends GoogleAnalyticsRequest<ItemHit> {
 		setDouble(ITEM_PRICE, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #itemPrice(Double)}, without boxing the value.
+	 */
+	public ItemHit itemPrice(double value) {
+		setDouble(ITEM_PRICE, value);
+	   	return this;
+	}
 	public Double itemPrice() {
 		return getDouble(ITEM_PRICE);
 	}
@@ -192,6 +200,14 @@ public class ItemHit extends GoogleAnalyticsRequest<ItemHit> {
 		setInteger(ITEM_QUANTITY, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #itemQuantity(Integer)}, without boxing the value.
+	 */
+	public ItemHit itemQuantity(int value) {
+		setInteger(ITEM_QUANTITY, value);
+	   	return this;
+	}
 	public Integer itemQuantity() {
 		return getInteger(ITEM_QUANTITY);
 	}
@@ -0,0 +1,385 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue of the async executor with a lane per {@link HitPriority} (see
+ * {@link GoogleAnalyticsConfig#setPriorityLanesEnabled(boolean)}).
+ *
+ * <p>Hits are taken from the lanes in weighted round robin: up to the weight
+ * of a lane hits are taken from it before moving to the next non-empty lane.
+ * Each lane is bounded by its own capacity and all of them together by the
+ * queue capacity. Once the queue is full, a hit is queued only if there is a
+ * hit of a lower lane to drop in its place, so lower lanes are shed first.
+ * Runnables which are not hits (like retries) go to {@link HitPriority#NORMAL}.
+ */
+class PriorityLaneQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private final GoogleAnalytics analytics;
+    private final GoogleAnalyticsConfig config;
+    private final int capacity;
+    private final int[] laneCapacities;
+    private final int[] weights;
+    private final ArrayDeque<Runnable>[] lanes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private int count = 0;
+    /** Lane being served and number of hits taken from it in this round. */
+    private int lane = 0;
+    private int served = 0;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    PriorityLaneQueue(GoogleAnalytics analytics, GoogleAnalyticsConfig config) {
+        this.analytics = analytics;
+        this.config = config;
+        this.capacity = config.getQueueCapacity() > 0 ? config.getQueueCapacity() : Integer.MAX_VALUE;
+
+        HitPriority[] priorities = HitPriority.values();
+        laneCapacities = new int[priorities.length];
+        weights = new int[priorities.length];
+        lanes = new ArrayDeque[priorities.length];
+        for (HitPriority priority : priorities) {
+            int laneCapacity = config.getPriorityLaneCapacity(priority);
+            laneCapacities[priority.ordinal()] = laneCapacity > 0 ? Math.min(laneCapacity, capacity) : capacity;
+            weights[priority.ordinal()] = Math.max(1, config.getPriorityLaneWeight(priority));
+            lanes[priority.ordinal()] = new ArrayDeque<Runnable>();
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private int laneOf(Object r) {
+        if (r instanceof GoogleAnalytics.QueuedHit) {
+            Object hit = ((GoogleAnalytics.QueuedHit) r).hit;
+            if (hit instanceof GoogleAnalyticsRequest) {
+                return config.getHitPriority(((GoogleAnalyticsRequest) hit).hitType()).ordinal();
+            }
+        }
+        return HitPriority.NORMAL.ordinal();
+    }
+
+    @Override
+    public boolean offer(Runnable r) {
+        int l = laneOf(r);
+        Runnable shed;
+        lock.lock();
+        try {
+            if (isFull(l)) {
+                return false;
+            }
+            shed = insert(l, r);
+        } finally {
+            lock.unlock();
+        }
+        drop(shed);
+        return true;
+    }
+
+    @Override
+    public boolean offer(Runnable r, long timeout, TimeUnit unit) throws InterruptedException {
+        int l = laneOf(r);
+        long nanos = unit.toNanos(timeout);
+        Runnable shed;
+        lock.lockInterruptibly();
+        try {
+            while (isFull(l)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            shed = insert(l, r);
+        } finally {
+            lock.unlock();
+        }
+        drop(shed);
+        return true;
+    }
+
+    @Override
+    public void put(Runnable r) throws InterruptedException {
+        int l = laneOf(r);
+        Runnable shed;
+        lock.lockInterruptibly();
+        try {
+            while (isFull(l)) {
+                notFull.await();
+            }
+            shed = insert(l, r);
+        } finally {
+            lock.unlock();
+        }
+        drop(shed);
+    }
+
+    /**
+     * @return true if the lane is full, or the queue is full and there is no
+     *         hit of a lower lane to drop.
+     */
+    private boolean isFull(int l) {
+        return lanes[l].size() >= laneCapacities[l] || (count >= capacity && lowestLaneBelow(l) < 0);
+    }
+
+    /**
+     * @return the lowest non-empty lane below the given one, or -1 if there is none.
+     */
+    private int lowestLaneBelow(int l) {
+        for (int i = lanes.length - 1; i > l; i--) {
+            if (!lanes[i].isEmpty()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds the hit to the lane, taking out the oldest hit of the lowest lane
+     * if the queue is full.
+     *
+     * @return the hit taken out, to be dropped once the lock is released.
+     */
+    private Runnable insert(int l, Runnable r) {
+        Runnable shed = null;
+        if (count >= capacity) {
+            shed = lanes[lowestLaneBelow(l)].poll();
+            count--;
+        }
+        lanes[l].add(r);
+        count++;
+        notEmpty.signal();
+        return shed;
+    }
+
+    private void drop(Runnable shed) {
+        if (shed != null) {
+            QueueOverflowHandler.drop(analytics, shed);
+        }
+    }
+
+    private Runnable dequeue() {
+        while (served >= weights[lane] || lanes[lane].isEmpty()) {
+            lane = (lane + 1) % lanes.length;
+            served = 0;
+        }
+        served++;
+        count--;
+        notFull.signalAll();
+        return lanes[lane].poll();
+    }
+
+    /**
+     * Takes out the oldest hit of the lane of the given hit, to make room for
+     * it (see {@link QueueOverflowPolicy#DROP_OLDEST}). Hits of other lanes
+     * are left alone, so a hit never displaces a hit of a higher lane.
+     *
+     * @return the hit taken out, or null if the lane is empty.
+     */
+    Runnable pollOldest(Runnable r) {
+        int l = laneOf(r);
+        lock.lock();
+        try {
+            Runnable oldest = lanes[l].poll();
+            if (oldest != null) {
+                count--;
+                notFull.signalAll();
+            }
+            return oldest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            if (count == 0) {
+                return null;
+            }
+            int l = lane;
+            if (served >= weights[l] || lanes[l].isEmpty()) {
+                do {
+                    l = (l + 1) % lanes.length;
+                } while (lanes[l].isEmpty());
+            }
+            return lanes[l].peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            if (lanes[laneOf(o)].remove(o)) {
+                count--;
+                notFull.signalAll();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of hits waiting in the lane.
+     */
+    int size(HitPriority priority) {
+        lock.lock();
+        try {
+            return lanes[priority.ordinal()].size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        if (capacity == Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        lock.lock();
+        try {
+            int drained = 0;
+            while (count > 0 && drained < maxElements) {
+                c.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Iterates over a snapshot of the queued hits, highest lane first.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        final List<Runnable> snapshot = new ArrayList<Runnable>();
+        lock.lock();
+        try {
+            for (ArrayDeque<Runnable> queued : lanes) {
+                snapshot.addAll(queued);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        final Iterator<Runnable> it = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable last = null;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                last = it.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                PriorityLaneQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the configured {@link QueueOverflowPolicy} when the async executor
+ * queue is full.
+ */
+class QueueOverflowHandler implements RejectedExecutionHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueueOverflowHandler.class);
+
+    private final GoogleAnalytics analytics;
+    private final QueueOverflowPolicy policy;
+    private final long blockTimeout;
+
+    QueueOverflowHandler(GoogleAnalytics analytics, GoogleAnalyticsConfig config) {
+        this.analytics = analytics;
+        this.policy = config.getQueueOverflowPolicy();
+        this.blockTimeout = config.getQueueBlockTimeout();
+    }
+
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            drop(r);
+            return;
+        }
+        //Retries are queued by the scheduler thread, which must neither send them nor wait for room
+        if (analytics.abandonRetry(r)) {
+            return;
+        }
+
+        switch (policy) {
+            case CALLER_RUNS:
+                r.run();
+                break;
+
+            case DROP_OLDEST:
+                BlockingQueue<Runnable> queue = executor.getQueue();
+                if (queue instanceof PriorityLaneQueue) {
+                    Runnable oldest = ((PriorityLaneQueue) queue).pollOldest(r);
+                    if (oldest == null) {
+                        //Queue is full of the hits of higher lanes
+                        drop(r);
+                        break;
+                    }
+                    drop(oldest);
+                } else {
+                    Runnable oldest = queue.poll();
+                    if (oldest != null) {
+                        drop(oldest);
+                    }
+                }
+                executor.execute(r);
+                break;
+
+            case BLOCK:
+                try {
+                    if (!executor.getQueue().offer(r, blockTimeout, TimeUnit.MILLISECONDS)) {
+                        drop(r);
+                    } else if (executor.isShutdown() && executor.getQueue().remove(r)) {
+                        //Shut down while waiting, so no worker may be left to take it
+                        drop(r);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    drop(r);
+                }
+                break;
+
+            default: //DROP_NEWEST
+                drop(r);
+        }
+    }
+
+    private void drop(Runnable r) {
+        drop(analytics, r);
+    }
+
+    /**
+     * Drops the hit (or other runnable) taken out of the executor queue.
+     */
+    static void drop(GoogleAnalytics analytics, Runnable r) {
+        if (r instanceof GoogleAnalytics.QueuedHit) {
+            GoogleAnalytics.QueuedHit queued = (GoogleAnalytics.QueuedHit) r;
+            analytics.dropQueued(queued.hit, queued.future);
+            return;
+        }
+
+        logger.debug("Google Analytics hit queue is full, dropping the hit");
+
+        if (r instanceof Future) {
+            ((Future<?>) r).cancel(false);
+        }
+        analytics.getStats().droppedHit();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+/**
+ * What to do with an asynchronous hit when the queue of hits waiting to be sent is full
+ * (see {@link GoogleAnalyticsConfig#setQueueCapacity(int)}).
+ *
+ * <p>Dropped hits are counted in {@link GoogleAnalyticsStats#getDroppedHits()} and the
+ * <code>Future</code> returned for them is cancelled.
+ */
+public enum QueueOverflowPolicy {
+	/**
+	 * Hit being posted is dropped and queued hits are kept.
+	 */
+	DROP_NEWEST,
+
+	/**
+	 * Oldest queued hit is dropped to make room for the hit being posted.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * Posting thread waits for room in the queue up to {@link GoogleAnalyticsConfig#getQueueBlockTimeout()}
+	 * milliseconds, after which the hit being posted is dropped.
+	 */
+	BLOCK,
+
+	/**
+	 * Hit is sent synchronously by the posting thread.
+	 */
+	CALLER_RUNS
+}
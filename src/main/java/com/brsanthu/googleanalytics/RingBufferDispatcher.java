@@ -0,0 +1,268 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Multi producer, single consumer queue of async hits (see
+ * {@link DispatchMode#RING_BUFFER}).
+ *
+ * <p>Slots are preallocated. Each slot has a sequence number which tells
+ * whether it is free for the producer at a given position or holds a hit for
+ * the consumer at that position. A producer claims a slot with a single
+ * compare-and-set of the tail and publishes the hit by advancing the sequence
+ * of the slot, so enqueue neither locks nor allocates. Consumer drains all the
+ * published hits in order and parks only when the buffer is empty.
+ *
+ * <p>Producers count themselves in before they check whether the dispatcher
+ * is closed, and out once the hit is published or dropped. Once closed, the
+ * consumer exits only when no producer is in and the buffer is empty, so a
+ * producer which got past the check just before close is not left with a
+ * hit in a slot nobody drains.
+ */
+class RingBufferDispatcher implements HitDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(RingBufferDispatcher.class);
+
+    /** Capacity used when queue capacity is not bounded. */
+    static final int DEFAULT_CAPACITY = 65536;
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    /** Longest the consumer parks without checking the buffer, in case a wake up is missed. */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final GoogleAnalytics analytics;
+    private final QueueOverflowPolicy policy;
+    private final long blockTimeout;
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final Object[] hits;
+    private final GoogleAnalyticsFuture[] futures;
+
+    private final AtomicLong tail = new AtomicLong();
+    /** Producers in {@link #dispatch(Object, GoogleAnalyticsFuture)}. */
+    private final AtomicInteger producers = new AtomicInteger();
+    /** Only read and written by the consumer. */
+    private long head = 0;
+
+    private final Thread consumer;
+    private volatile boolean waiting = false;
+    private volatile boolean closed = false;
+    /** Set once the close deadline passes, so the hits left are spilled instead of posted. */
+    private volatile boolean abandoned = false;
+
+    RingBufferDispatcher(GoogleAnalytics analytics, GoogleAnalyticsConfig config) {
+        this.analytics = analytics;
+        this.policy = config.getQueueOverflowPolicy();
+        this.blockTimeout = config.getQueueBlockTimeout();
+
+        int capacity = capacity(config.getQueueCapacity());
+        mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        hits = new Object[capacity];
+        futures = new GoogleAnalyticsFuture[capacity];
+
+        consumer = analytics.createThreadFactory().newThread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        });
+        consumer.start();
+    }
+
+    /**
+     * @return the queue capacity rounded up to power of two, at least two.
+     */
+    static int capacity(int queueCapacity) {
+        if (queueCapacity <= 0) {
+            return DEFAULT_CAPACITY;
+        }
+        if (queueCapacity <= 2) {
+            //With single slot, sequence of a published hit is same as of the free slot of next lap
+            return 2;
+        }
+        if (queueCapacity >= MAX_CAPACITY) {
+            return MAX_CAPACITY;
+        }
+        int capacity = Integer.highestOneBit(queueCapacity);
+        return capacity == queueCapacity ? capacity : capacity << 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public void dispatch(Object hit, GoogleAnalyticsFuture future) {
+        producers.incrementAndGet();
+        try {
+            dispatchHit(hit, future);
+        } finally {
+            producers.decrementAndGet();
+        }
+    }
+
+    private void dispatchHit(Object hit, GoogleAnalyticsFuture future) {
+        if (closed) {
+            analytics.dropQueued(hit, future);
+            return;
+        }
+
+        if (offer(hit, future)) {
+            return;
+        }
+
+        switch (policy) {
+            case CALLER_RUNS:
+                analytics.postQueued(hit, future);
+                break;
+
+            case BLOCK:
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+                while (!offer(hit, future)) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || closed || Thread.currentThread().isInterrupted()) {
+                        analytics.dropQueued(hit, future);
+                        return;
+                    }
+                    LockSupport.parkNanos(this, Math.min(remaining, MAX_PARK_NANOS));
+                }
+                break;
+
+            default: //DROP_NEWEST, DROP_OLDEST
+                analytics.dropQueued(hit, future);
+        }
+    }
+
+    private boolean offer(Object hit, GoogleAnalyticsFuture future) {
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) position & mask;
+            long available = sequences.get(index) - position;
+            if (available < 0) {
+                //Consumer has not taken the hit a whole lap ago yet
+                return false;
+            }
+            if (available == 0 && tail.compareAndSet(position, position + 1)) {
+                break;
+            }
+        }
+
+        hits[index] = hit;
+        futures[index] = future;
+        sequences.set(index, position + 1);
+
+        if (waiting) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    private void consume() {
+        while (true) {
+            if (drain() > 0) {
+                continue;
+            }
+            if (closed) {
+                //Waits for the producers which got in before close to publish or drop their hits
+                boolean producing = producers.get() > 0;
+                if (drain() == 0) {
+                    if (!producing && head == tail.get()) {
+                        return;
+                    }
+                    Thread.yield();
+                }
+                continue;
+            }
+
+            waiting = true;
+            if (!isPublished(head)) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+            }
+            waiting = false;
+        }
+    }
+
+    private boolean isPublished(long position) {
+        return sequences.get((int) position & mask) == position + 1;
+    }
+
+    /**
+     * Posts all the hits published so far.
+     *
+     * @return number of hits taken.
+     */
+    private int drain() {
+        int count = 0;
+        while (isPublished(head)) {
+            int index = (int) head & mask;
+            Object hit = hits[index];
+            GoogleAnalyticsFuture future = futures[index];
+            hits[index] = null;
+            futures[index] = null;
+            //Frees the slot for the producers of the next lap
+            sequences.set(index, head + mask + 1);
+            head++;
+            count++;
+
+            if (abandoned) {
+                analytics.spillQueued(hit, future);
+            } else {
+                analytics.postQueued(hit, future);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Consumer keeps posting the hits until the deadline. If it is still
+     * running then, it spills the rest once the hit being posted is done,
+     * which is not waited for.
+     */
+    @Override
+    public boolean close(long deadline) {
+        closed = true;
+        LockSupport.unpark(consumer);
+        try {
+            long remaining;
+            while (consumer.isAlive() && (remaining = deadline - System.nanoTime()) > 0) {
+                consumer.join(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (consumer.isAlive()) {
+            abandoned = true;
+            return false;
+        }
+        return true;
+    }
+}
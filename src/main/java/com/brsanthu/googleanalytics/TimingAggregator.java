@@ -0,0 +1,306 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import static com.brsanthu.googleanalytics.GoogleAnalyticsParameter.USER_TIMING_CATEGORY;
+import static com.brsanthu.googleanalytics.GoogleAnalyticsParameter.USER_TIMING_LABEL;
+import static com.brsanthu.googleanalytics.GoogleAnalyticsParameter.USER_TIMING_TIME;
+import static com.brsanthu.googleanalytics.GoogleAnalyticsParameter.USER_TIMING_VARIABLE_NAME;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records the user timings of same tracking id, category, variable and label
+ * into a histogram, and sends a timing hit per configured percentile of it
+ * once per flush (see {@link GoogleAnalyticsConfig#setTimingAggregationEnabled(boolean)}).
+ *
+ * <p>Histograms are log-linear: times below 16 ms have a bucket each, and
+ * every power of two above is split into 16 buckets, so a percentile is off
+ * by less than 1/16 of it. Buckets are plain counters, so recording a time
+ * is an increment under the lock of its stripe. Histograms are kept in
+ * stripes, same as the rollups of {@link EventAggregator}, with the least
+ * recently updated one sent early once its stripe is full.
+ */
+class TimingAggregator {
+
+    private static final int STRIPES = 16;
+
+    private final GoogleAnalytics analytics;
+    private final double[] percentiles;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    TimingAggregator(GoogleAnalytics analytics, GoogleAnalyticsConfig config) {
+        this.analytics = analytics;
+        this.percentiles = config.getTimingAggregationPercentiles().clone();
+        int capacity = Math.max(1, config.getMaxAggregatedTimings() / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(capacity);
+        }
+    }
+
+    /**
+     * Records the user timing time of the hit into the histogram of its key.
+     * Other parameters of the hits sent for the histogram, like client id,
+     * are of the first timing recorded into it.
+     *
+     * @param trackingId tracking id of the timing, or the default one.
+     * @param clientId client id of the timing, or the default one.
+     * @return false if the hit has no user timing time, so is not recorded.
+     */
+    boolean add(GoogleAnalyticsRequest<?> timing, String trackingId, String clientId) {
+        Integer time = timing.getInteger(USER_TIMING_TIME);
+        if (time == null) {
+            return false;
+        }
+
+        Key key = new Key(trackingId, timing.getString(USER_TIMING_CATEGORY), timing.getString(USER_TIMING_VARIABLE_NAME),
+                timing.getString(USER_TIMING_LABEL));
+        long now = System.currentTimeMillis();
+
+        Stripe stripe = stripes[key.hash & (STRIPES - 1)];
+        Histogram evicted = null;
+        synchronized (stripe) {
+            Histogram histogram = stripe.histograms.get(key);
+            if (histogram == null) {
+                if (stripe.histograms.size() >= stripe.capacity) {
+                    Iterator<Histogram> eldest = stripe.histograms.values().iterator();
+                    evicted = eldest.next();
+                    eldest.remove();
+                }
+                histogram = new Histogram(timing, trackingId, clientId, now);
+                stripe.histograms.put(key, histogram);
+            }
+            histogram.record(time);
+        }
+
+        if (evicted != null) {
+            send(evicted, now);
+        }
+        return true;
+    }
+
+    /**
+     * Sends the hits of all the histograms and starts new ones.
+     *
+     * @return number of hits sent.
+     */
+    int flush() {
+        long now = System.currentTimeMillis();
+        int sent = 0;
+        for (Stripe stripe : stripes) {
+            Map<Key, Histogram> histograms;
+            synchronized (stripe) {
+                if (stripe.histograms.isEmpty()) {
+                    continue;
+                }
+                histograms = stripe.histograms;
+                stripe.histograms = Stripe.newHistograms();
+            }
+
+            for (Histogram histogram : histograms.values()) {
+                sent += send(histogram, now);
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Sends a timing hit per percentile of the histogram, labelled with the
+     * percentile, like <code>p99</code> or <code>label p99</code>.
+     */
+    private int send(Histogram histogram, long now) {
+        String label = histogram.template.userTimingLabel();
+        Integer queueTime = histogram.template.queueTime();
+        long millis = (queueTime == null ? 0 : queueTime) + Math.max(0, now - histogram.first);
+
+        for (double percentile : percentiles) {
+            TimingHit hit = copy(histogram.template);
+            String name = "p" + format(percentile);
+            hit.userTimingLabel(label == null ? name : label + " " + name);
+            hit.userTimingTime((int) histogram.percentile(percentile));
+            hit.queueTime((int) Math.min(Integer.MAX_VALUE, millis));
+            analytics.sendAggregated(hit);
+        }
+        return percentiles.length;
+    }
+
+    private static String format(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+
+    private static TimingHit copy(GoogleAnalyticsRequest<?> timing) {
+        TimingHit hit = new TimingHit();
+        hit.getParameters().putAll(timing.getParameters());
+        hit.customDimentions().putAll(timing.customDimentions());
+        hit.custommMetrics().putAll(timing.custommMetrics());
+        return hit;
+    }
+
+    /**
+     * @return number of histograms not sent yet.
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.histograms.size();
+            }
+        }
+        return size;
+    }
+
+    private static final class Stripe {
+        final int capacity;
+        /** In access order, so the eldest is the least recently updated. */
+        Map<Key, Histogram> histograms = newHistograms();
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+        }
+
+        static Map<Key, Histogram> newHistograms() {
+            return new LinkedHashMap<Key, Histogram>(16, 0.75f, true);
+        }
+    }
+
+    private static final class Key {
+        final String trackingId;
+        final String category;
+        final String variable;
+        final String label;
+        final int hash;
+
+        Key(String trackingId, String category, String variable, String label) {
+            this.trackingId = trackingId;
+            this.category = category;
+            this.variable = variable;
+            this.label = label;
+
+            int h = 1;
+            h = 31 * h + hashCode(trackingId);
+            h = 31 * h + hashCode(category);
+            h = 31 * h + hashCode(variable);
+            h = 31 * h + hashCode(label);
+            //Spreads the high bits to the low ones picking the stripe
+            this.hash = h ^ (h >>> 16);
+        }
+
+        private static int hashCode(String s) {
+            return s == null ? 0 : s.hashCode();
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && equal(trackingId, other.trackingId) && equal(category, other.category)
+                    && equal(variable, other.variable) && equal(label, other.label);
+        }
+    }
+
+    /**
+     * Log-linear histogram of the times in milliseconds.
+     */
+    static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        /** Enough buckets for any int time. */
+        private static final int BUCKETS = bucket(Integer.MAX_VALUE) + 1;
+
+        /** Copy of the first timing, so the caller is free to change or reuse it. */
+        final TimingHit template;
+        final long first;
+        private final long[] counts = new long[BUCKETS];
+        private long count = 0;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+
+        Histogram(GoogleAnalyticsRequest<?> timing, String trackingId, String clientId, long first) {
+            this.template = copy(timing);
+            template.trackingId(trackingId);
+            template.clientId(clientId);
+            this.first = first;
+        }
+
+        /**
+         * @return index of the bucket of the time.
+         */
+        static int bucket(long time) {
+            if (time < SUB_BUCKETS) {
+                return (int) Math.max(0, time);
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(time);
+            int subBucket = (int) (time >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * @return the middle of the times of the bucket.
+         */
+        static long value(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lowest + ((1L << shift) - 1) / 2;
+        }
+
+        void record(long time) {
+            time = Math.max(0, time);
+            counts[bucket(time)]++;
+            count++;
+            min = Math.min(min, time);
+            max = Math.max(max, time);
+        }
+
+        long count() {
+            return count;
+        }
+
+        /**
+         * @param percentile between 0 and 100.
+         * @return the time below which the percentile of the times are, within
+         *         the precision of the buckets, and never outside the recorded
+         *         times.
+         */
+        long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.max(min, Math.min(max, value(i)));
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -152,6 +152,14 @@ public class TimingHit extends GoogleAnalyticsRequest<TimingHit> {
 		setInteger(USER_TIMING_TIME, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #userTimingTime(Integer)}, without boxing the value.
+	 */
+	public TimingHit userTimingTime(int value) {
+		setInteger(USER_TIMING_TIME, value);
+	   	return this;
+	}
 	public Integer userTimingTime() {
 		return getInteger(USER_TIMING_TIME);
 	}
@@ -232,6 +240,14 @@ public class TimingHit extends GoogleAnalyticsRequest<TimingHit> {
 		setInteger(PAGE_LOAD_TIME, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #pageLoadTime(Integer)}, without boxing the value.
+	 */
+	public TimingHit pageLoadTime(int value) {
+		setInteger(PAGE_LOAD_TIME, value);
+	   	return this;
+	}
 	public Integer pageLoadTime() {
 		return getInteger(PAGE_LOAD_TIME);
 	}
@@ -272,6 +288,14 @@ public class TimingHit extends GoogleAnalyticsRequest<TimingHit> {
 		setInteger(DNS_TIME, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #dnsTime(Integer)}, without boxing the value.
+	 */
+	public TimingHit dnsTime(int value) {
+		setInteger(DNS_TIME, value);
+	   	return this;
+	}
 	public Integer dnsTime() {
 		return getInteger(DNS_TIME);
 	}
@@ -312,6 +336,14 @@ public class TimingHit extends GoogleAnalyticsRequest<TimingHit> {
 		setInteger(PAGE_DOWNLOAD_TIME, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #pageDownloadTime(Integer)}, without boxing the value.
+	 */
+	public TimingHit pageDownloadTime(int value) {
+		setInteger(PAGE_DOWNLOAD_TIME, value);
+	   	return this;
+	}
 	public Integer pageDownloadTime() {
 		return getInteger(PAGE_DOWNLOAD_TIME);
 	}
@@ -352,6 +384,14 @@ public class TimingHit extends GoogleAnalyticsRequest<TimingHit> {
 		setInteger(REDIRECT_RESPONSE_TIME, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #redirectResponseTime(Integer)}, without boxing the value.
+	 */
+	public TimingHit redirectResponseTime(int value) {
+		setInteger(REDIRECT_RESPONSE_TIME, value);
+	   	return this;
+	}
 	public Integer redirectResponseTime() {
 		return getInteger(REDIRECT_RESPONSE_TIME);
 	}
@@ -392,6 +432,14 @@ public class TimingHit extends GoogleAnalyticsRequest<TimingHit> {
 		setInteger(TCP_CONNECT_TIME, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #tcpConnectTime(Integer)}, without boxing the value.
+	 */
+	public TimingHit tcpConnectTime(int value) {
+		setInteger(TCP_CONNECT_TIME, value);
+	   	return this;
+	}
 	public Integer tcpConnectTime() {
 		return getInteger(TCP_CONNECT_TIME);
 	}
@@ -432,6 +480,14 @@ public class TimingHit extends GoogleAnalyticsRequest<TimingHit> {
 		setInteger(SERVER_RESPONSE_TIME, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #serverResponseTime(Integer)}, without boxing the value.
+	 */
+	public TimingHit serverResponseTime(int value) {
+		setInteger(SERVER_RESPONSE_TIME, value);
+	   	return this;
+	}
 	public Integer serverResponseTime() {
 		return getInteger(SERVER_RESPONSE_TIME);
 	}
@@ -177,6 +177,14 @@ public class TransactionHit extends GoogleAnalyticsRequest<TransactionHit> {
 		setDouble(TRANSACTION_REVENUE, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #txRevenue(Double)}, without boxing the value.
+	 */
+	public TransactionHit txRevenue(double value) {
+		setDouble(TRANSACTION_REVENUE, value);
+	   	return this;
+	}
 	public Double txRevenue() {
 		return getDouble(TRANSACTION_REVENUE);
 	}
@@ -217,6 +225,14 @@ public class TransactionHit extends GoogleAnalyticsRequest<TransactionHit> {
 		setDouble(TRANSACTION_SHIPPING, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #txShipping(Double)}, without boxing the value.
+	 */
+	public TransactionHit txShipping(double value) {
+		setDouble(TRANSACTION_SHIPPING, value);
+	   	return this;
+	}
 	public Double txShipping() {
 		return getDouble(TRANSACTION_SHIPPING);
 	}
@@ -257,6 +273,14 @@ public class TransactionHit extends GoogleAnalyticsRequest<TransactionHit> {
 		setDouble(TRANSACTION_TAX, value);
 	   	return this;
 	}
+
+	/**
+	 * Same as {@link #txTax(Double)}, without boxing the value.
+	 */
+	public TransactionHit txTax(double value) {
+		setDouble(TRANSACTION_TAX, value);
+	   	return this;
+	}
 	public Double txTax() {
 		return getDouble(TRANSACTION_TAX);
 	}
@@ -0,0 +1,27 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+/**
+ * Receives the asynchronous hits which are not going to be sent because GA is being closed (see
+ * {@link GoogleAnalytics#close(long, java.util.concurrent.TimeUnit)}), so they can be stored elsewhere.
+ * <p>
+ * Called by the closing thread, or by the thread which was to send the hit. Any exception thrown is logged and the
+ * hit is counted as dropped.
+ */
+public interface UnsentHitHandler {
+
+	@SuppressWarnings("rawtypes")
+	void unsent(GoogleAnalyticsRequest request);
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Posts each async hit on its own virtual thread (see
+ * {@link DispatchMode#VIRTUAL_THREADS}).
+ *
+ * <p>Virtual threads are created through reflection, as the library is built
+ * for older Java versions. Number of hits being sent at once is limited to
+ * {@link GoogleAnalytics#getDefaultMaxPerRoute(GoogleAnalyticsConfig)}, so
+ * the connection pool of the transport is not exhausted; other hits wait for
+ * a permit on their virtual thread. Hits waiting or being sent are limited to
+ * that plus {@link GoogleAnalyticsConfig#getQueueCapacity()}, beyond which the
+ * {@link QueueOverflowPolicy} applies.
+ */
+class VirtualThreadDispatcher implements HitDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadDispatcher.class);
+
+    private final GoogleAnalytics analytics;
+    private final ExecutorService executor;
+    private final QueueOverflowPolicy policy;
+    private final long blockTimeout;
+    private final int maxSending;
+
+    /** Permits to send a hit. */
+    private final Semaphore sending;
+    /** Permits to queue a hit, or null if queue is not bounded. */
+    private final Semaphore admission;
+
+    private volatile boolean closed = false;
+    /** Set once the close deadline passes, so the hits waiting to be sent are spilled. */
+    private volatile boolean abandoned = false;
+
+    VirtualThreadDispatcher(GoogleAnalytics analytics, GoogleAnalyticsConfig config, ExecutorService executor) {
+        this.analytics = analytics;
+        this.executor = executor;
+        this.policy = config.getQueueOverflowPolicy();
+        this.blockTimeout = config.getQueueBlockTimeout();
+        this.maxSending = Math.max(analytics.getDefaultMaxPerRoute(config), 1);
+        this.sending = new Semaphore(maxSending);
+        this.admission = config.getQueueCapacity() > 0 ? new Semaphore(config.getQueueCapacity() + maxSending) : null;
+    }
+
+    /**
+     * @return executor starting a virtual thread per task, or null if virtual
+     *         threads are not supported by this JVM (before Java 21).
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            logger.debug("Virtual threads are not supported: " + e);
+            return null;
+        }
+    }
+
+    int getMaxSending() {
+        return maxSending;
+    }
+
+    @Override
+    public void dispatch(final Object hit, final GoogleAnalyticsFuture future) {
+        if (closed) {
+            analytics.dropQueued(hit, future);
+            return;
+        }
+
+        if (admission != null && !admission.tryAcquire()) {
+            switch (policy) {
+                case CALLER_RUNS:
+                    analytics.postQueued(hit, future);
+                    return;
+
+                case BLOCK:
+                    try {
+                        if (!admission.tryAcquire(blockTimeout, TimeUnit.MILLISECONDS)) {
+                            analytics.dropQueued(hit, future);
+                            return;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        analytics.dropQueued(hit, future);
+                        return;
+                    }
+                    break;
+
+                default: //DROP_NEWEST, DROP_OLDEST
+                    analytics.dropQueued(hit, future);
+                    return;
+            }
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        try {
+                            sending.acquire();
+                        } catch (InterruptedException e) {
+                            analytics.spillQueued(hit, future);
+                            return;
+                        }
+                        try {
+                            if (abandoned) {
+                                analytics.spillQueued(hit, future);
+                            } else {
+                                analytics.postQueued(hit, future);
+                            }
+                        } finally {
+                            sending.release();
+                        }
+                    } finally {
+                        if (admission != null) {
+                            admission.release();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (admission != null) {
+                admission.release();
+            }
+            analytics.dropQueued(hit, future);
+        }
+    }
+
+    /**
+     * Hits still waiting for a permit at the deadline are interrupted and
+     * spilled. Hits being sent are interrupted as well, which fails them.
+     */
+    @Override
+    public boolean close(long deadline) {
+        closed = true;
+        executor.shutdown();
+        boolean terminated = false;
+        try {
+            terminated = executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!terminated) {
+            abandoned = true;
+            executor.shutdownNow();
+        }
+        return terminated;
+    }
+}
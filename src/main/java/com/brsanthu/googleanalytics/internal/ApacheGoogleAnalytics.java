@@ -19,25 +19,24 @@ import com.brsanthu.googleanalytics.DefaultRequest;
 import static com.brsanthu.googleanalytics.GaUtils.isNotEmpty;
 import com.brsanthu.googleanalytics.GoogleAnalytics;
 import com.brsanthu.googleanalytics.GoogleAnalyticsConfig;
+import com.brsanthu.googleanalytics.GoogleAnalyticsPayload;
 import com.brsanthu.googleanalytics.GoogleAnalyticsResponse;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 import org.apache.http.HttpHost;
-import org.apache.http.NameValuePair;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
-import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 
 /**
@@ -47,6 +46,9 @@ import org.apache.http.util.EntityUtils;
  */
 public class ApacheGoogleAnalytics extends GoogleAnalytics {
 
+    private static final ContentType FORM_CONTENT_TYPE = ContentType.create("application/x-www-form-urlencoded", UTF8);
+    private static final ContentType TEXT_CONTENT_TYPE = ContentType.create("text/plain", UTF8);
+
     private CloseableHttpClient httpClient = null;
 
     public ApacheGoogleAnalytics(String trackingId) {
@@ -82,9 +84,7 @@ public class ApacheGoogleAnalytics extends GoogleAnalytics {
     }
 
     @Override
-    public void close() {
-        super.close();
-
+    protected void closeClient() {
         try {
             httpClient.close();
         } catch (IOException e) {
@@ -101,6 +101,11 @@ public class ApacheGoogleAnalytics extends GoogleAnalytics {
         HttpClientBuilder builder = HttpClients.custom().setConnectionManager(
                 connManager);
 
+        builder.setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(config.getConnectTimeout())
+                .setSocketTimeout(config.getReadTimeout())
+                .build());
+
         if (isNotEmpty(config.getUserAgent())) {
             builder.setUserAgent(config.getUserAgent());
         }
@@ -126,17 +131,34 @@ public class ApacheGoogleAnalytics extends GoogleAnalytics {
     @Override
     protected void sendRequest(GoogleAnalyticsResponse response,
             Map<String, String> postParms) throws IOException {
+        sendPayload(response, urlEncode(postParms));
+        response.setPostedParms(postParms);
+    }
+
+    @Override
+    protected void sendPayload(GoogleAnalyticsResponse response,
+            GoogleAnalyticsPayload payload) throws IOException {
+        response.setStatusCode(post(config.getUrl(), FORM_CONTENT_TYPE, payload));
+    }
+
+    @Override
+    protected void sendBatchPayload(GoogleAnalyticsResponse response,
+            GoogleAnalyticsPayload payload) throws IOException {
+        response.setStatusCode(post(config.getBatchUrl(), TEXT_CONTENT_TYPE, payload));
+    }
+
+    private int post(String url, ContentType contentType,
+            GoogleAnalyticsPayload payload) throws IOException {
         CloseableHttpResponse httpResponse = null;
         try {
-            HttpPost httpPost = new HttpPost(config.getUrl());
-            httpPost.setEntity(new UrlEncodedFormEntity(
-                    convertNameValuePair(postParms), UTF8));
+            HttpPost httpPost = new HttpPost(url);
+            httpPost.setEntity(new ByteArrayEntity(payload.array(), 0,
+                    payload.length(), contentType));
 
             httpResponse = (CloseableHttpResponse) httpClient.execute(httpPost);
-            response.setStatusCode(httpResponse.getStatusLine().getStatusCode());
-            response.setPostedParms(postParms);
-
             EntityUtils.consumeQuietly(httpResponse.getEntity());
+
+            return httpResponse.getStatusLine().getStatusCode();
         } finally {
             if (httpResponse != null) {
                 httpResponse.close();
@@ -144,16 +166,4 @@ public class ApacheGoogleAnalytics extends GoogleAnalytics {
         }
     }
 
-    private List<NameValuePair> convertNameValuePair(Map<String, String> postParms) {
-        List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(
-                postParms.size());
-
-        for (Map.Entry<String, String> entry : postParms.entrySet()) {
-            nameValuePairs.add(new BasicNameValuePair(
-                    entry.getKey(), entry.getValue()));
-        }
-
-        return nameValuePairs;
-    }
-
 }
@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics.internal;
+
+import com.brsanthu.googleanalytics.DefaultRequest;
+import com.brsanthu.googleanalytics.GoogleAnalytics;
+import com.brsanthu.googleanalytics.GoogleAnalyticsConfig;
+import com.brsanthu.googleanalytics.GoogleAnalyticsPayload;
+import com.brsanthu.googleanalytics.GoogleAnalyticsResponse;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Map;
+
+/**
+ * Implementation for using <code>java.net.http.HttpClient</code>, which is
+ * available from Java 11 onwards.
+ * <p>
+ * This is the version used on older Java versions, which sends the hits with
+ * {@link HttpURLConnection}, same as {@link JdkGoogleAnalytics}. The
+ * <code>HttpClient</code> version is packaged as multi-release class under
+ * <code>META-INF/versions/11</code> and is picked up automatically on Java
+ * 11+. Both versions have the same public and protected methods.
+ * {@link #isSupported()} tells which one is loaded.
+ */
+public class HttpClientGoogleAnalytics extends GoogleAnalytics {
+
+    private UrlConnectionSender sender;
+
+    public HttpClientGoogleAnalytics(String trackingId) {
+        super(trackingId);
+    }
+
+    public HttpClientGoogleAnalytics(GoogleAnalyticsConfig config,
+            String trackingId) {
+        super(config, trackingId);
+    }
+
+    public HttpClientGoogleAnalytics(String trackingId, String appName,
+            String appVersion) {
+        super(trackingId, appName, appVersion);
+    }
+
+    public HttpClientGoogleAnalytics(GoogleAnalyticsConfig config,
+            String trackingId, String appName, String appVersion) {
+        super(config, trackingId, appName, appVersion);
+    }
+
+    public HttpClientGoogleAnalytics(GoogleAnalyticsConfig config,
+            DefaultRequest defaultRequest) {
+        super(config, defaultRequest);
+    }
+
+    /**
+     * @return true if this class is the Java 11 implementation, using
+     *         <code>java.net.http.HttpClient</code>.
+     */
+    public static boolean isSupported() {
+        return false;
+    }
+
+    @Override
+    protected void createClient() {
+        sender = new UrlConnectionSender(config);
+    }
+
+    @Override
+    protected void sendRequest(GoogleAnalyticsResponse response,
+            Map<String, String> postParms) throws IOException {
+        sendPayload(response, urlEncode(postParms));
+        response.setPostedParms(postParms);
+    }
+
+    @Override
+    protected void sendPayload(GoogleAnalyticsResponse response,
+            GoogleAnalyticsPayload payload) throws IOException {
+        response.setStatusCode(sender.post(config.getUrl(), UrlConnectionSender.FORM_CONTENT_TYPE, payload));
+    }
+
+    @Override
+    protected void sendBatchPayload(GoogleAnalyticsResponse response,
+            GoogleAnalyticsPayload payload) throws IOException {
+        response.setStatusCode(sender.post(config.getBatchUrl(), UrlConnectionSender.TEXT_CONTENT_TYPE, payload));
+    }
+}
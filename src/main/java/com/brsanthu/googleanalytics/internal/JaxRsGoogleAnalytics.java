@@ -18,7 +18,9 @@ package com.brsanthu.googleanalytics.internal;
 import com.brsanthu.googleanalytics.DefaultRequest;
 import com.brsanthu.googleanalytics.GoogleAnalytics;
 import com.brsanthu.googleanalytics.GoogleAnalyticsConfig;
+import com.brsanthu.googleanalytics.GoogleAnalyticsPayload;
 import com.brsanthu.googleanalytics.GoogleAnalyticsResponse;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.Map;
 import javax.ws.rs.client.Client;
@@ -28,8 +30,7 @@ import javax.ws.rs.client.ClientRequestFilter;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.HttpHeaders;
-import javax.ws.rs.core.MultivaluedHashMap;
-import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 /**
@@ -40,6 +41,9 @@ import javax.ws.rs.core.Response;
  */
 public class JaxRsGoogleAnalytics extends GoogleAnalytics {
 
+    private static final MediaType FORM_MEDIA_TYPE = MediaType.APPLICATION_FORM_URLENCODED_TYPE.withCharset("UTF-8");
+    private static final MediaType TEXT_MEDIA_TYPE = MediaType.TEXT_PLAIN_TYPE.withCharset("UTF-8");
+
     private Client client;
 
     public JaxRsGoogleAnalytics(String trackingId) {
@@ -82,16 +86,33 @@ public class JaxRsGoogleAnalytics extends GoogleAnalytics {
     @Override
     protected void sendRequest(GoogleAnalyticsResponse response,
             Map<String, String> postParms) throws IOException {
+        sendPayload(response, urlEncode(postParms));
+        response.setPostedParms(postParms);
+    }
+
+    @Override
+    protected void sendPayload(GoogleAnalyticsResponse response,
+            GoogleAnalyticsPayload payload) throws IOException {
+        response.setStatusCode(post(config.getUrl(), FORM_MEDIA_TYPE, payload));
+    }
+
+    @Override
+    protected void sendBatchPayload(GoogleAnalyticsResponse response,
+            GoogleAnalyticsPayload payload) throws IOException {
+        response.setStatusCode(post(config.getBatchUrl(), TEXT_MEDIA_TYPE, payload));
+    }
+
+    private int post(String url, MediaType mediaType,
+            GoogleAnalyticsPayload payload) throws IOException {
         Response postResponse = null;
         try {
-            WebTarget target = this.client.target(config.getUrl());
-            postResponse = target.request().post(Entity.form(
-                    convertMultiValueMap(postParms)));
-
-            response.setStatusCode(postResponse.getStatus());
-            response.setPostedParms(postParms);
+            WebTarget target = this.client.target(url);
+            postResponse = target.request().post(Entity.entity(
+                    new ByteArrayInputStream(payload.array(), 0, payload.length()),
+                    mediaType));
 
             postResponse.bufferEntity();
+            return postResponse.getStatus();
         } finally {
             if (postResponse != null) {
                 postResponse.close();
@@ -100,21 +121,8 @@ public class JaxRsGoogleAnalytics extends GoogleAnalytics {
     }
 
     @Override
-    public void close() {
-        super.close();
+    protected void closeClient() {
         this.client.close();
     }
 
-    private MultivaluedMap<String, String> convertMultiValueMap(
-            Map<String, String> postParms) {
-        MultivaluedMap<String, String> multivaluedMap
-                = new MultivaluedHashMap<String, String>(postParms.size());
-
-        for (Map.Entry<String, String> entry : postParms.entrySet()) {
-            multivaluedMap.putSingle(entry.getKey(), entry.getValue());
-        }
-
-        return multivaluedMap;
-    }
-
 }
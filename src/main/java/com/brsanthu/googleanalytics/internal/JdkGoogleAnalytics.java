@@ -18,6 +18,7 @@ package com.brsanthu.googleanalytics.internal;
 import com.brsanthu.googleanalytics.DefaultRequest;
 import com.brsanthu.googleanalytics.GoogleAnalytics;
 import com.brsanthu.googleanalytics.GoogleAnalyticsConfig;
+import com.brsanthu.googleanalytics.GoogleAnalyticsPayload;
 import com.brsanthu.googleanalytics.GoogleAnalyticsResponse;
 import java.io.IOException;
 import java.net.HttpURLConnection;
@@ -25,43 +26,65 @@ import java.util.Map;
 
 /**
  * Implementation for using native JDK {@link HttpURLConnection}
+ * <p>
+ * Connections are kept alive and reused by the JDK as long as the response
+ * body is read fully and the stream is closed, which is done for every
+ * request, including the failed ones. Number of idle connections kept per
+ * host is controlled by <code>http.maxConnections</code> system property
+ * (default 5), which should be at least
+ * {@link GoogleAnalyticsConfig#getMaxThreads()}.
  *
  * @author Renato
  */
 public class JdkGoogleAnalytics extends GoogleAnalytics {
 
+    private UrlConnectionSender sender;
+
     public JdkGoogleAnalytics(String trackingId) {
         super(trackingId);
     }
 
-    public JdkGoogleAnalytics(GoogleAnalyticsConfig config, 
+    public JdkGoogleAnalytics(GoogleAnalyticsConfig config,
             String trackingId) {
         super(config, trackingId);
     }
 
-    public JdkGoogleAnalytics(String trackingId, String appName, 
+    public JdkGoogleAnalytics(String trackingId, String appName,
             String appVersion) {
         super(trackingId, appName, appVersion);
     }
 
-    public JdkGoogleAnalytics(GoogleAnalyticsConfig config, String trackingId, 
+    public JdkGoogleAnalytics(GoogleAnalyticsConfig config, String trackingId,
             String appName, String appVersion) {
         super(config, trackingId, appName, appVersion);
     }
 
-    public JdkGoogleAnalytics(GoogleAnalyticsConfig config, 
+    public JdkGoogleAnalytics(GoogleAnalyticsConfig config,
             DefaultRequest defaultRequest) {
         super(config, defaultRequest);
     }
 
     @Override
-    protected void sendRequest(GoogleAnalyticsResponse response, Map<String, String> postParms) throws IOException {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    protected void createClient() {
+        sender = new UrlConnectionSender(config);
     }
 
     @Override
-    protected void createClient() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    protected void sendRequest(GoogleAnalyticsResponse response,
+            Map<String, String> postParms) throws IOException {
+        sendPayload(response, urlEncode(postParms));
+        response.setPostedParms(postParms);
+    }
+
+    @Override
+    protected void sendPayload(GoogleAnalyticsResponse response,
+            GoogleAnalyticsPayload payload) throws IOException {
+        response.setStatusCode(sender.post(config.getUrl(), UrlConnectionSender.FORM_CONTENT_TYPE, payload));
     }
 
+    @Override
+    protected void sendBatchPayload(GoogleAnalyticsResponse response,
+            GoogleAnalyticsPayload payload) throws IOException {
+        response.setStatusCode(sender.post(config.getBatchUrl(), UrlConnectionSender.TEXT_CONTENT_TYPE, payload));
+    }
 }
@@ -0,0 +1,211 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics.internal;
+
+import static com.brsanthu.googleanalytics.GaUtils.isNotEmpty;
+
+import com.brsanthu.googleanalytics.GoogleAnalyticsConfig;
+import com.brsanthu.googleanalytics.GoogleAnalyticsPayload;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.Authenticator;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.charset.Charset;
+
+/**
+ * Posts the payloads with {@link HttpURLConnection}, for
+ * {@link JdkGoogleAnalytics} and for {@link HttpClientGoogleAnalytics} on
+ * Java versions without <code>java.net.http.HttpClient</code>.
+ * <p>
+ * Proxy credentials are sent up front for http urls. For https urls, the JDK
+ * authenticates the <code>CONNECT</code> tunnel itself, asking the
+ * {@link Authenticator} set on the connection once the proxy responds with
+ * 407. That needs <code>HttpURLConnection.setAuthenticator</code>, so https
+ * urls are sent through an authenticating proxy only on Java 9 and later.
+ * The default authenticator is not touched, as it is global to the JVM. Note
+ * that the JDK does not use Basic authentication for tunnels unless the system
+ * property <code>jdk.http.auth.tunneling.disabledSchemes</code> is set to a
+ * value without <code>Basic</code> (such as <code>""</code>) when the JVM
+ * starts.
+ */
+final class UrlConnectionSender {
+
+    static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded; charset=UTF-8";
+    static final String TEXT_CONTENT_TYPE = "text/plain; charset=UTF-8";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** <code>HttpURLConnection.setAuthenticator</code>, which is there since Java 9. */
+    private static final Method SET_AUTHENTICATOR = setAuthenticatorMethod();
+
+    private final GoogleAnalyticsConfig config;
+    private Proxy proxy = Proxy.NO_PROXY;
+    private String proxyAuthorization = null;
+    private Authenticator proxyAuthenticator = null;
+
+    UrlConnectionSender(GoogleAnalyticsConfig config) {
+        this.config = config;
+
+        if (isNotEmpty(config.getProxyHost())) {
+            proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(
+                    config.getProxyHost(), config.getProxyPort()));
+
+            if (isNotEmpty(config.getProxyUserName())) {
+                String credentials = config.getProxyUserName() + ":"
+                        + (config.getProxyPassword() == null ? "" : config.getProxyPassword());
+                proxyAuthorization = "Basic " + base64(credentials.getBytes(UTF8));
+
+                if (SET_AUTHENTICATOR != null) {
+                    proxyAuthenticator = new ProxyAuthenticator(config.getProxyHost(), config.getProxyPort(),
+                            new PasswordAuthentication(config.getProxyUserName(), config.getProxyPassword() == null
+                                    ? new char[0] : config.getProxyPassword().toCharArray()));
+                }
+            }
+        }
+    }
+
+    private static Method setAuthenticatorMethod() {
+        try {
+            return HttpURLConnection.class.getMethod("setAuthenticator", Authenticator.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    Authenticator getProxyAuthenticator() {
+        return proxyAuthenticator;
+    }
+
+    /**
+     * @return the status code of the response.
+     */
+    int post(String url, String contentType, GoogleAnalyticsPayload payload) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection(proxy);
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setUseCaches(false);
+            connection.setConnectTimeout(config.getConnectTimeout());
+            connection.setReadTimeout(config.getReadTimeout());
+            connection.setFixedLengthStreamingMode(payload.length());
+            connection.setRequestProperty("Content-Type", contentType);
+
+            if (isNotEmpty(config.getUserAgent())) {
+                connection.setRequestProperty("User-Agent", config.getUserAgent());
+            }
+            if (proxyAuthenticator != null) {
+                setAuthenticator(connection);
+            }
+            //Sent to the target server through the tunnel for https, so only for http
+            if (proxyAuthorization != null && "http".equalsIgnoreCase(connection.getURL().getProtocol())) {
+                connection.setRequestProperty("Proxy-Authorization", proxyAuthorization);
+            }
+
+            OutputStream out = connection.getOutputStream();
+            try {
+                payload.writeTo(out);
+            } finally {
+                out.close();
+            }
+
+            int statusCode = connection.getResponseCode();
+            drain(statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream());
+            return statusCode;
+
+        } catch (IOException e) {
+            //Error stream must be consumed as well, otherwise connection is not reused
+            try {
+                drain(connection.getErrorStream());
+            } catch (IOException ignore) {
+                //ignore
+            }
+            throw e;
+        }
+    }
+
+    private void setAuthenticator(HttpURLConnection connection) throws IOException {
+        try {
+            SET_AUTHENTICATOR.invoke(connection, proxyAuthenticator);
+        } catch (Exception e) {
+            throw new IOException("Could not set the proxy authenticator", e);
+        }
+    }
+
+    /**
+     * Reads the stream fully and closes it, which returns the underlying
+     * connection to the JDK keep-alive cache.
+     */
+    private void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+
+        try {
+            byte[] buffer = new byte[512];
+            while (in.read(buffer) != -1) {
+                //discard
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Answers only the requests of the configured proxy, so the credentials
+     * are not handed to the target server.
+     */
+    private static final class ProxyAuthenticator extends Authenticator {
+        private final String host;
+        private final int port;
+        private final PasswordAuthentication credentials;
+
+        ProxyAuthenticator(String host, int port, PasswordAuthentication credentials) {
+            this.host = host;
+            this.port = port;
+            this.credentials = credentials;
+        }
+
+        @Override
+        protected PasswordAuthentication getPasswordAuthentication() {
+            if (getRequestorType() == RequestorType.PROXY && host.equalsIgnoreCase(getRequestingHost())
+                    && port == getRequestingPort()) {
+                return credentials;
+            }
+            return null;
+        }
+    }
+
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    static String base64(byte[] bytes) {
+        StringBuilder sb = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int b0 = bytes[i] & 0xff;
+            int b1 = i + 1 < bytes.length ? bytes[i + 1] & 0xff : 0;
+            int b2 = i + 2 < bytes.length ? bytes[i + 2] & 0xff : 0;
+
+            sb.append(BASE64[b0 >> 2]);
+            sb.append(BASE64[((b0 & 0x03) << 4) | (b1 >> 4)]);
+            sb.append(i + 1 < bytes.length ? BASE64[((b1 & 0x0f) << 2) | (b2 >> 6)] : '=');
+            sb.append(i + 2 < bytes.length ? BASE64[b2 & 0x3f] : '=');
+        }
+        return sb.toString();
+    }
+}
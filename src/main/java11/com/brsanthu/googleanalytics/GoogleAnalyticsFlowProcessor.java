@@ -0,0 +1,108 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link Flow.Processor} posting the requests published to it, pulling the
+ * next request only when a request being posted is done (see
+ * {@link GoogleAnalyticsSink}), and publishing the responses of the posted
+ * requests, so the same pipeline can react to them. Created by
+ * {@link GoogleAnalytics#newFlowProcessor(int)}.
+ *
+ * <p>Responses are buffered per subscriber and dropped if a subscriber falls
+ * too far behind, so a slow subscriber does not hold up posting. Requests
+ * which could not be posted are only logged. Responses complete once all the
+ * requests are posted.
+ */
+final class GoogleAnalyticsFlowProcessor implements Flow.Processor<GoogleAnalyticsRequest<?>, GoogleAnalyticsResponse> {
+
+    private static final Logger logger = LoggerFactory.getLogger(GoogleAnalyticsFlowProcessor.class);
+
+    private final SubmissionPublisher<GoogleAnalyticsResponse> responses = new SubmissionPublisher<>();
+    private final GoogleAnalyticsSink sink;
+
+    private GoogleAnalyticsFlowProcessor(GoogleAnalytics analytics, int maxInFlight) {
+        this.sink = new ResponseSink(analytics, maxInFlight);
+    }
+
+    static Object create(GoogleAnalytics analytics, int maxInFlight) {
+        return new GoogleAnalyticsFlowProcessor(analytics, maxInFlight);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super GoogleAnalyticsResponse> subscriber) {
+        responses.subscribe(subscriber);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        sink.onSubscribe(new GoogleAnalyticsSink.Upstream() {
+            @Override
+            public void request(long count) {
+                subscription.request(count);
+            }
+
+            @Override
+            public void cancel() {
+                subscription.cancel();
+            }
+        });
+    }
+
+    @Override
+    public void onNext(GoogleAnalyticsRequest<?> request) {
+        sink.onNext(request);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        sink.onError(error);
+    }
+
+    @Override
+    public void onComplete() {
+        sink.onComplete();
+    }
+
+    private class ResponseSink extends GoogleAnalyticsSink {
+
+        ResponseSink(GoogleAnalytics analytics, int maxInFlight) {
+            super(analytics, maxInFlight);
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        protected void onResponse(GoogleAnalyticsRequest request, GoogleAnalyticsResponse response) {
+            responses.offer(response, (subscriber, dropped) -> {
+                logger.debug("Response subscriber " + subscriber + " is behind, dropping the response");
+                return false;
+            });
+        }
+
+        @Override
+        protected void onDone(Throwable error) {
+            if (error == null) {
+                responses.close();
+            } else {
+                responses.closeExceptionally(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics.internal;
+
+import static com.brsanthu.googleanalytics.GaUtils.isNotEmpty;
+
+import com.brsanthu.googleanalytics.DefaultRequest;
+import com.brsanthu.googleanalytics.GoogleAnalytics;
+import com.brsanthu.googleanalytics.GoogleAnalyticsCallback;
+import com.brsanthu.googleanalytics.GoogleAnalyticsConfig;
+import com.brsanthu.googleanalytics.GoogleAnalyticsFuture;
+import com.brsanthu.googleanalytics.GoogleAnalyticsPayload;
+import com.brsanthu.googleanalytics.GoogleAnalyticsRequest;
+import com.brsanthu.googleanalytics.GoogleAnalyticsResponse;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Authenticator;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Implementation for using <code>java.net.http.HttpClient</code> (Java 11+).
+ * <p>
+ * Client prefers HTTP/2, so all the hits are multiplexed over a single
+ * connection to GA. Asynchronous posts use {@link HttpClient#sendAsync}, so a
+ * hit waiting for its response does not hold on to any executor thread.
+ */
+public class HttpClientGoogleAnalytics extends GoogleAnalytics {
+
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded; charset=UTF-8";
+    private static final String TEXT_CONTENT_TYPE = "text/plain; charset=UTF-8";
+
+    private HttpClient client;
+    /** Limits the hits being sent by the http client to the queue capacity, null if unbounded. */
+    private Semaphore sending;
+
+    public HttpClientGoogleAnalytics(String trackingId) {
+        super(trackingId);
+    }
+
+    public HttpClientGoogleAnalytics(GoogleAnalyticsConfig config,
+            String trackingId) {
+        super(config, trackingId);
+    }
+
+    public HttpClientGoogleAnalytics(String trackingId, String appName,
+            String appVersion) {
+        super(trackingId, appName, appVersion);
+    }
+
+    public HttpClientGoogleAnalytics(GoogleAnalyticsConfig config,
+            String trackingId, String appName, String appVersion) {
+        super(config, trackingId, appName, appVersion);
+    }
+
+    public HttpClientGoogleAnalytics(GoogleAnalyticsConfig config,
+            DefaultRequest defaultRequest) {
+        super(config, defaultRequest);
+    }
+
+    /**
+     * @return true if this class is the Java 11 implementation, using
+     *         <code>java.net.http.HttpClient</code>.
+     */
+    public static boolean isSupported() {
+        return true;
+    }
+
+    HttpClient httpClient() {
+        return client;
+    }
+
+    @Override
+    protected void createClient() {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL);
+
+        if (config.getConnectTimeout() > 0) {
+            builder.connectTimeout(Duration.ofMillis(config.getConnectTimeout()));
+        }
+
+        if (isNotEmpty(config.getProxyHost())) {
+            builder.proxy(ProxySelector.of(new InetSocketAddress(
+                    config.getProxyHost(), config.getProxyPort())));
+
+            if (isNotEmpty(config.getProxyUserName())) {
+                final PasswordAuthentication credentials = new PasswordAuthentication(
+                        config.getProxyUserName(), config.getProxyPassword() == null
+                                ? new char[0] : config.getProxyPassword().toCharArray());
+                builder.authenticator(new Authenticator() {
+                    @Override
+                    protected PasswordAuthentication getPasswordAuthentication() {
+                        return getRequestorType() == RequestorType.PROXY ? credentials : null;
+                    }
+                });
+            }
+        }
+
+        this.client = builder.build();
+
+        sending = config.getQueueCapacity() > 0 ? new Semaphore(config.getQueueCapacity()) : null;
+    }
+
+    @Override
+    protected void sendRequest(GoogleAnalyticsResponse response,
+            Map<String, String> postParms) throws IOException {
+        sendPayload(response, urlEncode(postParms));
+        response.setPostedParms(postParms);
+    }
+
+    /**
+     * Sends the payload without copying it, as the synchronous send has
+     * written the whole body by the time it returns.
+     */
+    @Override
+    protected void sendPayload(GoogleAnalyticsResponse response,
+            GoogleAnalyticsPayload payload) throws IOException {
+        HttpResponse<Void> httpResponse = send(newRequest(config.getUrl(),
+                FORM_CONTENT_TYPE, payload.array(), payload.length()));
+        response.setStatusCode(httpResponse.statusCode());
+    }
+
+    @Override
+    protected void sendBatchPayload(GoogleAnalyticsResponse response,
+            GoogleAnalyticsPayload payload) throws IOException {
+        HttpResponse<Void> httpResponse = send(newRequest(config.getBatchUrl(),
+                TEXT_CONTENT_TYPE, payload.array(), payload.length()));
+        response.setStatusCode(httpResponse.statusCode());
+    }
+
+    /**
+     * Sends the hit without going through the executor. Returned future is
+     * completed by the http client once GA responds. Hits go through the
+     * executor as usual if {@link #isDirectSendAllowed()} is false, or once
+     * GA is being closed. Hits being sent this way are limited to
+     * {@link GoogleAnalyticsConfig#getQueueCapacity()}; once there are as
+     * many, hits are queued to the executor, so the queue capacity and
+     * {@link GoogleAnalyticsConfig#getQueueOverflowPolicy()} apply to them.
+     * Hits which fail with an I/O error or a 5xx response are spooled as
+     * they would be by {@link #post(GoogleAnalyticsRequest)}.
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public GoogleAnalyticsFuture postAsync(GoogleAnalyticsRequest request, GoogleAnalyticsCallback callback) {
+        if (!config.isEnabled() || !isDirectSendAllowed() || (sending != null && !sending.tryAcquire())) {
+            return super.postAsync(request, callback);
+        }
+
+        GoogleAnalyticsFuture future = new GoogleAnalyticsFuture(request);
+        if (callback != null) {
+            future.addCallback(callback);
+        }
+        if (isSampledOut(request) || isAggregated(request)) {
+            sent();
+            future.complete(new GoogleAnalyticsResponse());
+            return future;
+        }
+        if (!acceptHit()) {
+            sent();
+            return super.postAsync(request, callback);
+        }
+
+        byte[] body;
+        try {
+            //Copied as the payload is reused by this thread before the body is sent
+            body = encode(request).toByteArray();
+        } catch (Exception e) {
+            logSendFailure(request, e);
+            future.fail(e);
+            sent();
+            hitDone();
+            return future;
+        }
+
+        HttpRequest httpRequest = newRequest(config.getUrl(), FORM_CONTENT_TYPE,
+                body, body.length);
+
+        client.sendAsync(httpRequest, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((httpResponse, e) -> {
+                    try {
+                        if (e != null) {
+                            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                            if (cause instanceof IOException) {
+                                undelivered(body, body.length);
+                            }
+                            logSendFailure(request, cause);
+                            future.fail(cause);
+                            return;
+                        }
+
+                        GoogleAnalyticsResponse response = new GoogleAnalyticsResponse();
+                        response.setStatusCode(httpResponse.statusCode());
+                        if (response.getStatusCode() >= 500) {
+                            undelivered(body, body.length);
+                        }
+                        setPostedParms(response, request);
+                        if (config.isGatherStats()) {
+                            gatherStats(request);
+                        }
+                        future.complete(response);
+                    } finally {
+                        sent();
+                        hitDone();
+                    }
+                });
+        return future;
+    }
+
+    /**
+     * Releases the permit of a hit sent by the http client.
+     */
+    private void sent() {
+        if (sending != null) {
+            sending.release();
+        }
+    }
+
+    private HttpRequest newRequest(String url, String contentType, byte[] body, int length) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body, 0, length));
+
+        if (config.getReadTimeout() > 0) {
+            builder.timeout(Duration.ofMillis(config.getReadTimeout()));
+        }
+        if (isNotEmpty(config.getUserAgent())) {
+            builder.header("User-Agent", config.getUserAgent());
+        }
+
+        return builder.build();
+    }
+
+    private HttpResponse<Void> send(HttpRequest httpRequest) throws IOException {
+        try {
+            return client.send(httpRequest, HttpResponse.BodyHandlers.discarding());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending the request to " + httpRequest.uri());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class GoogleAnalyticsAdaptiveSamplerTest {
+
+	private GoogleAnalyticsConfig config() {
+		return new GoogleAnalyticsConfig().setAdaptiveSamplingEnabled(true).setAdaptiveSamplingMaxQueueDepth(100)
+				.setAdaptiveSamplingMaxLatency(200).setAdaptiveSamplingMinRate(0.1);
+	}
+
+	@Test
+	public void testQueueDepth() throws Exception {
+		AdaptiveSampler sampler = new AdaptiveSampler(config());
+		assertEquals(1, sampler.adjust(0), 0);
+		assertEquals(0.5, sampler.adjust(101), 0);
+		assertEquals(0.25, sampler.adjust(500), 0);
+		assertEquals(0.125, sampler.adjust(500), 0);
+		//Never below the min rate
+		assertEquals(0.1, sampler.adjust(500), 0);
+
+		//Held until well below the max
+		assertEquals(0.1, sampler.adjust(100), 0);
+		assertEquals(0.1, sampler.adjust(51), 0);
+		assertEquals(0.2, sampler.adjust(50), 0.0001);
+		for (int i = 0; i < 20; i++) {
+			sampler.adjust(0);
+		}
+		assertEquals(1, sampler.getRate(), 0);
+	}
+
+	@Test
+	public void testLatency() throws Exception {
+		AdaptiveSampler sampler = new AdaptiveSampler(config());
+		sampler.recordLatency(100);
+		sampler.recordLatency(400);
+		assertEquals(0.5, sampler.adjust(0), 0);
+
+		//Latency is averaged over each interval only
+		sampler.recordLatency(150);
+		assertEquals(0.5, sampler.adjust(0), 0);
+		sampler.recordLatency(50);
+		assertEquals(0.6, sampler.adjust(0), 0.0001);
+		assertEquals(0.7, sampler.adjust(0), 0.0001);
+	}
+
+	@Test
+	public void testOnlyLowPriorityHitsShed() throws Exception {
+		GoogleAnalyticsConfig config = config().setHitPriority("event", HitPriority.LOW);
+		AdaptiveSampler sampler = new AdaptiveSampler(config);
+		sampler.adjust(1000);
+		assertEquals(0.5, sampler.getRate("pageview"), 0);
+		assertEquals(0.5, sampler.getRate("timing"), 0);
+		assertEquals(0.5, sampler.getRate("event"), 0);
+		assertEquals(1, sampler.getRate("transaction"), 0);
+		assertEquals(1, sampler.getRate("social"), 0);
+
+		HitSampler hitSampler = new HitSampler(config.setSampleRate(0.5), sampler);
+		assertEquals(0.25, hitSampler.getRate("UA-1", "pageview"), 0);
+		assertEquals(0.5, hitSampler.getRate("UA-1", "transaction"), 0);
+
+		int pageViews = 0;
+		for (int i = 0; i < 10000; i++) {
+			String clientId = "client" + i;
+			if (hitSampler.isSampled("UA-1", clientId, "pageview")) {
+				//Users kept at lower rate are kept at higher rate too
+				assertTrue(hitSampler.isSampled("UA-1", clientId, "transaction"));
+				pageViews++;
+			}
+		}
+		assertEquals(2500, pageViews, 200);
+	}
+
+	@Test
+	public void testEffectiveRatesInStats() throws Exception {
+		GoogleAnalytics ga = new GoogleAnalytics(config().setAdaptiveSamplingInterval(60000)
+				.setHitTypeSampleRate("social", 0.5), "UA-1") {
+			@Override
+			protected void createClient() {
+			}
+
+			@Override
+			protected void sendRequest(GoogleAnalyticsResponse response, Map<String, String> postParms) {
+				try {
+					Thread.sleep(300);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		assertEquals(1, ga.getStats().getSampleRate("pageview"), 0);
+		assertEquals(0.5, ga.getStats().getSampleRate("social"), 0);
+		assertEquals(8, ga.getStats().getSampleRates().size());
+
+		//Slow sends lower the rate of page views
+		ga.post(new EventHit());
+		ga.adjustSampling();
+		assertEquals(0.5, ga.getStats().getSampleRate("pageview"), 0);
+		assertEquals(0.5, ga.getStats().getSampleRate("timing"), 0);
+		assertEquals(1, ga.getStats().getSampleRate("event"), 0);
+		assertEquals(0.5, ga.getStats().getSampleRate("social"), 0);
+
+		ga.resetStats();
+		assertEquals(0.5, ga.getStats().getSampleRate("pageview"), 0);
+
+		//And recover
+		for (int i = 0; i < 5; i++) {
+			ga.adjustSampling();
+		}
+		assertEquals(1, ga.getStats().getSampleRate("pageview"), 0);
+		ga.close();
+	}
+}
@@ -0,0 +1,125 @@
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class GoogleAnalyticsBatcherTest {
+
+	private final List<String> batches = new CopyOnWriteArrayList<String>();
+
+	/**
+	 * @return GA recording the batches, and the hits which are sent on their own.
+	 */
+	private RecordingGoogleAnalytics createAnalytics(GoogleAnalyticsConfig config) {
+		return new RecordingGoogleAnalytics(config) {
+			@Override
+			protected void sendBatchPayload(GoogleAnalyticsResponse response, GoogleAnalyticsPayload payload) throws IOException {
+				batches.add(payload.toString());
+			}
+		};
+	}
+
+	@Test
+	public void testBatchSize() throws Exception {
+		RecordingGoogleAnalytics ga = createAnalytics(new GoogleAnalyticsConfig().setBatchingEnabled(true).setBatchFlushInterval(0));
+
+		for (int i = 0; i < 45; i++) {
+			GoogleAnalyticsResponse response = ga.post(new PageViewHit("http://www.google.com/" + i, "Search"));
+			assertEquals("/" + i, response.getPostedParms().get("dl").substring(21));
+		}
+
+		assertEquals(2, batches.size());
+		assertEquals(20, batches.get(0).split("\n").length);
+		assertEquals(20, batches.get(1).split("\n").length);
+
+		ga.close();
+		assertEquals(3, batches.size());
+		assertEquals(5, batches.get(2).split("\n").length);
+		assertTrue(batches.get(2).contains("dl=http%3A%2F%2Fwww.google.com%2F44"));
+		assertTrue(ga.getSent().isEmpty());
+	}
+
+	@Test
+	public void testBatchBytes() throws Exception {
+		GoogleAnalytics ga = createAnalytics(new GoogleAnalyticsConfig().setBatchingEnabled(true).setBatchFlushInterval(0).setMaxBatchBytes(1000));
+
+		StringBuilder title = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			title.append('x');
+		}
+
+		for (int i = 0; i < 10; i++) {
+			ga.post(new PageViewHit("http://www.google.com", title.toString()));
+		}
+		ga.flush();
+
+		int hits = 0;
+		for (String batch : batches) {
+			assertTrue(batch.length() <= 1000);
+			hits += batch.split("\n").length;
+		}
+		assertEquals(10, hits);
+		assertTrue(batches.size() > 1);
+	}
+
+	@Test
+	public void testHitsTooBigForBatch() throws Exception {
+		RecordingGoogleAnalytics ga = createAnalytics(new GoogleAnalyticsConfig().setBatchingEnabled(true).setBatchFlushInterval(0)
+				.setMaxBatchBytes(1000));
+
+		StringBuilder title = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			title.append('x');
+		}
+		ga.post(new PageViewHit("http://www.google.com", title.toString()));
+		assertEquals(1, ga.getSent().size());
+		assertEquals(0, ga.getStats().getDroppedHits());
+
+		//Rejected by GA either way
+		for (int i = 0; i < 8000; i++) {
+			title.append('x');
+		}
+		ga.post(new PageViewHit("http://www.google.com", title.toString()));
+		assertEquals(1, ga.getSent().size());
+		assertEquals(1, ga.getStats().getDroppedHits());
+
+		ga.close();
+		assertEquals(0, batches.size());
+	}
+
+	@Test
+	public void testBatchSentHitByHitByDefault() throws Exception {
+		final AtomicInteger sends = new AtomicInteger();
+		RecordingGoogleAnalytics ga = new RecordingGoogleAnalytics(new GoogleAnalyticsConfig().setBatchingEnabled(true)
+				.setBatchFlushInterval(0)) {
+			@Override
+			protected void onSend(GoogleAnalyticsResponse response, Map<String, String> postParms) {
+				response.setStatusCode(sends.incrementAndGet() == 2 ? 503 : 200);
+			}
+		};
+
+		for (int i = 0; i < 3; i++) {
+			ga.post(new PageViewHit("http://www.google.com", "title" + i));
+		}
+		GoogleAnalyticsResponse response = new GoogleAnalyticsResponse();
+		GoogleAnalyticsPayload batch = new GoogleAnalyticsPayload(100);
+		batch.append("dt=a\ndt=b\n\ndt=c".getBytes("UTF-8"));
+		ga.sendBatchPayload(response, batch);
+		assertEquals(503, response.getStatusCode());
+		assertEquals("[a, b]", ga.getSent("dt").toString());
+		//Only the failed hit and the ones after it are left to be retried
+		assertEquals("dt=b\n\ndt=c", batch.toString());
+
+		ga.close();
+		assertEquals(5, ga.getSent().size());
+		assertEquals("title2", ga.getSent("dt").get(4));
+	}
+}
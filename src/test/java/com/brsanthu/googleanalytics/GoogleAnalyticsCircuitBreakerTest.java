@@ -0,0 +1,150 @@
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.brsanthu.googleanalytics.CircuitBreaker.State;
+
+public class GoogleAnalyticsCircuitBreakerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile boolean down = true;
+	private GoogleAnalytics ga = null;
+
+	@After
+	public void tearDown() {
+		if (ga != null) {
+			ga.close();
+		}
+	}
+
+	private static GoogleAnalyticsConfig config() {
+		return new GoogleAnalyticsConfig().setCircuitBreakerEnabled(true).setCircuitBreakerMinimumCalls(4).setCircuitBreakerFailureRate(0.5f)
+				.setCircuitBreakerWindow(1000).setCircuitBreakerOpenDuration(500).setCircuitBreakerSlowCallDuration(100);
+	}
+
+	private GoogleAnalytics create(GoogleAnalyticsConfig config) {
+		return new RecordingGoogleAnalytics(config) {
+			@Override
+			protected void onSend(GoogleAnalyticsResponse response, Map<String, String> postParms) throws IOException {
+				requests.incrementAndGet();
+				if (down) {
+					throw new IOException("Read timed out");
+				}
+			}
+		};
+	}
+
+	@Test
+	public void testStates() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(config());
+		long now = 10000;
+
+		assertTrue(breaker.allowRequest(now));
+		breaker.record(now, 10, false);
+		breaker.record(now, 10, false);
+		breaker.record(now, 10, true);
+		assertEquals(State.CLOSED, breaker.getState());
+		breaker.record(now + 50, 10, true);
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest(now + 100));
+
+		//Single probe allowed once open duration is over
+		assertTrue(breaker.allowRequest(now + 600));
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest(now + 600));
+		breaker.record(now + 610, 10, true);
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest(now + 700));
+
+		assertTrue(breaker.allowRequest(now + 1200));
+		breaker.record(now + 1210, 10, false);
+		assertEquals(State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest(now + 1210));
+	}
+
+	@Test
+	public void testSlowCalls() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(config());
+		for (int i = 0; i < 3; i++) {
+			breaker.record(10000, 150, false);
+		}
+		assertEquals(State.CLOSED, breaker.getState());
+		breaker.record(10000, 10, false);
+		assertEquals(State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testSlidingWindow() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(config());
+		breaker.record(10000, 10, true);
+		breaker.record(10000, 10, true);
+		breaker.record(10000, 10, true);
+		//Failures above are out of the window by now
+		breaker.record(11500, 10, false);
+		breaker.record(11500, 10, false);
+		breaker.record(11500, 10, false);
+		breaker.record(11600, 10, true);
+		assertEquals(State.CLOSED, breaker.getState());
+		breaker.record(11700, 10, true);
+		assertEquals(State.CLOSED, breaker.getState());
+		breaker.record(11800, 10, true);
+		assertEquals(State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testDropFallback() throws Exception {
+		ga = create(config().setCircuitBreakerFallback(CircuitBreakerFallback.DROP));
+		for (int i = 0; i < 4; i++) {
+			ga.post(new PageViewHit());
+		}
+		assertEquals(4, requests.get());
+		assertEquals(State.OPEN, ga.getCircuitBreaker().getState());
+
+		GoogleAnalyticsResponse response = ga.post(new PageViewHit());
+		assertEquals(503, response.getStatusCode());
+		assertEquals(4, requests.get());
+		assertEquals(1, ga.getStats().getShortCircuitedHits());
+		assertEquals(1, ga.getStats().getDroppedHits());
+
+		//Recovers once the probe succeeds
+		down = false;
+		Thread.sleep(600);
+		assertEquals(200, ga.post(new PageViewHit()).getStatusCode());
+		assertEquals(State.CLOSED, ga.getCircuitBreaker().getState());
+		assertEquals(5, requests.get());
+	}
+
+	@Test
+	public void testSpoolFallback() throws Exception {
+		File directory = new File(folder.getRoot(), "spool");
+		ga = create(config().setSpoolDirectory(directory.getPath()).setSpoolReplayInterval(0));
+		for (int i = 0; i < 6; i++) {
+			ga.post(new PageViewHit());
+		}
+		assertEquals(4, requests.get());
+		assertEquals(2, ga.getStats().getShortCircuitedHits());
+		assertEquals(6, ga.getStats().getSpooledHits());
+
+		//Replay waits for the circuit to close
+		down = false;
+		assertEquals(0, ga.replaySpool());
+		Thread.sleep(600);
+		assertEquals(6, ga.replaySpool());
+		assertEquals(State.CLOSED, ga.getCircuitBreaker().getState());
+	}
+}
@@ -0,0 +1,213 @@
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class GoogleAnalyticsCloseTest {
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final List<String> unsent = new CopyOnWriteArrayList<String>();
+	private final Thread caller = Thread.currentThread();
+	private volatile long sendMillis = 0;
+	private volatile boolean blockWorkers = false;
+	private RecordingGoogleAnalytics ga = null;
+
+	private GoogleAnalytics createAnalytics(GoogleAnalyticsConfig config) {
+		config.setUnsentHitHandler(new UnsentHitHandler() {
+			@Override
+			@SuppressWarnings("rawtypes")
+			public void unsent(GoogleAnalyticsRequest request) {
+				unsent.add(request.documentTitle());
+			}
+		});
+		ga = new RecordingGoogleAnalytics(config) {
+			@Override
+			protected void onSend(GoogleAnalyticsResponse response, Map<String, String> postParms) throws IOException {
+				try {
+					if (blockWorkers && Thread.currentThread() != caller) {
+						release.await(5, TimeUnit.SECONDS);
+					}
+					Thread.sleep(sendMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		return ga;
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		ga.close(0, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void testFlushSendsQueuedHits() throws Exception {
+		sendMillis = 10;
+		createAnalytics(new GoogleAnalyticsConfig());
+		for (int i = 0; i < 10; i++) {
+			ga.postAsync(new PageViewHit());
+		}
+
+		GoogleAnalyticsFlushResult result = ga.flush(5, TimeUnit.SECONDS);
+		assertTrue(result.isCompleted());
+		assertEquals(10, result.getSentHits());
+		assertEquals(0, result.getDroppedHits());
+		assertEquals(10, ga.getSent().size());
+
+		//Still accepts hits
+		ga.postAsync(new PageViewHit()).get(5, TimeUnit.SECONDS);
+		assertEquals(11, ga.getSent().size());
+	}
+
+	@Test
+	public void testFlushDoesNotWaitForLaterHits() throws Exception {
+		sendMillis = 5;
+		createAnalytics(new GoogleAnalyticsConfig().setMaxThreads(1));
+		for (int i = 0; i < 10; i++) {
+			ga.postAsync(new PageViewHit());
+		}
+
+		//Hits are posted faster than they are sent, so some are always queued
+		final AtomicInteger posted = new AtomicInteger();
+		Thread poster = new Thread() {
+			@Override
+			public void run() {
+				while (!isInterrupted()) {
+					ga.postAsync(new PageViewHit());
+					posted.incrementAndGet();
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		};
+		poster.start();
+		try {
+			while (posted.get() < 10) {
+				Thread.sleep(1);
+			}
+			GoogleAnalyticsFlushResult result = ga.flush(5, TimeUnit.SECONDS);
+			assertTrue(result.isCompleted());
+			assertTrue(result.getSentHits() >= 10);
+		} finally {
+			poster.interrupt();
+			poster.join();
+		}
+	}
+
+	@Test
+	public void testFlushTimeout() throws Exception {
+		blockWorkers = true;
+		createAnalytics(new GoogleAnalyticsConfig());
+		for (int i = 0; i < 3; i++) {
+			ga.postAsync(new PageViewHit());
+		}
+
+		long start = System.currentTimeMillis();
+		GoogleAnalyticsFlushResult result = ga.flush(100, TimeUnit.MILLISECONDS);
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		assertFalse(result.isCompleted());
+		//Queued hits were sent by the calling thread, first one is still being sent by the worker
+		assertEquals(2, result.getSentHits());
+	}
+
+	@Test
+	public void testCloseSpillsHitsLeftAtDeadline() throws Exception {
+		sendMillis = 50;
+		createAnalytics(new GoogleAnalyticsConfig().setMaxBatchSize(2));
+		for (int i = 0; i < 10; i++) {
+			ga.postAsync(new PageViewHit().documentTitle("hit" + i));
+		}
+
+		GoogleAnalyticsFlushResult result = ga.close(120, TimeUnit.MILLISECONDS);
+		assertFalse(result.isCompleted());
+		assertTrue(result.getSpilledHits() > 0);
+		assertEquals(unsent.size(), result.getSpilledHits());
+		assertEquals("hit9", unsent.get(unsent.size() - 1));
+
+		Thread.sleep(100);
+		assertEquals(10, ga.getSent().size() + unsent.size());
+	}
+
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void testHitsAfterCloseAreSpilled() throws Exception {
+		final AtomicInteger failed = new AtomicInteger();
+		createAnalytics(new GoogleAnalyticsConfig().setSendCallback(new GoogleAnalyticsCallback() {
+			@Override
+			public void onSuccess(GoogleAnalyticsRequest request, GoogleAnalyticsResponse response) {
+			}
+
+			@Override
+			public void onFailure(GoogleAnalyticsRequest request, Throwable error) {
+				failed.incrementAndGet();
+			}
+		}));
+		GoogleAnalyticsFlushResult result = ga.close(1, TimeUnit.SECONDS);
+		assertTrue(result.isCompleted());
+
+		Future<GoogleAnalyticsResponse> future = ga.postAsync(new PageViewHit().documentTitle("late"));
+		assertTrue(future.isCancelled());
+		ga.send(new PageViewHit().documentTitle("later"));
+		assertEquals(1, failed.get());
+
+		assertEquals(2, unsent.size());
+		assertEquals("late", unsent.get(0));
+		assertEquals(0, ga.getSent().size());
+	}
+
+	@Test
+	public void testHitsLeftWithoutHandlerAreDropped() throws Exception {
+		blockWorkers = true;
+		createAnalytics(new GoogleAnalyticsConfig().setDispatchMode(DispatchMode.RING_BUFFER));
+		ga.getConfig().setUnsentHitHandler(null);
+		for (int i = 0; i < 5; i++) {
+			ga.postAsync(new PageViewHit());
+		}
+
+		GoogleAnalyticsFlushResult result = ga.close(100, TimeUnit.MILLISECONDS);
+		assertFalse(result.isCompleted());
+
+		//Consumer drops the rest once the hit being sent is done
+		release.countDown();
+		for (int i = 0; i < 100 && ga.getStats().getDroppedHits() < 4; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, ga.getSent().size());
+		assertEquals(4, ga.getStats().getDroppedHits());
+	}
+
+	@Test
+	public void testRingBufferCloseSpillsHitsLeft() throws Exception {
+		blockWorkers = true;
+		createAnalytics(new GoogleAnalyticsConfig().setDispatchMode(DispatchMode.RING_BUFFER));
+		for (int i = 0; i < 5; i++) {
+			ga.postAsync(new PageViewHit().documentTitle("hit" + i));
+		}
+
+		assertFalse(ga.close(100, TimeUnit.MILLISECONDS).isCompleted());
+		release.countDown();
+		for (int i = 0; i < 100 && unsent.size() < 4; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(4, unsent.size());
+		assertEquals("hit1", unsent.get(0));
+	}
+}
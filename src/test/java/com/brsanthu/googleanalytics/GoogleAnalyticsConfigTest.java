@@ -17,5 +17,19 @@ public class GoogleAnalyticsConfigTest {
 		assertEquals(80, config.getProxyPort());
 		assertEquals(true, config.isDiscoverRequestParameters());
 		assertEquals(false, config.isGatherStats());
+		assertEquals(0, config.getQueueCapacity());
+		assertEquals(QueueOverflowPolicy.DROP_NEWEST, config.getQueueOverflowPolicy());
+	}
+
+	@Test
+	public void testHitPriorityConfig() throws Exception {
+		GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+		assertEquals(HitPriority.HIGH, config.getHitPriority("transaction"));
+		assertEquals(HitPriority.LOW, config.getHitPriority("pageview"));
+		assertEquals(HitPriority.NORMAL, config.getHitPriority("event"));
+		assertEquals(HitPriority.NORMAL, config.getHitPriority(null));
+
+		config.setHitPriority("event", HitPriority.HIGH);
+		assertEquals(HitPriority.HIGH, config.getHitPriority("event"));
 	}
 }
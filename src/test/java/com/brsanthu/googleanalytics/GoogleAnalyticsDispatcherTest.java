@@ -0,0 +1,268 @@
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class GoogleAnalyticsDispatcherTest {
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final AtomicInteger blocked = new AtomicInteger();
+	private final AtomicInteger sent = new AtomicInteger();
+	private final AtomicInteger sentByCaller = new AtomicInteger();
+	private final Thread caller = Thread.currentThread();
+	private volatile boolean block = false;
+	private GoogleAnalytics ga = null;
+
+	private GoogleAnalytics createAnalytics(GoogleAnalyticsConfig config) {
+		ga = new RecordingGoogleAnalytics(config.setDispatchMode(DispatchMode.RING_BUFFER)) {
+			@Override
+			protected void onSend(GoogleAnalyticsResponse response, Map<String, String> postParms) throws IOException {
+				if (Thread.currentThread() == caller) {
+					sentByCaller.incrementAndGet();
+					return;
+				}
+				if (block) {
+					blocked.incrementAndGet();
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				sent.incrementAndGet();
+			}
+		};
+		return ga;
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		if (ga != null) {
+			ga.close();
+		}
+	}
+
+	private void awaitBlocked() throws InterruptedException {
+		for (int i = 0; i < 500 && blocked.get() == 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, blocked.get());
+	}
+
+	@Test
+	public void testCapacity() throws Exception {
+		assertEquals(2, RingBufferDispatcher.capacity(1));
+		assertEquals(4, RingBufferDispatcher.capacity(3));
+		assertEquals(1024, RingBufferDispatcher.capacity(1024));
+		assertEquals(2048, RingBufferDispatcher.capacity(1025));
+		assertEquals(RingBufferDispatcher.DEFAULT_CAPACITY, RingBufferDispatcher.capacity(0));
+	}
+
+	@Test
+	public void testConcurrentProducers() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setQueueCapacity(64).setQueueOverflowPolicy(QueueOverflowPolicy.BLOCK).setQueueBlockTimeout(5000));
+
+		final List<Future<GoogleAnalyticsResponse>> futures = new ArrayList<Future<GoogleAnalyticsResponse>>();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 2500; j++) {
+						Future<GoogleAnalyticsResponse> future = ga.postAsync(new PageViewHit());
+						if (j % 500 == 0) {
+							synchronized (futures) {
+								futures.add(future);
+							}
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		for (Future<GoogleAnalyticsResponse> future : futures) {
+			assertNotNull(future.get(5, TimeUnit.SECONDS));
+		}
+		ga.close();
+		assertEquals(10000, sent.get());
+		assertEquals(0, ga.getStats().getDroppedHits());
+	}
+
+	@Test
+	public void testDropNewest() throws Exception {
+		block = true;
+		createAnalytics(new GoogleAnalyticsConfig().setQueueCapacity(2).setQueueOverflowPolicy(QueueOverflowPolicy.DROP_NEWEST));
+		assertEquals(2, ((RingBufferDispatcher) ga.getDispatcher()).capacity());
+		ga.postAsync(new PageViewHit());
+		awaitBlocked();
+		Future<GoogleAnalyticsResponse> queued = ga.postAsync(new PageViewHit());
+		ga.postAsync(new PageViewHit());
+		Future<GoogleAnalyticsResponse> dropped = ga.postAsync(new PageViewHit());
+
+		assertTrue(dropped.isCancelled());
+		assertFalse(queued.isCancelled());
+		assertEquals(1, ga.getStats().getDroppedHits());
+
+		release.countDown();
+		assertNotNull(queued.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testCallerRuns() throws Exception {
+		block = true;
+		createAnalytics(new GoogleAnalyticsConfig().setQueueCapacity(1).setQueueOverflowPolicy(QueueOverflowPolicy.CALLER_RUNS));
+		ga.postAsync(new PageViewHit());
+		awaitBlocked();
+		ga.postAsync(new PageViewHit());
+		ga.postAsync(new PageViewHit());
+
+		Future<GoogleAnalyticsResponse> future = ga.postAsync(new PageViewHit());
+		assertTrue(future.isDone());
+		assertEquals(1, sentByCaller.get());
+		assertEquals(0, ga.getStats().getDroppedHits());
+	}
+
+	@Test
+	public void testCloseDrainsQueuedHits() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig());
+		for (int i = 0; i < 100; i++) {
+			ga.postAsync(new EventHit("category", "action"));
+		}
+		ga.close();
+		assertEquals(100, sent.get());
+
+		assertTrue(ga.postAsync(new EventHit()).isCancelled());
+		assertEquals(1, ga.getStats().getDroppedHits());
+	}
+
+	@Test
+	public void testCloseWhileProducing() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig());
+		final List<Future<GoogleAnalyticsResponse>> futures = new ArrayList<Future<GoogleAnalyticsResponse>>();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 2500; j++) {
+						Future<GoogleAnalyticsResponse> future = ga.postAsync(new PageViewHit());
+						synchronized (futures) {
+							futures.add(future);
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		ga.close();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		//Each hit is either sent or dropped, none is left in the buffer
+		for (Future<GoogleAnalyticsResponse> future : futures) {
+			assertTrue(future.isDone());
+		}
+		assertEquals(10000, sent.get() + ga.getStats().getDroppedHits());
+	}
+
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void testSend() throws Exception {
+		final List<String> outcomes = new ArrayList<String>();
+		createAnalytics(new GoogleAnalyticsConfig().setSendCallback(new GoogleAnalyticsCallback() {
+			@Override
+			public void onSuccess(GoogleAnalyticsRequest request, GoogleAnalyticsResponse response) {
+				outcomes.add(((EventHit) request).eventAction() + "=" + response.getStatusCode() + "," + response.getPostedParms().get("ea"));
+			}
+
+			@Override
+			public void onFailure(GoogleAnalyticsRequest request, Throwable error) {
+				outcomes.add(((EventHit) request).eventAction() + " failed");
+			}
+		}));
+
+		for (int i = 0; i < 3; i++) {
+			ga.send(new EventHit("category", "action" + i));
+		}
+		ga.close();
+		assertEquals(3, sent.get());
+		assertEquals("[action0=200,action0, action1=200,action1, action2=200,action2]", outcomes.toString());
+
+		ga.send(new EventHit("category", "late"));
+		assertEquals("late failed", outcomes.get(3));
+		assertEquals(1, ga.getStats().getDroppedHits());
+	}
+
+	@Test
+	public void testVirtualThreads() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setMaxThreads(2));
+		ga.getConfig().setDispatchMode(DispatchMode.VIRTUAL_THREADS);
+
+		ExecutorService virtualThreads = VirtualThreadDispatcher.newVirtualThreadPerTaskExecutor();
+		if (virtualThreads == null) {
+			//Falls back to the executor before Java 21
+			assertNull(ga.getDispatcher());
+		} else {
+			assertTrue(ga.getDispatcher() instanceof VirtualThreadDispatcher);
+			virtualThreads.shutdown();
+		}
+
+		for (int i = 0; i < 10; i++) {
+			ga.postAsync(new PageViewHit());
+		}
+		ga.close();
+		if (virtualThreads == null) {
+			ga.getExecutor().awaitTermination(5, TimeUnit.SECONDS);
+		}
+		//Closing thread helps sending the queued hits
+		assertEquals(10, sent.get() + sentByCaller.get());
+	}
+
+	@Test
+	public void testVirtualThreadDispatcherLimitsSending() throws Exception {
+		block = true;
+		createAnalytics(new GoogleAnalyticsConfig().setMaxThreads(2).setQueueCapacity(3));
+		VirtualThreadDispatcher dispatcher = new VirtualThreadDispatcher(ga, ga.getConfig(), Executors.newCachedThreadPool());
+		assertEquals(2, dispatcher.getMaxSending());
+
+		List<GoogleAnalyticsFuture> futures = new ArrayList<GoogleAnalyticsFuture>();
+		for (int i = 0; i < 6; i++) {
+			GoogleAnalyticsFuture future = new GoogleAnalyticsFuture(null);
+			dispatcher.dispatch(new PageViewHit(), future);
+			futures.add(future);
+		}
+
+		Thread.sleep(100);
+		//Two are being sent, three wait for a permit and the last one is dropped
+		assertEquals(2, blocked.get());
+		assertTrue(futures.get(5).isCancelled());
+		assertEquals(1, ga.getStats().getDroppedHits());
+
+		release.countDown();
+		assertTrue(dispatcher.close(System.nanoTime() + TimeUnit.SECONDS.toNanos(5)));
+		assertEquals(5, sent.get());
+	}
+}
@@ -0,0 +1,227 @@
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+public class GoogleAnalyticsEncoderTest {
+
+	@Test
+	public void testAppendEncoded() throws Exception {
+		String[] values = {"", "abcXYZ019-_.*", "a b&c=d/e?f", "~!'()", "caf\u00e9 \u00fcber", "\u20ac100", "\u65e5\u672c\u8a9e",
+				"smile \ud83d\ude00", "unpaired \ud83d x", "tab\tnew\nline%"};
+
+		for (String value : values) {
+			GoogleAnalyticsPayload payload = new GoogleAnalyticsPayload(4);
+			payload.appendEncoded(value);
+			assertEquals(value, URLEncoder.encode(value, "UTF-8"), payload.toString());
+		}
+	}
+
+	@Test
+	public void testAppendDecimal() throws Exception {
+		long[] values = {0, 7, 10, 12345, -1, -987, Long.MAX_VALUE, Long.MIN_VALUE};
+
+		for (long value : values) {
+			GoogleAnalyticsPayload payload = new GoogleAnalyticsPayload(1);
+			payload.appendDecimal(value);
+			assertEquals(Long.toString(value), payload.toString());
+		}
+	}
+
+	@Test
+	public void testAppendFixed() throws Exception {
+		double[] values = {0, 1, 11.2, 0.005, 0.004, -2.5, -0.001, 123456789.999, Double.NaN};
+		String[] expected = {"0.00", "1.00", "11.20", "0.01", "0.00", "-2.50", "0.00", "123456790.00", "NaN"};
+
+		for (int i = 0; i < values.length; i++) {
+			GoogleAnalyticsPayload payload = new GoogleAnalyticsPayload(1);
+			payload.appendFixed(values[i], 2);
+			assertEquals(expected[i], payload.toString());
+		}
+	}
+
+	@Test
+	public void testEncodeMergesDefaults() throws Exception {
+		DefaultRequest defaultRequest = new DefaultRequest().trackingId("UA-1").clientId("client").customDimention(1, "default").customMetric(2, "5");
+		PageViewHit hit = new PageViewHit("http://www.google.com", "Search & Find").customDimention(1, "request");
+
+		GoogleAnalyticsPayload payload = GoogleAnalyticsEncoder.encode(hit, new EncodedDefaultRequest(defaultRequest));
+		Map<String, String> parms = GoogleAnalyticsEncoder.decode(payload);
+
+		assertEquals("UA-1", parms.get("tid"));
+		assertEquals("client", parms.get("cid"));
+		assertEquals("Search & Find", parms.get("dt"));
+		assertEquals("request", parms.get("cd1"));
+		assertEquals("5", parms.get("cm2"));
+		assertTrue(payload.toString().contains("dt=Search+%26+Find"));
+
+		//Neither of the requests are modified by encoding
+		assertNull(hit.trackingId());
+		assertFalse(hit.custommMetrics().containsKey("cm2"));
+		assertEquals("default", defaultRequest.customDimentions().get("cd1"));
+	}
+
+	@Test
+	public void testDefaultRequestChanges() throws Exception {
+		DefaultRequest defaultRequest = new DefaultRequest().trackingId("UA-1");
+		EncodedDefaultRequest encoded = new EncodedDefaultRequest(defaultRequest);
+		assertTrue(encoded.isCurrent(defaultRequest));
+
+		PageViewHit hit = new PageViewHit("http://www.google.com", "Search");
+		assertEquals("UA-1", GoogleAnalyticsEncoder.decode(GoogleAnalyticsEncoder.encode(hit, encoded)).get("tid"));
+		//Second hit of same kind is served from the cached prefix
+		assertEquals("UA-1", GoogleAnalyticsEncoder.decode(GoogleAnalyticsEncoder.encode(hit, encoded)).get("tid"));
+
+		defaultRequest.trackingId("UA-2");
+		assertFalse(encoded.isCurrent(defaultRequest));
+		defaultRequest.customDimention(3, "dim");
+		encoded = new EncodedDefaultRequest(defaultRequest);
+		assertTrue(encoded.isCurrent(defaultRequest));
+
+		Map<String, String> parms = GoogleAnalyticsEncoder.decode(GoogleAnalyticsEncoder.encode(hit, encoded));
+		assertEquals("UA-2", parms.get("tid"));
+		assertEquals("dim", parms.get("cd3"));
+		assertEquals("pageview", parms.get("t"));
+		assertEquals("1", parms.get("v"));
+	}
+
+	@Test
+	public void testDefaultRequestMapChanges() throws Exception {
+		DefaultRequest defaultRequest = new DefaultRequest().trackingId("UA-1");
+		EncodedDefaultRequest encoded = defaultRequest.snapshot();
+
+		defaultRequest.customDimentions().put("cd2", "dim");
+		defaultRequest.custommMetrics().put("cm4", "7");
+		assertFalse(encoded.isCurrent(defaultRequest));
+
+		PageViewHit hit = new PageViewHit("http://www.google.com", "Search");
+		encoded = defaultRequest.snapshot();
+		Map<String, String> parms = GoogleAnalyticsEncoder.decode(GoogleAnalyticsEncoder.encode(hit, encoded));
+		assertEquals("dim", parms.get("cd2"));
+		assertEquals("7", parms.get("cm4"));
+
+		defaultRequest.customDimentions().remove("cd2");
+		assertFalse(encoded.isCurrent(defaultRequest));
+		defaultRequest.custommMetrics().clear();
+		parms = GoogleAnalyticsEncoder.decode(GoogleAnalyticsEncoder.encode(hit, defaultRequest.snapshot()));
+		assertNull(parms.get("cd2"));
+		assertNull(parms.get("cm4"));
+		assertEquals("{}", defaultRequest.customDimentions().toString());
+	}
+
+	@Test
+	public void testPrefixCache() throws Exception {
+		DefaultRequest defaultRequest = new DefaultRequest().trackingId("UA-1").clientId("client").userId("user")
+				.applicationName("app").applicationVersion("1.0").documentTitle("title");
+		EncodedDefaultRequest encoded = new EncodedDefaultRequest(defaultRequest);
+
+		//More override combinations than are cached, each looked up twice
+		for (int pass = 0; pass < 2; pass++) {
+			for (long overridden = 0; overridden < (1L << encoded.size()); overridden++) {
+				GoogleAnalyticsPayload payload = new GoogleAnalyticsPayload(64);
+				encoded.appendTo(payload, overridden);
+				GoogleAnalyticsPayload expected = new GoogleAnalyticsPayload(64);
+				for (int i = 0; i < encoded.size(); i++) {
+					if ((overridden & (1L << i)) == 0) {
+						encoded.append(expected, i);
+					}
+				}
+				assertEquals(expected.toString(), payload.toString());
+			}
+		}
+	}
+
+	@Test
+	public void testSetDefaultRequest() throws Exception {
+		GoogleAnalytics ga = new GoogleAnalytics(new GoogleAnalyticsConfig(), "UA-1") {
+			@Override
+			protected void createClient() {
+			}
+
+			@Override
+			protected void sendRequest(GoogleAnalyticsResponse response, Map<String, String> postParms) {
+			}
+		};
+
+		assertEquals("UA-1", ga.post(new PageViewHit()).getPostedParms().get("tid"));
+		ga.getDefaultRequest().trackingId("UA-2");
+		assertEquals("UA-2", ga.post(new PageViewHit()).getPostedParms().get("tid"));
+		ga.setDefaultRequest(new DefaultRequest().trackingId("UA-3"));
+		assertEquals("UA-3", ga.post(new PageViewHit()).getPostedParms().get("tid"));
+		ga.close();
+	}
+
+	@Test
+	public void testConcurrentPosts() throws Exception {
+		final DefaultRequest defaultRequest = new DefaultRequest().trackingId("UA-1");
+		final PageViewHit hit = new PageViewHit("http://www.google.com", "Search");
+		final int parameterCount = hit.getParameters().size();
+		final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < 5000; j++) {
+							Map<String, String> parms = GoogleAnalyticsEncoder.decode(GoogleAnalyticsEncoder.encode(hit, defaultRequest.snapshot()));
+							assertEquals("Search", parms.get("dt"));
+							assertTrue(parms.get("tid").startsWith("UA-"));
+						}
+					} catch (Throwable e) {
+						errors.add(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+
+		for (int i = 0; i < 5000; i++) {
+			defaultRequest.trackingId("UA-" + i).customDimention(1 + i % 50, (i % 2 == 0) ? "dim" : null);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(parameterCount, hit.getParameters().size());
+		assertTrue(hit.customDimentions().isEmpty());
+	}
+
+	@Test
+	public void testCustomParameters() throws Exception {
+		DefaultRequest defaultRequest = new DefaultRequest().trackingId("UA-1").customDimention(1, "default1").customDimention(200, "default200")
+				.customMetric(70, 7L);
+		PageViewHit hit = new PageViewHit().customDimention(200, null).customDimention(64, "request64").customMetric(3, -42L).customMetric(3, 42L);
+
+		Map<String, String> parms = GoogleAnalyticsEncoder.decode(GoogleAnalyticsEncoder.encode(hit, new EncodedDefaultRequest(defaultRequest)));
+		assertEquals("default1", parms.get("cd1"));
+		assertEquals("request64", parms.get("cd64"));
+		assertFalse(parms.containsKey("cd200"));
+		assertEquals("42", parms.get("cm3"));
+		assertEquals("7", parms.get("cm70"));
+
+		assertEquals("42", hit.customMetric(3));
+		assertEquals("42", hit.custommMetrics().get("cm3"));
+		assertTrue(hit.customDimentions().containsKey("cd200"));
+		assertEquals(2, hit.customDimentions().size());
+
+		try {
+			hit.customDimention(201, "x");
+			fail("Index out of range must be rejected");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class GoogleAnalyticsEventAggregationTest {
+
+	private RecordingGoogleAnalytics ga = null;
+
+	private GoogleAnalytics createAnalytics(GoogleAnalyticsConfig config) {
+		ga = new RecordingGoogleAnalytics(config.setEventAggregationEnabled(true));
+		return ga;
+	}
+
+	@After
+	public void tearDown() {
+		ga.close();
+	}
+
+	@Test
+	public void testRollup() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setEventAggregationCountMetric(3));
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 250; i++) {
+						ga.postAsync(new EventHit("cache", "miss", "users", 2).clientId("c1").customDimention(1, "x"));
+						ga.send(new EventHit("cache", "miss", "orders", null).clientId("c1"));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		ga.post(new EventHit("cache", "miss", "users", 5).clientId("c2"));
+		ga.post(new PageViewHit().clientId("c1"));
+
+		assertEquals(1, ga.getSent().size());
+		assertEquals(2001, ga.getStats().getAggregatedHits());
+
+		assertTrue(ga.flush(5, TimeUnit.SECONDS).isCompleted());
+		assertEquals(4, ga.getSent().size());
+
+		Map<String, String> users = null;
+		for (Map<String, String> hit : ga.getSent()) {
+			if ("users".equals(hit.get("el")) && "c1".equals(hit.get("cid"))) {
+				users = hit;
+			}
+		}
+		assertEquals("event", users.get("t"));
+		assertEquals("cache", users.get("ec"));
+		assertEquals("miss", users.get("ea"));
+		assertEquals("2000", users.get("ev"));
+		assertEquals("1000", users.get("cm3"));
+		assertEquals("x", users.get("cd1"));
+		assertEquals(RecordingGoogleAnalytics.TRACKING_ID, users.get("tid"));
+		assertTrue(users.containsKey("qt"));
+
+		Map<String, String> orders = ga.findSent("el", "orders");
+		assertNull(orders.get("ev"));
+		assertEquals("1000", orders.get("cm3"));
+
+		//Nothing left to send
+		ga.flush(5, TimeUnit.SECONDS);
+		assertEquals(4, ga.getSent().size());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setMaxAggregatedEvents(16).setEventAggregationCountMetric(1));
+		for (int i = 0; i < 200; i++) {
+			ga.send(new EventHit("c", "a", "l" + (i % 50), 1).clientId("c1"));
+		}
+		ga.flush(5, TimeUnit.SECONDS);
+
+		//Rollups sent early to make room still add up
+		long value = 0;
+		long count = 0;
+		for (Map<String, String> hit : ga.getSent()) {
+			value += Long.parseLong(hit.get("ev"));
+			count += Long.parseLong(hit.get("cm1"));
+		}
+		assertEquals(200, value);
+		assertEquals(200, count);
+		assertTrue(ga.getSent().size() > 50);
+	}
+
+	@Test
+	public void testOverflowSendsRollup() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setEventAggregationCountMetric(1));
+		ga.send(new EventHit("c", "a", "l", Integer.MAX_VALUE - 1));
+		ga.send(new EventHit("c", "a", "l", 1));
+		assertEquals(0, ga.getSent().size());
+
+		//Would overflow the int event value, so the rollup is sent and a new one started
+		ga.send(new EventHit("c", "a", "l", 5));
+		for (int i = 0; i < 100 && ga.getSent().isEmpty(); i++) {
+			Thread.sleep(20);
+		}
+		assertEquals(1, ga.getSent().size());
+		assertEquals(String.valueOf(Integer.MAX_VALUE), ga.getSent().get(0).get("ev"));
+		assertEquals("2", ga.getSent().get(0).get("cm1"));
+
+		ga.flush(5, TimeUnit.SECONDS);
+		assertEquals(2, ga.getSent().size());
+		assertEquals("5", ga.getSent().get(1).get("ev"));
+		assertEquals("1", ga.getSent().get(1).get("cm1"));
+	}
+
+	@Test
+	public void testCloseSendsRollups() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig());
+		ga.send(new EventHit("c", "a", "l", 1));
+		ga.send(new EventHit("c", "a", "l", 1));
+		assertEquals(0, ga.getSent().size());
+
+		assertTrue(ga.close(5, TimeUnit.SECONDS).isCompleted());
+		assertEquals(1, ga.getSent().size());
+		assertEquals("2", ga.findSent("el", "l").get("ev"));
+	}
+
+	@Test
+	public void testInterval() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setEventAggregationInterval(50));
+		ga.send(new EventHit("c", "a", "l", 1));
+		for (int i = 0; i < 100 && ga.getSent().isEmpty(); i++) {
+			Thread.sleep(20);
+		}
+		assertEquals(1, ga.getSent().size());
+	}
+}
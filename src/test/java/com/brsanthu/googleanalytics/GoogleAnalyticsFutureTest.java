@@ -0,0 +1,115 @@
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+@SuppressWarnings("rawtypes")
+public class GoogleAnalyticsFutureTest {
+
+	private final List<String> outcomes = new CopyOnWriteArrayList<String>();
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	private final GoogleAnalyticsCallback callback = new GoogleAnalyticsCallback() {
+		@Override
+		public void onSuccess(GoogleAnalyticsRequest request, GoogleAnalyticsResponse response) {
+			outcomes.add("success " + (request == null ? null : request.hitType()) + " " + (response == null ? null : response.getStatusCode()));
+			done.countDown();
+		}
+
+		@Override
+		public void onFailure(GoogleAnalyticsRequest request, Throwable error) {
+			outcomes.add("failure " + error.getClass().getSimpleName());
+			done.countDown();
+		}
+	};
+
+	private GoogleAnalytics createAnalytics(GoogleAnalyticsConfig config) {
+		return new RecordingGoogleAnalytics(config) {
+			@Override
+			protected void onSend(GoogleAnalyticsResponse response, Map<String, String> postParms) throws IOException {
+				if ("fail".equals(postParms.get("ea"))) {
+					throw new IOException("Failed");
+				}
+				response.setStatusCode(204);
+			}
+		};
+	}
+
+	@Test
+	public void testCallbacks() throws Exception {
+		PageViewHit hit = new PageViewHit();
+		GoogleAnalyticsFuture future = new GoogleAnalyticsFuture(hit).addCallback(callback);
+		assertFalse(future.isDone());
+		assertTrue(outcomes.isEmpty());
+
+		GoogleAnalyticsResponse response = new GoogleAnalyticsResponse();
+		assertTrue(future.complete(response));
+		assertFalse(future.fail(new IOException()));
+		assertSame(response, future.get());
+		assertEquals("[success pageview 200]", outcomes.toString());
+
+		//Callbacks added later are notified right away
+		future.addCallback(callback);
+		assertEquals(2, outcomes.size());
+
+		GoogleAnalyticsFuture cancelled = new GoogleAnalyticsFuture(hit).addCallback(callback);
+		assertTrue(cancelled.cancel(false));
+		assertEquals("failure CancellationException", outcomes.get(2));
+	}
+
+	@Test
+	public void testPostAsync() throws Exception {
+		GoogleAnalytics ga = createAnalytics(new GoogleAnalyticsConfig());
+		GoogleAnalyticsFuture future = ga.postAsync(new EventHit("category", "action"), callback);
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(204, future.get().getStatusCode());
+		assertEquals("[success event 204]", outcomes.toString());
+
+		future = ga.postAsync(new EventHit("category", "fail"), null);
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("Send failure must fail the future");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+
+		//Failure is not thrown from the future of the variant without callback, as it was not before
+		assertNotNull(ga.postAsync(new EventHit("category", "fail")).get(5, TimeUnit.SECONDS));
+
+		future = ga.postAsync(new RequestProvider() {
+			@Override
+			public GoogleAnalyticsRequest getRequest() {
+				return null;
+			}
+		}, null);
+		assertNull(future.get(5, TimeUnit.SECONDS));
+		ga.close();
+	}
+
+	@Test
+	public void testPostAsyncWhenDisabled() throws Exception {
+		GoogleAnalytics ga = createAnalytics(new GoogleAnalyticsConfig().setEnabled(false));
+		assertNull(ga.postAsync(new PageViewHit()));
+
+		GoogleAnalyticsFuture future = ga.postAsync(new PageViewHit(), callback);
+		assertNotNull(future);
+		assertTrue(future.isDone());
+		assertEquals("[success pageview 200]", outcomes.toString());
+		ga.close();
+	}
+}
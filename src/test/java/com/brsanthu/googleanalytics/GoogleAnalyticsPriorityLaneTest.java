@@ -0,0 +1,172 @@
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class GoogleAnalyticsPriorityLaneTest {
+
+	private final CountDownLatch started = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private RecordingGoogleAnalytics ga = null;
+
+	private GoogleAnalytics createAnalytics(GoogleAnalyticsConfig config) {
+		ga = new RecordingGoogleAnalytics(config.setPriorityLanesEnabled(true)) {
+			@Override
+			protected void onSend(GoogleAnalyticsResponse response, Map<String, String> postParms) throws IOException {
+				started.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		return ga;
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		ga.close();
+	}
+
+	@SuppressWarnings("rawtypes")
+	private Runnable hit(GoogleAnalyticsRequest request) {
+		return ga.new QueuedHit(request, new GoogleAnalyticsFuture(request));
+	}
+
+	private String hitType(Runnable r) {
+		return ((GoogleAnalyticsRequest<?>) ((GoogleAnalytics.QueuedHit) r).hit).hitType();
+	}
+
+	@Test
+	public void testHigherLanesFirst() throws Exception {
+		PriorityLaneQueue queue = new PriorityLaneQueue(createAnalytics(new GoogleAnalyticsConfig()), ga.getConfig());
+		for (int i = 0; i < 3; i++) {
+			assertTrue(queue.offer(hit(new PageViewHit())));
+		}
+		assertTrue(queue.offer(hit(new EventHit())));
+		assertTrue(queue.offer(hit(new TransactionHit())));
+		assertTrue(queue.offer(hit(new ItemHit())));
+
+		assertEquals(6, queue.size());
+		assertEquals(2, queue.size(HitPriority.HIGH));
+		assertEquals("transaction", hitType(queue.peek()));
+		assertEquals("transaction", hitType(queue.poll()));
+		assertEquals("item", hitType(queue.poll()));
+		assertEquals("event", hitType(queue.poll()));
+		assertEquals("pageview", hitType(queue.poll()));
+		assertEquals("pageview", hitType(queue.poll()));
+		assertEquals("pageview", hitType(queue.poll()));
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void testWeights() throws Exception {
+		PriorityLaneQueue queue = new PriorityLaneQueue(createAnalytics(new GoogleAnalyticsConfig()
+				.setPriorityLaneWeight(HitPriority.HIGH, 2)), ga.getConfig());
+		for (int i = 0; i < 4; i++) {
+			queue.offer(hit(new PageViewHit()));
+			queue.offer(hit(new TransactionHit()));
+		}
+
+		StringBuilder order = new StringBuilder();
+		for (Runnable r = queue.poll(); r != null; r = queue.poll()) {
+			order.append(hitType(r).charAt(0));
+		}
+		//Page views are not starved by the transactions
+		assertEquals("ttpttppp", order.toString());
+	}
+
+	@Test
+	public void testLowerLanesShedFirst() throws Exception {
+		PriorityLaneQueue queue = new PriorityLaneQueue(createAnalytics(new GoogleAnalyticsConfig().setQueueCapacity(3)), ga.getConfig());
+		GoogleAnalyticsFuture oldest = new GoogleAnalyticsFuture(null);
+		queue.offer(ga.new QueuedHit(new PageViewHit(), oldest));
+		queue.offer(hit(new PageViewHit()));
+		queue.offer(hit(new EventHit()));
+
+		assertTrue(queue.offer(hit(new TransactionHit())));
+		assertTrue(oldest.isCancelled());
+		assertEquals(1, ga.getStats().getDroppedHits());
+		assertEquals(1, queue.size(HitPriority.LOW));
+
+		assertTrue(queue.offer(hit(new ExceptionHit())));
+		assertEquals(0, queue.size(HitPriority.LOW));
+		assertTrue(queue.offer(hit(new ItemHit())));
+		assertEquals(0, queue.size(HitPriority.NORMAL));
+
+		//Full of high priority hits
+		assertFalse(queue.offer(hit(new PageViewHit())));
+		assertFalse(queue.offer(hit(new TransactionHit())));
+		assertEquals(3, ga.getStats().getDroppedHits());
+	}
+
+	@Test
+	public void testLaneCapacity() throws Exception {
+		PriorityLaneQueue queue = new PriorityLaneQueue(createAnalytics(new GoogleAnalyticsConfig().setQueueCapacity(10000)
+				.setPriorityLaneCapacity(HitPriority.LOW, 2)), ga.getConfig());
+		assertTrue(queue.offer(hit(new PageViewHit())));
+		assertTrue(queue.offer(hit(new PageViewHit())));
+		assertFalse(queue.offer(hit(new PageViewHit())));
+		assertTrue(queue.offer(hit(new EventHit())));
+		assertEquals(9997, queue.remainingCapacity());
+		assertEquals(3, queue.size());
+	}
+
+	@Test
+	public void testTransactionsOvertakePageViews() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setQueueCapacity(5));
+		ga.postAsync(new PageViewHit());
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		for (int i = 0; i < 5; i++) {
+			ga.postAsync(new PageViewHit());
+		}
+		Future<GoogleAnalyticsResponse> transaction = ga.postAsync(new TransactionHit());
+		Future<GoogleAnalyticsResponse> dropped = ga.postAsync(new PageViewHit());
+
+		//Oldest page view made room for the transaction
+		assertTrue(dropped.isCancelled());
+		assertEquals(2, ga.getStats().getDroppedHits());
+
+		release.countDown();
+		transaction.get(5, TimeUnit.SECONDS);
+		ga.getExecutor().shutdown();
+		ga.getExecutor().awaitTermination(5, TimeUnit.SECONDS);
+
+		assertEquals(6, ga.getSent("t").size());
+		assertEquals("pageview", ga.getSent("t").get(0));
+		assertEquals("transaction", ga.getSent("t").get(1));
+	}
+
+	@Test
+	public void testDropOldestInLane() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setQueueCapacity(2).setQueueOverflowPolicy(QueueOverflowPolicy.DROP_OLDEST));
+		ga.postAsync(new PageViewHit());
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		Future<GoogleAnalyticsResponse> oldest = ga.postAsync(new TransactionHit());
+		Future<GoogleAnalyticsResponse> item = ga.postAsync(new ItemHit());
+		Future<GoogleAnalyticsResponse> newest = ga.postAsync(new ItemHit());
+		//Never makes room by dropping hits of higher lanes
+		Future<GoogleAnalyticsResponse> pageView = ga.postAsync(new PageViewHit());
+
+		assertTrue(oldest.isCancelled());
+		assertFalse(item.isCancelled());
+		assertFalse(newest.isCancelled());
+		assertTrue(pageView.isCancelled());
+		assertEquals(2, ga.getStats().getDroppedHits());
+	}
+}
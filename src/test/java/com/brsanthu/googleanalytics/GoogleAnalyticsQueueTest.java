@@ -0,0 +1,191 @@
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class GoogleAnalyticsQueueTest {
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+	private final AtomicInteger sent = new AtomicInteger();
+	private final AtomicInteger sentByCaller = new AtomicInteger();
+	private final Thread caller = Thread.currentThread();
+	private GoogleAnalytics ga = null;
+
+	private GoogleAnalytics createAnalytics(GoogleAnalyticsConfig config) {
+		ga = new RecordingGoogleAnalytics(config) {
+			@Override
+			protected void onSend(GoogleAnalyticsResponse response, Map<String, String> postParms) throws IOException {
+				if (Thread.currentThread() == caller) {
+					sentByCaller.incrementAndGet();
+					return;
+				}
+				int current = inFlight.incrementAndGet();
+				if (current > maxInFlight.get()) {
+					maxInFlight.set(current);
+				}
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				inFlight.decrementAndGet();
+				sent.incrementAndGet();
+			}
+		};
+		return ga;
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		ga.close();
+	}
+
+	private void awaitInFlight(int count) throws InterruptedException {
+		for (int i = 0; i < 500 && inFlight.get() < count; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, inFlight.get());
+	}
+
+	@Test
+	public void testScalesToMaxThreads() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setMaxThreads(4));
+		for (int i = 0; i < 8; i++) {
+			ga.postAsync(new PageViewHit());
+		}
+
+		awaitInFlight(4);
+		release.countDown();
+		ga.getExecutor().shutdown();
+		ga.getExecutor().awaitTermination(5, TimeUnit.SECONDS);
+		assertEquals(4, maxInFlight.get());
+		assertEquals(8, sent.get());
+	}
+
+	@Test
+	public void testDropNewest() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setQueueCapacity(2).setQueueOverflowPolicy(QueueOverflowPolicy.DROP_NEWEST));
+		ga.postAsync(new PageViewHit());
+		awaitInFlight(1);
+		Future<GoogleAnalyticsResponse> queued = ga.postAsync(new PageViewHit());
+		ga.postAsync(new PageViewHit());
+		Future<GoogleAnalyticsResponse> dropped = ga.postAsync(new PageViewHit());
+
+		assertTrue(dropped.isCancelled());
+		assertFalse(queued.isCancelled());
+		assertEquals(1, ga.getStats().getDroppedHits());
+	}
+
+	@Test
+	public void testDropOldest() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setQueueCapacity(2).setQueueOverflowPolicy(QueueOverflowPolicy.DROP_OLDEST));
+		ga.postAsync(new PageViewHit());
+		awaitInFlight(1);
+		Future<GoogleAnalyticsResponse> oldest = ga.postAsync(new PageViewHit());
+		ga.postAsync(new PageViewHit());
+		Future<GoogleAnalyticsResponse> newest = ga.postAsync(new PageViewHit());
+
+		assertTrue(oldest.isCancelled());
+		assertFalse(newest.isCancelled());
+		assertEquals(1, ga.getStats().getDroppedHits());
+	}
+
+	@Test
+	public void testBlockWithTimeout() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setQueueCapacity(1).setQueueOverflowPolicy(QueueOverflowPolicy.BLOCK).setQueueBlockTimeout(50));
+		ga.postAsync(new PageViewHit());
+		awaitInFlight(1);
+		ga.postAsync(new PageViewHit());
+
+		long start = System.currentTimeMillis();
+		Future<GoogleAnalyticsResponse> dropped = ga.postAsync(new PageViewHit());
+		assertTrue(System.currentTimeMillis() - start >= 40);
+		assertTrue(dropped.isCancelled());
+		assertEquals(1, ga.getStats().getDroppedHits());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testBlockUntilShutdown() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setQueueCapacity(1).setQueueOverflowPolicy(QueueOverflowPolicy.BLOCK).setQueueBlockTimeout(5000));
+		ga.postAsync(new PageViewHit());
+		awaitInFlight(1);
+		ga.postAsync(new PageViewHit());
+
+		final Future<GoogleAnalyticsResponse>[] blocked = new Future[1];
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				blocked[0] = ga.postAsync(new PageViewHit());
+			}
+		};
+		producer.start();
+		for (int i = 0; i < 500 && producer.getState() != Thread.State.TIMED_WAITING; i++) {
+			Thread.sleep(10);
+		}
+
+		//Room is made only after the executor is shut down
+		ga.getExecutor().shutdown();
+		ga.getExecutor().getQueue().poll();
+		producer.join(5000);
+		assertTrue(blocked[0].isCancelled());
+		assertEquals(1, ga.getStats().getDroppedHits());
+		assertTrue(ga.getExecutor().getQueue().isEmpty());
+	}
+
+	@Test
+	public void testCallerRuns() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setQueueCapacity(1).setQueueOverflowPolicy(QueueOverflowPolicy.CALLER_RUNS));
+		ga.postAsync(new PageViewHit());
+		awaitInFlight(1);
+		ga.postAsync(new PageViewHit());
+
+		Future<GoogleAnalyticsResponse> future = ga.postAsync(new PageViewHit());
+		assertTrue(future.isDone());
+		assertEquals(1, sentByCaller.get());
+		assertEquals(0, ga.getStats().getDroppedHits());
+	}
+
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void testSend() throws Exception {
+		final AtomicInteger succeeded = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		createAnalytics(new GoogleAnalyticsConfig().setQueueCapacity(1).setSendCallback(new GoogleAnalyticsCallback() {
+			@Override
+			public void onSuccess(GoogleAnalyticsRequest request, GoogleAnalyticsResponse response) {
+				succeeded.incrementAndGet();
+			}
+
+			@Override
+			public void onFailure(GoogleAnalyticsRequest request, Throwable error) {
+				failed.incrementAndGet();
+			}
+		}));
+		ga.send(new PageViewHit());
+		awaitInFlight(1);
+		ga.send(new PageViewHit());
+		ga.send(new PageViewHit());
+		assertEquals(1, failed.get());
+
+		release.countDown();
+		ga.getExecutor().shutdown();
+		ga.getExecutor().awaitTermination(5, TimeUnit.SECONDS);
+		assertEquals(2, succeeded.get());
+		assertEquals(2, sent.get());
+	}
+}
@@ -0,0 +1,132 @@
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class GoogleAnalyticsRateLimiterTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void testClientIdLimit() throws Exception {
+		HitRateLimiter limiter = new HitRateLimiter(new GoogleAnalyticsConfig().setClientIdRateLimit(2).setClientIdRateBurst(3));
+		long now = 0;
+
+		for (int i = 0; i < 3; i++) {
+			assertTrue(limiter.tryAcquire("UA-1", "a", now));
+		}
+		assertFalse(limiter.tryAcquire("UA-1", "a", now));
+		//Other clients have their own bucket
+		assertTrue(limiter.tryAcquire("UA-1", "b", now));
+
+		//Refilled at 2 tokens per second
+		assertTrue(limiter.tryAcquire("UA-1", "a", now + SECOND / 2));
+		assertFalse(limiter.tryAcquire("UA-1", "a", now + SECOND / 2));
+		assertTrue(limiter.tryAcquire("UA-1", "a", now + 3 * SECOND / 2));
+		assertTrue(limiter.tryAcquire("UA-1", "a", now + 3 * SECOND / 2));
+		assertFalse(limiter.tryAcquire("UA-1", "a", now + 3 * SECOND / 2));
+
+		//Never more than the burst, however long it was idle
+		for (int i = 0; i < 3; i++) {
+			assertTrue(limiter.tryAcquire("UA-1", "a", now + 100 * SECOND));
+		}
+		assertFalse(limiter.tryAcquire("UA-1", "a", now + 100 * SECOND));
+	}
+
+	@Test
+	public void testTrackingIdLimit() throws Exception {
+		HitRateLimiter limiter = new HitRateLimiter(new GoogleAnalyticsConfig().setTrackingIdRateLimit(1).setTrackingIdRateBurst(2)
+				.setClientIdRateLimit(1).setClientIdRateBurst(2));
+
+		assertTrue(limiter.tryAcquire("UA-1", "a", 0));
+		assertTrue(limiter.tryAcquire("UA-1", "b", 0));
+		assertFalse(limiter.tryAcquire("UA-1", "c", 0));
+		assertTrue(limiter.tryAcquire("UA-2", "c", 0));
+
+		//Token of the client is given back when the tracking id is throttled
+		assertTrue(limiter.tryAcquire("UA-3", "c", 0));
+		assertFalse(limiter.tryAcquire("UA-3", "c", 0));
+	}
+
+	@Test
+	public void testIdleClientIdsExpire() throws Exception {
+		HitRateLimiter limiter = new HitRateLimiter(new GoogleAnalyticsConfig().setClientIdRateLimit(10).setClientIdRateBurst(1)
+				.setMaxRateLimitedClientIds(100));
+
+		for (int i = 0; i < 100; i++) {
+			assertTrue(limiter.tryAcquire("UA-1", "client" + i, 0));
+		}
+		assertEquals(100, limiter.getClientIdCount());
+
+		//Too many busy clients, new one is not limited
+		assertTrue(limiter.tryAcquire("UA-1", "new", 0));
+		assertTrue(limiter.tryAcquire("UA-1", "new", 0));
+		assertEquals(100, limiter.getClientIdCount());
+
+		//Once the others are idle, they are swept away
+		assertTrue(limiter.tryAcquire("UA-1", "new", 2 * SECOND));
+		assertEquals(1, limiter.getClientIdCount());
+		assertFalse(limiter.tryAcquire("UA-1", "new", 2 * SECOND));
+	}
+
+	@Test
+	public void testConcurrentAcquire() throws Exception {
+		final HitRateLimiter limiter = new HitRateLimiter(new GoogleAnalyticsConfig().setTrackingIdRateLimit(0.001).setTrackingIdRateBurst(1000));
+		final AtomicInteger acquired = new AtomicInteger();
+		final long now = System.nanoTime();
+
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						if (limiter.tryAcquire("UA-1", null, now)) {
+							acquired.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(1000, acquired.get());
+	}
+
+	@Test
+	public void testThrottledHits() throws Exception {
+		final List<String> sent = new CopyOnWriteArrayList<String>();
+		GoogleAnalytics ga = new GoogleAnalytics(new GoogleAnalyticsConfig().setClientIdRateLimit(0.01).setClientIdRateBurst(2), "UA-1") {
+			@Override
+			protected void createClient() {
+			}
+
+			@Override
+			protected void sendRequest(GoogleAnalyticsResponse response, Map<String, String> postParms) {
+				sent.add(postParms.get("cid"));
+			}
+		};
+
+		assertEquals(200, ga.post(new PageViewHit().clientId("a")).getStatusCode());
+		assertEquals(200, ga.post(new PageViewHit().clientId("a")).getStatusCode());
+		assertEquals(429, ga.post(new PageViewHit().clientId("a")).getStatusCode());
+		//Client id of the default request
+		assertEquals(200, ga.post(new PageViewHit()).getStatusCode());
+
+		assertEquals(3, sent.size());
+		assertEquals(1, ga.getStats().getThrottledHits());
+		ga.close();
+	}
+}
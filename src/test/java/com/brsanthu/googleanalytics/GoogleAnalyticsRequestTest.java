@@ -2,6 +2,9 @@ package com.brsanthu.googleanalytics;
 
 import static org.junit.Assert.*;
 
+import java.util.Iterator;
+import java.util.Map;
+
 import org.junit.Test;
 
 public class GoogleAnalyticsRequestTest {
@@ -20,4 +23,59 @@ public class GoogleAnalyticsRequestTest {
 		assertEquals("1234567890", pageViewHit.expirementId());
 		assertEquals("some variation", pageViewHit.expirementVariant());
 	}
+
+	@Test
+	public void testParametersView() throws Exception {
+		PageViewHit request = new PageViewHit().documentTitle("Title").userId("user1");
+		Map<GoogleAnalyticsParameter, String> parms = request.getParameters();
+
+		assertEquals("Title", parms.get(GoogleAnalyticsParameter.DOCUMENT_TITLE));
+		assertEquals(4, parms.size());
+		assertTrue(parms.containsKey(GoogleAnalyticsParameter.HIT_TYPE));
+		assertFalse(parms.containsKey(GoogleAnalyticsParameter.DOCUMENT_URL));
+
+		parms.put(GoogleAnalyticsParameter.DOCUMENT_URL, "http://www.google.com");
+		assertEquals("http://www.google.com", request.documentUrl());
+		assertEquals("user1", parms.remove(GoogleAnalyticsParameter.USER_ID));
+		assertNull(request.userId());
+
+		request.userId(null).screenResolution("800x600");
+		Iterator<Map.Entry<GoogleAnalyticsParameter, String>> iterator = parms.entrySet().iterator();
+		int count = 0;
+		while (iterator.hasNext()) {
+			Map.Entry<GoogleAnalyticsParameter, String> entry = iterator.next();
+			assertEquals(request.parameter(entry.getKey()), entry.getValue());
+			if (entry.getKey() == GoogleAnalyticsParameter.SCREEN_RESOLUTION) {
+				iterator.remove();
+			}
+			count++;
+		}
+		assertEquals(5, count);
+		assertNull(request.screenResolution());
+		assertEquals(4, parms.size());
+	}
+
+	@Test
+	public void testPrimitiveSetters() throws Exception {
+		TransactionHit transaction = new TransactionHit().txRevenue(11.2).txTax(1.005d).txShipping(Double.valueOf(3));
+		assertEquals("11.20", transaction.getParameters().get(GoogleAnalyticsParameter.TRANSACTION_REVENUE));
+		assertEquals("3.00", transaction.getParameters().get(GoogleAnalyticsParameter.TRANSACTION_SHIPPING));
+		assertEquals(Double.valueOf(11.2), transaction.txRevenue());
+
+		EventHit event = new EventHit().eventValue(55);
+		assertEquals(Integer.valueOf(55), event.eventValue());
+		event.eventValue((Integer) null);
+		assertNull(event.eventValue());
+		assertFalse(event.getParameters().containsKey(GoogleAnalyticsParameter.EVENT_VALUE));
+
+		ExceptionHit exception = new ExceptionHit().exceptionFatal(false);
+		assertEquals(Boolean.FALSE, exception.exceptionFatal());
+		exception.getParameters().put(GoogleAnalyticsParameter.EXCEPTION_FATAL, "true");
+		assertEquals(Boolean.TRUE, exception.exceptionFatal());
+
+		TimingHit timing = new TimingHit().userTimingTime(120).pageLoadTime(-1);
+		Map<String, String> parms = GoogleAnalyticsEncoder.decode(GoogleAnalyticsEncoder.encode(timing, new EncodedDefaultRequest(new DefaultRequest())));
+		assertEquals("120", parms.get("utt"));
+		assertEquals("-1", parms.get("plt"));
+	}
 }
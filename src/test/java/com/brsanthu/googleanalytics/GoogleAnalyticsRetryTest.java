@@ -0,0 +1,205 @@
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GoogleAnalyticsRetryTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final AtomicInteger failures = new AtomicInteger();
+	private RecordingGoogleAnalytics ga = null;
+
+	@After
+	public void tearDown() {
+		if (ga != null) {
+			ga.close();
+		}
+	}
+
+	private RecordingGoogleAnalytics create(GoogleAnalyticsConfig config) {
+		return new RecordingGoogleAnalytics(config) {
+			@Override
+			protected void onSend(GoogleAnalyticsResponse response, Map<String, String> postParms) throws IOException {
+				if (failures.getAndDecrement() > 0) {
+					throw new IOException("Connection reset");
+				}
+			}
+		};
+	}
+
+	private static void await(long expected, GoogleAnalyticsStats stats, String stat) throws Exception {
+		for (int i = 0; i < 500 && value(stats, stat) < expected; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(expected, value(stats, stat));
+	}
+
+	private static long value(GoogleAnalyticsStats stats, String stat) throws Exception {
+		return ((Long) GoogleAnalyticsStats.class.getMethod(stat).invoke(stats)).longValue();
+	}
+
+	private static class TestEntry extends HashedTimingWheel.Entry {
+		final String name;
+
+		TestEntry(String name) {
+			this.name = name;
+		}
+	}
+
+	private static List<String> names(HashedTimingWheel.Entry entry) {
+		List<String> names = new ArrayList<String>();
+		for (; entry != null; entry = entry.next) {
+			names.add(((TestEntry) entry).name);
+		}
+		Collections.sort(names);
+		return names;
+	}
+
+	@Test
+	public void testTimingWheel() throws Exception {
+		HashedTimingWheel wheel = new HashedTimingWheel(1000, 10, 6);
+		wheel.schedule(new TestEntry("a"), 1025);
+		wheel.schedule(new TestEntry("b"), 1030);
+		//Beyond one revolution (8 ticks) of the wheel, in the same bucket as "b"
+		wheel.schedule(new TestEntry("c"), 1110);
+		wheel.schedule(new TestEntry("d"), 900);
+		assertEquals(4, wheel.size());
+
+		assertEquals("[d]", names(wheel.advance(1000)).toString());
+		assertNull(wheel.advance(1020));
+		assertEquals("[a, b]", names(wheel.advance(1035)).toString());
+		assertNull(wheel.advance(1100));
+		assertEquals("[c]", names(wheel.advance(1200)).toString());
+		assertEquals(0, wheel.size());
+
+		wheel.schedule(new TestEntry("e"), 5000);
+		wheel.schedule(new TestEntry("f"), 5000);
+		assertEquals("[e, f]", names(wheel.clear()).toString());
+		assertNull(wheel.advance(6000));
+	}
+
+	@Test
+	public void testDelay() throws Exception {
+		HitRetrier retrier = new HitRetrier(null, new GoogleAnalyticsConfig().setRetryBaseDelay(1000).setRetryMaxDelay(60000), null);
+		for (int i = 0; i < 100; i++) {
+			long delay = retrier.delay(0);
+			assertTrue(delay + "", delay >= 500 && delay <= 1000);
+			delay = retrier.delay(3);
+			assertTrue(delay + "", delay >= 4000 && delay <= 8000);
+			delay = retrier.delay(40);
+			assertTrue(delay + "", delay >= 30000 && delay <= 60000);
+		}
+	}
+
+	@Test
+	public void testRetry() throws Exception {
+		ga = create(new GoogleAnalyticsConfig().setMaxRetries(3).setRetryBaseDelay(100));
+		failures.set(2);
+
+		ga.post(new PageViewHit().documentPath("/a"));
+		await(2, ga.getStats(), "getRetriedHits");
+		for (int i = 0; i < 500 && ga.getSent().isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+
+		assertEquals(1, ga.getSent().size());
+		Map<String, String> hit = ga.getSent().get(0);
+		assertEquals("/a", hit.get("dp"));
+		assertTrue(hit.toString(), Long.parseLong(hit.get("qt")) >= 100);
+		assertEquals(0, ga.getStats().getDroppedHits());
+	}
+
+	@Test
+	public void testRetriesExhausted() throws Exception {
+		File directory = new File(folder.getRoot(), "spool");
+		ga = create(new GoogleAnalyticsConfig().setMaxRetries(2).setRetryBaseDelay(100).setSpoolDirectory(directory.getPath())
+				.setSpoolReplayInterval(0));
+		failures.set(Integer.MAX_VALUE);
+
+		ga.post(new PageViewHit().documentPath("/a"));
+		await(1, ga.getStats(), "getSpooledHits");
+		assertEquals(2, ga.getStats().getRetriedHits());
+
+		failures.set(0);
+		assertEquals(1, ga.replaySpool());
+		assertEquals(1, ga.getSent().size());
+	}
+
+	@Test
+	public void testRetriesWithoutSpool() throws Exception {
+		ga = create(new GoogleAnalyticsConfig().setMaxRetries(1).setRetryBaseDelay(100));
+		failures.set(Integer.MAX_VALUE);
+
+		ga.post(new PageViewHit().documentPath("/a"));
+		await(1, ga.getStats(), "getDroppedHits");
+		assertEquals(1, ga.getStats().getRetriedHits());
+		assertTrue(ga.getSent().isEmpty());
+	}
+
+	@Test
+	public void testRetryNotSentWhenQueueIsFull() throws Exception {
+		File directory = new File(folder.getRoot(), "spool");
+		final CountDownLatch sending = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		ga = new RecordingGoogleAnalytics(new GoogleAnalyticsConfig().setMaxThreads(1).setQueueCapacity(1)
+				.setQueueOverflowPolicy(QueueOverflowPolicy.CALLER_RUNS).setMaxRetries(3).setRetryBaseDelay(100)
+				.setSpoolDirectory(directory.getPath()).setSpoolReplayInterval(0)) {
+			@Override
+			protected void onSend(GoogleAnalyticsResponse response, Map<String, String> postParms) throws IOException {
+				if ("/blocked".equals(postParms.get("dp"))) {
+					sending.countDown();
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				} else if (failures.getAndDecrement() > 0) {
+					throw new IOException("Connection reset");
+				}
+			}
+		};
+		ga.postAsync(new PageViewHit().documentPath("/blocked"));
+		assertTrue(sending.await(5, TimeUnit.SECONDS));
+		ga.postAsync(new PageViewHit().documentPath("/queued"));
+
+		//Scheduler thread neither sends the retry itself nor waits for room in the queue
+		failures.set(1);
+		ga.post(new PageViewHit().documentPath("/a"));
+		await(1, ga.getStats(), "getSpooledHits");
+		assertEquals(0, ga.getStats().getRetriedHits());
+		release.countDown();
+	}
+
+	@Test
+	public void testCloseSpoolsPendingRetries() throws Exception {
+		File directory = new File(folder.getRoot(), "spool");
+		ga = create(new GoogleAnalyticsConfig().setMaxRetries(5).setRetryBaseDelay(60000).setSpoolDirectory(directory.getPath())
+				.setSpoolReplayInterval(0));
+		failures.set(1);
+
+		ga.post(new PageViewHit().documentPath("/a"));
+		assertEquals(0, ga.getStats().getSpooledHits());
+		ga.close();
+		assertEquals(1, ga.getStats().getSpooledHits());
+		assertEquals(0, ga.getStats().getRetriedHits());
+		ga = null;
+	}
+}
@@ -0,0 +1,115 @@
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class GoogleAnalyticsSamplerTest {
+
+	@Test
+	public void testHashIsDeterministic() throws Exception {
+		assertEquals(HitSampler.hash("35009a79-1a05-49d7-b876-2b884d0f825b"), HitSampler.hash("35009a79-1a05-49d7-b876-2b884d0f825b"));
+		assertTrue(HitSampler.hash("1") != HitSampler.hash("2"));
+	}
+
+	@Test
+	public void testSampleRate() throws Exception {
+		int sampled = 0;
+		for (int i = 0; i < 100000; i++) {
+			if (HitSampler.isSampled(UUID.randomUUID().toString(), 0.25)) {
+				sampled++;
+			}
+		}
+		assertEquals(25000, sampled, 1000);
+
+		//Sequential ids are spread evenly too
+		sampled = 0;
+		for (int i = 0; i < 100000; i++) {
+			if (HitSampler.isSampled(String.valueOf(i), 0.1)) {
+				sampled++;
+			}
+		}
+		assertEquals(10000, sampled, 600);
+
+		assertTrue(HitSampler.isSampled("any", 1));
+		assertFalse(HitSampler.isSampled("any", 0));
+	}
+
+	@Test
+	public void testLowerRatesKeepSubsetOfUsers() throws Exception {
+		HitSampler sampler = new HitSampler(new GoogleAnalyticsConfig().setTrackingIdSampleRate("UA-1", 0.5)
+				.setHitTypeSampleRate("pageview", 0.2), null);
+
+		int events = 0;
+		int pageViews = 0;
+		for (int i = 0; i < 10000; i++) {
+			String clientId = "client" + i;
+			boolean event = sampler.isSampled("UA-1", clientId, "event");
+			boolean pageView = sampler.isSampled("UA-1", clientId, "pageview");
+			if (pageView) {
+				assertTrue(event);
+				pageViews++;
+			}
+			if (event) {
+				events++;
+			}
+			//Other tracking ids are not sampled
+			assertTrue(sampler.isSampled("UA-2", clientId, "event"));
+		}
+		assertEquals(5000, events, 300);
+		assertEquals(2000, pageViews, 200);
+
+		assertTrue(sampler.isSampled("UA-1", null, "event"));
+	}
+
+	@Test
+	public void testSampledOutHitsAreNotSent() throws Exception {
+		final List<String> sent = new CopyOnWriteArrayList<String>();
+		GoogleAnalyticsConfig config = new GoogleAnalyticsConfig().setSampleRate(0.5);
+		GoogleAnalytics ga = new GoogleAnalytics(config, "UA-1") {
+			@Override
+			protected void createClient() {
+			}
+
+			@Override
+			protected void sendRequest(GoogleAnalyticsResponse response, Map<String, String> postParms) {
+				sent.add(postParms.get("cid"));
+			}
+		};
+
+		String in = null;
+		String out = null;
+		for (int i = 0; in == null || out == null; i++) {
+			String clientId = "client" + i;
+			if (HitSampler.isSampled(clientId, 0.5)) {
+				in = clientId;
+			} else {
+				out = clientId;
+			}
+		}
+
+		for (int i = 0; i < 3; i++) {
+			ga.post(new PageViewHit().clientId(in));
+			ga.post(new EventHit().clientId(out));
+		}
+		Future<GoogleAnalyticsResponse> future = ga.postAsync(new PageViewHit().clientId(out));
+		assertTrue(future.isDone());
+		ga.postAsync(new PageViewHit().clientId(in)).get(5, TimeUnit.SECONDS);
+
+		assertEquals(4, sent.size());
+		for (String clientId : sent) {
+			assertEquals(in, clientId);
+		}
+		assertEquals(4, ga.getStats().getSampledOutHits());
+		ga.close();
+	}
+}
@@ -0,0 +1,146 @@
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class GoogleAnalyticsSinkTest {
+
+	private final AtomicInteger sending = new AtomicInteger();
+	private final AtomicInteger maxSending = new AtomicInteger();
+	private RecordingGoogleAnalytics ga = null;
+
+	@After
+	public void tearDown() {
+		ga.close();
+	}
+
+	private GoogleAnalytics createAnalytics(GoogleAnalyticsConfig config) {
+		ga = new RecordingGoogleAnalytics(config) {
+			@Override
+			protected void onSend(GoogleAnalyticsResponse response, Map<String, String> postParms) throws IOException {
+				int current = sending.incrementAndGet();
+				if (current > maxSending.get()) {
+					maxSending.set(current);
+				}
+				try {
+					Thread.sleep(2);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				sending.decrementAndGet();
+				if ("fail".equals(postParms.get("ea"))) {
+					throw new IOException("Failed");
+				}
+			}
+		};
+		return ga;
+	}
+
+	/**
+	 * Upstream which publishes the hits as they are requested.
+	 */
+	private static class TestUpstream implements GoogleAnalyticsSink.Upstream {
+		private final GoogleAnalyticsSink sink;
+		private final int total;
+		private final AtomicLong requested = new AtomicLong();
+		private final AtomicInteger published = new AtomicInteger();
+		private volatile boolean cancelled = false;
+		private long maxOutstanding = 0;
+
+		TestUpstream(GoogleAnalyticsSink sink, int total) {
+			this.sink = sink;
+			this.total = total;
+		}
+
+		@Override
+		public synchronized void request(long count) {
+			requested.addAndGet(count);
+			maxOutstanding = Math.max(maxOutstanding, requested.get() - published.get());
+			notifyAll();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+
+		void publish() throws InterruptedException {
+			while (published.get() < total && !cancelled) {
+				synchronized (this) {
+					while (requested.get() == published.get()) {
+						wait();
+					}
+				}
+				int i = published.getAndIncrement();
+				sink.onNext(new EventHit("category", i % 10 == 9 ? "fail" : "action"));
+			}
+			sink.onComplete();
+		}
+	}
+
+	@Test
+	public void testDemand() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setMaxThreads(8));
+		final List<Object> outcomes = new ArrayList<Object>();
+		final CountDownLatch done = new CountDownLatch(1);
+		GoogleAnalyticsSink sink = new GoogleAnalyticsSink(ga, 3) {
+			@Override
+			@SuppressWarnings("rawtypes")
+			protected synchronized void onResponse(GoogleAnalyticsRequest request, GoogleAnalyticsResponse response) {
+				outcomes.add(response);
+			}
+
+			@Override
+			@SuppressWarnings("rawtypes")
+			protected synchronized void onFailure(GoogleAnalyticsRequest request, Throwable error) {
+				outcomes.add(error);
+			}
+
+			@Override
+			protected void onDone(Throwable error) {
+				assertNull(error);
+				done.countDown();
+			}
+		};
+
+		TestUpstream upstream = new TestUpstream(sink, 100);
+		sink.onSubscribe(upstream);
+		upstream.publish();
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(90, ga.getSent().size());
+		assertEquals(100, outcomes.size());
+		assertEquals(0, sink.getInFlight());
+		assertTrue(upstream.maxOutstanding <= 3);
+		assertTrue(maxSending.get() <= 3);
+	}
+
+	@Test
+	public void testSecondUpstreamIsCancelled() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setMaxThreads(2));
+		GoogleAnalyticsSink sink = new GoogleAnalyticsSink(ga);
+		assertEquals(2, sink.getMaxInFlight());
+
+		TestUpstream first = new TestUpstream(sink, 0);
+		TestUpstream second = new TestUpstream(sink, 0);
+		sink.onSubscribe(first);
+		sink.onSubscribe(second);
+		assertFalse(first.cancelled);
+		assertTrue(second.cancelled);
+		assertEquals(2, first.requested.get());
+	}
+}
@@ -0,0 +1,161 @@
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GoogleAnalyticsSpoolTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<String> sent = new ArrayList<String>();
+	private boolean down = false;
+
+	private final HitSpool.Sender sender = new HitSpool.Sender() {
+		@Override
+		public void send(GoogleAnalyticsPayload payload, int hits) throws IOException {
+			if (down) {
+				throw new IOException("GA is down");
+			}
+			sent.add(payload.toString());
+		}
+	};
+
+	private final GoogleAnalytics ga = new RecordingGoogleAnalytics(new GoogleAnalyticsConfig());
+
+	@After
+	public void tearDown() {
+		ga.close();
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(GoogleAnalytics.UTF8);
+	}
+
+	private static void store(HitSpool spool, String hit, long timestamp) {
+		byte[] bytes = bytes(hit);
+		assertTrue(spool.store(bytes, 0, bytes.length, timestamp));
+	}
+
+	@Test
+	public void testAppendWithQueueTime() throws Exception {
+		GoogleAnalyticsPayload payload = new GoogleAnalyticsPayload(16);
+		byte[] hit = bytes("v=1&qt=500&t=event");
+		assertEquals(1500, HitSpool.appendWithQueueTime(payload, hit, hit.length, 1000));
+		assertEquals("v=1&t=event&qt=1500", payload.toString());
+
+		payload.reset();
+		hit = bytes("v=1&qtx=1");
+		assertEquals(20, HitSpool.appendWithQueueTime(payload, hit, hit.length, 20));
+		assertEquals("v=1&qtx=1&qt=20", payload.toString());
+	}
+
+	@Test
+	public void testReplay() throws Exception {
+		HitSpool spool = new HitSpool(folder.getRoot(), 1024, 64 * 1024, ga);
+		long now = System.currentTimeMillis();
+		store(spool, "t=pageview&dp=%2Fa", now - 60000);
+		store(spool, "t=pageview&dp=%2Fb", now);
+		store(spool, "t=pageview&dp=%2Fold", now - HitSpool.MAX_QUEUE_TIME - 1000);
+		assertEquals(3, ga.getStats().getSpooledHits());
+
+		down = true;
+		assertEquals(0, spool.replay(sender, 20, 16 * 1024));
+		assertFalse(spool.isEmpty());
+
+		//Stored while replaying is attempted
+		store(spool, "t=pageview&dp=%2Fc", now);
+
+		down = false;
+		assertEquals(3, spool.replay(sender, 2, 16 * 1024));
+		assertEquals(2, sent.size());
+		assertTrue(sent.get(0), sent.get(0).matches("t=pageview&dp=%2Fa&qt=6\\d{4}\nt=pageview&dp=%2Fb&qt=\\d+"));
+		assertTrue(sent.get(1), sent.get(1).startsWith("t=pageview&dp=%2Fc&qt="));
+		assertEquals(3, ga.getStats().getReplayedHits());
+		assertEquals(1, ga.getStats().getDroppedHits());
+		assertTrue(spool.isEmpty());
+		spool.close();
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testCountsAfterStatsReset() throws Exception {
+		HitSpool spool = new HitSpool(folder.getRoot(), 1024, 64 * 1024, ga);
+		store(spool, "t=event&ea=1", System.currentTimeMillis());
+		ga.resetStats();
+		store(spool, "t=event&ea=2", System.currentTimeMillis());
+		assertEquals(1, ga.getStats().getSpooledHits());
+
+		assertEquals(2, spool.replay(sender, 20, 8 * 1024));
+		assertEquals(2, ga.getStats().getReplayedHits());
+		spool.close();
+	}
+
+	@Test
+	public void testSurvivesRestart() throws Exception {
+		HitSpool spool = new HitSpool(folder.getRoot(), 1024, 64 * 1024, ga);
+		store(spool, "t=event&ea=1", System.currentTimeMillis());
+		store(spool, "t=event&ea=2", System.currentTimeMillis());
+		spool.close();
+
+		spool = new HitSpool(folder.getRoot(), 1024, 64 * 1024, ga);
+		assertFalse(spool.isEmpty());
+		assertEquals(2, spool.replay(sender, 1, 8 * 1024));
+		assertEquals("[t=event&ea=1&qt=0, t=event&ea=2&qt=0]", sent.toString().replaceAll("qt=\\d+", "qt=0"));
+		spool.close();
+	}
+
+	@Test
+	public void testSizeLimit() throws Exception {
+		//Two segments of two hits each
+		HitSpool spool = new HitSpool(folder.getRoot(), 2 * (HitSpool.HEADER_BYTES + 10), 1, ga);
+		for (int i = 0; i < 6; i++) {
+			store(spool, "t=event&e" + i, System.currentTimeMillis());
+		}
+		assertEquals(2, folder.getRoot().list().length);
+		assertEquals(2, ga.getStats().getDroppedHits());
+
+		assertEquals(4, spool.replay(sender, 1, 8 * 1024));
+		assertTrue(sent.get(0).startsWith("t=event&e2&"));
+		spool.close();
+	}
+
+	@Test
+	public void testSpoolsFailedHits() throws Exception {
+		File directory = new File(folder.getRoot(), "spool");
+		GoogleAnalytics failing = new RecordingGoogleAnalytics(new GoogleAnalyticsConfig().setSpoolDirectory(directory.getPath()).setSpoolReplayInterval(0)) {
+			@Override
+			protected void onSend(GoogleAnalyticsResponse response, Map<String, String> postParms) throws IOException {
+				if (down) {
+					throw new IOException("Couldn't connect");
+				}
+				sent.add(postParms.get("dp") + " " + postParms.get("qt"));
+			}
+		};
+
+		down = true;
+		failing.post(new PageViewHit().documentPath("/a"));
+		failing.post(new PageViewHit().documentPath("/b").queueTime(Integer.valueOf(1000000)));
+		assertEquals(2, failing.getStats().getSpooledHits());
+		assertEquals(0, failing.replaySpool());
+
+		down = false;
+		assertEquals(2, failing.replaySpool());
+		assertEquals(2, sent.size());
+		assertTrue(sent.get(0), sent.get(0).matches("/a \\d+"));
+		assertTrue(sent.get(1), Long.parseLong(sent.get(1).substring(3)) >= 1000000);
+		failing.close();
+	}
+}
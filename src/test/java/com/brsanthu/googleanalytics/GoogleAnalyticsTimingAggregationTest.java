@@ -0,0 +1,129 @@
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class GoogleAnalyticsTimingAggregationTest {
+
+	private RecordingGoogleAnalytics ga = null;
+
+	private GoogleAnalytics createAnalytics(GoogleAnalyticsConfig config) {
+		ga = new RecordingGoogleAnalytics(config.setTimingAggregationEnabled(true));
+		return ga;
+	}
+
+	@After
+	public void tearDown() {
+		if (ga != null) {
+			ga.close();
+		}
+	}
+
+	private TimingHit timing(String variable, String label, int time) {
+		return new TimingHit().userTimingCategory("backend").userTimingVariableName(variable).userTimingLabel(label)
+				.userTimingTime(time);
+	}
+
+	@Test
+	public void testBuckets() throws Exception {
+		for (int i = 0; i < 16; i++) {
+			assertEquals(i, TimingAggregator.Histogram.bucket(i));
+			assertEquals(i, TimingAggregator.Histogram.value(i));
+		}
+		int previous = 15;
+		for (long time = 16; time <= Integer.MAX_VALUE; time += 1 + time / 7) {
+			int bucket = TimingAggregator.Histogram.bucket(time);
+			assertTrue(bucket >= previous);
+			previous = bucket;
+			long value = TimingAggregator.Histogram.value(bucket);
+			assertEquals(time, value, time / 16.0);
+			assertEquals(bucket, TimingAggregator.Histogram.bucket(value));
+		}
+		assertEquals(0, TimingAggregator.Histogram.bucket(-5));
+	}
+
+	@Test
+	public void testPercentiles() throws Exception {
+		TimingAggregator.Histogram histogram = new TimingAggregator.Histogram(timing("db", null, 0), "UA-1", "c1", 0);
+		assertEquals(0, histogram.percentile(50));
+		for (int time = 1000; time > 0; time--) {
+			histogram.record(time);
+		}
+		assertEquals(1000, histogram.count());
+		assertEquals(500, histogram.percentile(50), 500 / 16.0);
+		assertEquals(900, histogram.percentile(90), 900 / 16.0);
+		assertEquals(990, histogram.percentile(99), 990 / 16.0);
+		assertEquals(1, histogram.percentile(0));
+		//Never beyond the recorded times
+		assertEquals(1000, histogram.percentile(100));
+
+		histogram = new TimingAggregator.Histogram(timing("db", null, 0), "UA-1", "c1", 0);
+		histogram.record(12345);
+		assertEquals(12345, histogram.percentile(50));
+		assertEquals(12345, histogram.percentile(99));
+	}
+
+	@Test
+	public void testSummaryHits() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig());
+		for (int time = 1; time <= 100; time++) {
+			ga.send(timing("db", "users", time).clientId("c" + time));
+			ga.postAsync(timing("http", null, 7));
+		}
+		ga.post(new TimingHit().pageLoadTime(10));
+		assertEquals(1, ga.getSent().size());
+		assertEquals(200, ga.getStats().getAggregatedHits());
+
+		assertTrue(ga.flush(5, TimeUnit.SECONDS).isCompleted());
+		assertEquals(7, ga.getSent().size());
+
+		Map<String, String> p50 = ga.findSent("utl", "users p50");
+		assertEquals("timing", p50.get("t"));
+		assertEquals("backend", p50.get("utc"));
+		assertEquals("db", p50.get("utv"));
+		assertEquals("c1", p50.get("cid"));
+		assertEquals(RecordingGoogleAnalytics.TRACKING_ID, p50.get("tid"));
+		assertEquals(50, Integer.parseInt(p50.get("utt")), 4);
+		assertEquals(90, Integer.parseInt(ga.findSent("utl", "users p90").get("utt")), 6);
+		assertEquals(99, Integer.parseInt(ga.findSent("utl", "users p99").get("utt")), 7);
+		assertTrue(p50.containsKey("qt"));
+
+		assertEquals("7", ga.findSent("utl", "p50").get("utt"));
+		assertEquals("7", ga.findSent("utl", "p99").get("utt"));
+
+		ga.flush(5, TimeUnit.SECONDS);
+		assertEquals(7, ga.getSent().size());
+	}
+
+	@Test
+	public void testPercentilesConfig() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setTimingAggregationPercentiles(99.9));
+		ga.send(timing("db", "users", 5));
+		assertTrue(ga.close(5, TimeUnit.SECONDS).isCompleted());
+		assertEquals(1, ga.getSent().size());
+		assertEquals("5", ga.findSent("utl", "users p99.9").get("utt"));
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		createAnalytics(new GoogleAnalyticsConfig().setMaxAggregatedTimings(16).setTimingAggregationPercentiles(100));
+		for (int i = 0; i < 200; i++) {
+			ga.send(timing("v" + (i % 50), null, i));
+		}
+		ga.flush(5, TimeUnit.SECONDS);
+
+		//Each histogram sent early to make room holds the latest times of its variable
+		assertTrue(ga.getSent().size() > 50);
+		int max = 0;
+		for (Map<String, String> hit : ga.getSent()) {
+			max = Math.max(max, Integer.parseInt(hit.get("utt")));
+		}
+		assertEquals(199, max);
+	}
+}
@@ -0,0 +1,73 @@
+package com.brsanthu.googleanalytics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * GoogleAnalytics which records the hits it sends instead of posting them.
+ * Tests which need the hits to block, fail or respond with some status
+ * override {@link #onSend(GoogleAnalyticsResponse, Map)}.
+ */
+public class RecordingGoogleAnalytics extends GoogleAnalytics {
+
+	static final String TRACKING_ID = "UA-1";
+
+	private final List<Map<String, String>> sent = new CopyOnWriteArrayList<Map<String, String>>();
+
+	public RecordingGoogleAnalytics(GoogleAnalyticsConfig config) {
+		super(config, TRACKING_ID);
+	}
+
+	@Override
+	protected void createClient() {
+	}
+
+	@Override
+	protected void sendRequest(GoogleAnalyticsResponse response, Map<String, String> postParms) throws IOException {
+		response.setStatusCode(200);
+		onSend(response, postParms);
+		sent.add(new HashMap<String, String>(postParms));
+	}
+
+	/**
+	 * Called with each hit before it is recorded. Hit is not recorded if this
+	 * throws.
+	 */
+	protected void onSend(GoogleAnalyticsResponse response, Map<String, String> postParms) throws IOException {
+	}
+
+	/**
+	 * @return parameters of the hits sent so far, in the order they were sent.
+	 */
+	public List<Map<String, String>> getSent() {
+		return sent;
+	}
+
+	/**
+	 * @return value of the given parameter of each hit sent so far.
+	 */
+	public List<String> getSent(String parameter) {
+		List<String> values = new ArrayList<String>();
+		for (Map<String, String> hit : sent) {
+			values.add(hit.get(parameter));
+		}
+		return values;
+	}
+
+	/**
+	 * @return the first hit sent with the given parameter value, or null if
+	 *         there is none.
+	 */
+	public Map<String, String> findSent(String parameter, String value) {
+		for (Map<String, String> hit : sent) {
+			if (value.equals(hit.get(parameter))) {
+				return hit;
+			}
+		}
+		return null;
+	}
+}
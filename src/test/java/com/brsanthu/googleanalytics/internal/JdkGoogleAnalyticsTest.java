@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 brsanthu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.brsanthu.googleanalytics.GoogleAnalyticsConfig;
+import com.brsanthu.googleanalytics.GoogleAnalyticsResponse;
+import com.brsanthu.googleanalytics.GoogleAnalyticsTest;
+import com.brsanthu.googleanalytics.PageViewHit;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs the common tests against JDK implementation and checks the keep-alive
+ * behavior against a local http server.
+ */
+public class JdkGoogleAnalyticsTest extends GoogleAnalyticsTest {
+
+    @BeforeClass
+    public static void setup() {
+        ga = new JdkGoogleAnalytics("UA-44034973-2", "Junit Test", "1.0.0");
+        System.out.println("Creating Google Analytis Object");
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        final List<String> bodies = new CopyOnWriteArrayList<String>();
+        final Set<Integer> clientPorts = new HashSet<Integer>();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                bodies.add(read(exchange.getRequestBody()));
+                synchronized (clientPorts) {
+                    clientPorts.add(exchange.getRemoteAddress().getPort());
+                }
+
+                byte[] gif = new byte[35];
+                exchange.sendResponseHeaders(200, gif.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(gif);
+                out.close();
+            }
+        });
+        server.start();
+
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort();
+            GoogleAnalyticsConfig config = new GoogleAnalyticsConfig().setUseHttps(false)
+                    .setHttpUrl(url + "/collect").setHttpBatchUrl(url + "/batch");
+            JdkGoogleAnalytics jdkGa = new JdkGoogleAnalytics(config, "UA-44034973-2");
+
+            for (int i = 0; i < 5; i++) {
+                GoogleAnalyticsResponse response = jdkGa.post(new PageViewHit("http://www.google.com", "Search " + i));
+                assertEquals(200, response.getStatusCode());
+            }
+            jdkGa.close();
+
+            assertEquals(5, bodies.size());
+            assertTrue(bodies.get(4).contains("dt=Search+4"));
+            assertTrue(bodies.get(4).contains("tid=UA-44034973-2"));
+            assertEquals(1, clientPorts.size());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testBase64() throws Exception {
+        assertEquals("", UrlConnectionSender.base64("".getBytes("UTF-8")));
+        assertEquals("Zg==", UrlConnectionSender.base64("f".getBytes("UTF-8")));
+        assertEquals("Zm8=", UrlConnectionSender.base64("fo".getBytes("UTF-8")));
+        assertEquals("Zm9v", UrlConnectionSender.base64("foo".getBytes("UTF-8")));
+        assertEquals("dXNlcjpwYXNz", UrlConnectionSender.base64("user:pass".getBytes("UTF-8")));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[512];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class GoogleAnalyticsFlowProcessorTest {
+
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final AtomicInteger sending = new AtomicInteger();
+    private final AtomicInteger maxSending = new AtomicInteger();
+
+    private final GoogleAnalytics ga = new GoogleAnalytics(new GoogleAnalyticsConfig().setMaxThreads(4), "UA-1") {
+        @Override
+        protected void createClient() {
+        }
+
+        @Override
+        protected void sendRequest(GoogleAnalyticsResponse response, Map<String, String> postParms) {
+            maxSending.accumulateAndGet(sending.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sent.add(postParms.get("dp"));
+            response.setStatusCode(200);
+            sending.decrementAndGet();
+        }
+    };
+
+    @After
+    public void tearDown() {
+        ga.close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPostsPublishedRequests() throws Exception {
+        Flow.Processor<GoogleAnalyticsRequest<?>, GoogleAnalyticsResponse> processor =
+                (Flow.Processor<GoogleAnalyticsRequest<?>, GoogleAnalyticsResponse>) ga.newFlowProcessor(2);
+
+        List<Integer> statusCodes = new CopyOnWriteArrayList<>();
+        CountDownLatch completed = new CountDownLatch(1);
+        processor.subscribe(new Flow.Subscriber<GoogleAnalyticsResponse>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(GoogleAnalyticsResponse response) {
+                statusCodes.add(response.getStatusCode());
+            }
+
+            @Override
+            public void onError(Throwable error) {
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+
+        try (SubmissionPublisher<GoogleAnalyticsRequest<?>> requests = new SubmissionPublisher<>()) {
+            requests.subscribe(processor);
+            for (int i = 0; i < 20; i++) {
+                requests.submit(new PageViewHit().documentPath("/" + i));
+            }
+        }
+
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+        assertEquals(20, sent.size());
+        assertEquals(20, statusCodes.size());
+        assertTrue(statusCodes.stream().allMatch(code -> code == 200));
+        //Pulled only as many requests as are posted at once
+        assertTrue("Sent " + maxSending.get() + " at once", maxSending.get() <= 2);
+    }
+}
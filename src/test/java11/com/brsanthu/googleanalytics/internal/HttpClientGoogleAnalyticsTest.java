@@ -0,0 +1,257 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.brsanthu.googleanalytics.GoogleAnalyticsConfig;
+import com.brsanthu.googleanalytics.GoogleAnalyticsFuture;
+import com.brsanthu.googleanalytics.GoogleAnalyticsResponse;
+import com.brsanthu.googleanalytics.PageViewHit;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs the Java 11 implementation against a local http server, which also
+ * acts as the proxy.
+ */
+public class HttpClientGoogleAnalyticsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Requests received by the server. */
+    private final List<Received> received = new CopyOnWriteArrayList<>();
+    private volatile int statusCode = 200;
+    private volatile String proxyCredentials = null;
+    /** Responses wait for this, if set. */
+    private volatile CountDownLatch release = null;
+    private final CountDownLatch arrived = new CountDownLatch(2);
+
+    private final ExecutorService serverThreads = Executors.newCachedThreadPool();
+
+    private HttpServer server;
+    private String url;
+    private HttpClientGoogleAnalytics ga;
+
+    private static class Received {
+        final String uri;
+        final String contentType;
+        final String proxyAuthorization;
+        final String body;
+
+        Received(HttpExchange exchange) throws IOException {
+            this.uri = exchange.getRequestURI().toString();
+            this.contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            this.proxyAuthorization = exchange.getRequestHeaders().getFirst("Proxy-Authorization");
+            this.body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            Received request = new Received(exchange);
+            if (proxyCredentials != null && !proxyCredentials.equals(request.proxyAuthorization)) {
+                exchange.getResponseHeaders().add("Proxy-Authenticate", "Basic realm=\"proxy\"");
+                exchange.sendResponseHeaders(407, -1);
+                exchange.close();
+                return;
+            }
+
+            arrived.countDown();
+            if (release != null) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            received.add(request);
+            byte[] gif = new byte[35];
+            exchange.sendResponseHeaders(statusCode, gif.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(gif);
+            }
+        });
+        server.setExecutor(serverThreads);
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        if (release != null) {
+            release.countDown();
+        }
+        if (ga != null) {
+            ga.close();
+        }
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    private HttpClientGoogleAnalytics createAnalytics(GoogleAnalyticsConfig config) {
+        ga = new HttpClientGoogleAnalytics(config.setUseHttps(false).setHttpUrl(url + "/collect")
+                .setHttpBatchUrl(url + "/batch"), "UA-44034973-2");
+        return ga;
+    }
+
+    @Test
+    public void testIsSupported() throws Exception {
+        assertTrue(HttpClientGoogleAnalytics.isSupported());
+    }
+
+    @Test
+    public void testHttp2() throws Exception {
+        createAnalytics(new GoogleAnalyticsConfig());
+        assertEquals(HttpClient.Version.HTTP_2, ga.httpClient().version());
+
+        //Server does not upgrade to h2c, so client keeps to http/1.1
+        GoogleAnalyticsResponse response = ga.post(new PageViewHit("http://www.google.com", "Search"));
+        assertEquals(200, response.getStatusCode());
+        assertEquals("/collect", received.get(0).uri);
+        assertTrue(received.get(0).contentType.startsWith("application/x-www-form-urlencoded"));
+        assertTrue(received.get(0).body.contains("dt=Search"));
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        GoogleAnalyticsConfig config = new GoogleAnalyticsConfig();
+        config.setGatherStats(true);
+        createAnalytics(config);
+        List<GoogleAnalyticsFuture> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(ga.postAsync(new PageViewHit("http://www.google.com", "Search " + i), null));
+        }
+        for (GoogleAnalyticsFuture future : futures) {
+            assertEquals(200, future.get(5, TimeUnit.SECONDS).getStatusCode());
+        }
+
+        assertEquals(5, received.size());
+        assertEquals(5, ga.getStats().getPageViewHits());
+    }
+
+    @Test
+    public void testBatchUrl() throws Exception {
+        createAnalytics(new GoogleAnalyticsConfig().setBatchingEnabled(true).setBatchFlushInterval(0));
+        for (int i = 0; i < 3; i++) {
+            ga.post(new PageViewHit("http://www.google.com", "Search " + i));
+        }
+        ga.flush();
+
+        assertEquals(1, received.size());
+        assertEquals("/batch", received.get(0).uri);
+        assertTrue(received.get(0).contentType.startsWith("text/plain"));
+        assertEquals(3, received.get(0).body.split("\n").length);
+    }
+
+    @Test
+    public void testProxyAuthenticator() throws Exception {
+        proxyCredentials = "Basic " + UrlConnectionSender.base64("user:secret".getBytes(StandardCharsets.UTF_8));
+        ga = new HttpClientGoogleAnalytics(new GoogleAnalyticsConfig().setUseHttps(false)
+                .setHttpUrl("http://www.google-analytics.invalid/collect").setProxyHost("localhost")
+                .setProxyPort(server.getAddress().getPort()).setProxyUserName("user").setProxyPassword("secret"),
+                "UA-44034973-2");
+
+        GoogleAnalyticsResponse response = ga.post(new PageViewHit("http://www.google.com", "Search"));
+        assertEquals(200, response.getStatusCode());
+        assertEquals(1, received.size());
+        assertEquals("http://www.google-analytics.invalid/collect", received.get(0).uri);
+        assertEquals(proxyCredentials, received.get(0).proxyAuthorization);
+    }
+
+    @Test
+    public void testQueueCapacity() throws Exception {
+        release = new CountDownLatch(1);
+        createAnalytics(new GoogleAnalyticsConfig().setQueueCapacity(1).setMaxThreads(1));
+
+        GoogleAnalyticsFuture direct = ga.postAsync(new PageViewHit("http://www.google.com", "Direct"), null);
+        //Capacity is taken by the hit being sent, so the rest go to the executor
+        GoogleAnalyticsFuture executed = ga.postAsync(new PageViewHit("http://www.google.com", "Executed"), null);
+        assertTrue(arrived.await(5, TimeUnit.SECONDS));
+        GoogleAnalyticsFuture queued = ga.postAsync(new PageViewHit("http://www.google.com", "Queued"), null);
+        GoogleAnalyticsFuture dropped = ga.postAsync(new PageViewHit("http://www.google.com", "Dropped"), null);
+
+        assertTrue(dropped.isCancelled());
+        assertEquals(1, ga.getStats().getDroppedHits());
+
+        release.countDown();
+        assertEquals(200, direct.get(5, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(200, executed.get(5, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(200, queued.get(5, TimeUnit.SECONDS).getStatusCode());
+
+        //Capacity is back once the hits are sent
+        assertEquals(200, ga.postAsync(new PageViewHit("http://www.google.com", "Next"), null).get(5, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(4, received.size());
+    }
+
+    @Test
+    public void testAsyncSpoolsFailedHits() throws Exception {
+        statusCode = 503;
+        createAnalytics(new GoogleAnalyticsConfig().setSpoolDirectory(folder.getRoot().getPath())
+                .setSpoolReplayInterval(0));
+
+        assertEquals(503, ga.postAsync(new PageViewHit("http://www.google.com", "Unavailable"), null)
+                .get(5, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(1, ga.getStats().getSpooledHits());
+
+        server.stop(0);
+        GoogleAnalyticsFuture future = ga.postAsync(new PageViewHit("http://www.google.com", "Down"), null);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Send should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(2, ga.getStats().getSpooledHits());
+    }
+
+    @Test
+    public void testAsyncRetries() throws Exception {
+        statusCode = 503;
+        createAnalytics(new GoogleAnalyticsConfig().setMaxRetries(3).setRetryBaseDelay(100).setRetryMaxDelay(100));
+
+        assertEquals(503, ga.postAsync(new PageViewHit("http://www.google.com", "Unavailable"), null)
+                .get(5, TimeUnit.SECONDS).getStatusCode());
+        statusCode = 200;
+        for (int i = 0; i < 50 && received.size() < 2; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(2, received.size());
+        assertEquals(1, ga.getStats().getRetriedHits());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brsanthu.googleanalytics.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.brsanthu.googleanalytics.GoogleAnalyticsConfig;
+import com.brsanthu.googleanalytics.PageViewHit;
+import com.sun.net.httpserver.HttpServer;
+import java.net.Authenticator;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.Test;
+
+public class UrlConnectionSenderTest {
+
+    private static GoogleAnalyticsConfig proxyConfig(int port) {
+        return new GoogleAnalyticsConfig().setProxyHost("localhost").setProxyPort(port)
+                .setProxyUserName("user").setProxyPassword("secret");
+    }
+
+    private static PasswordAuthentication request(Authenticator authenticator, String host, int port,
+            Authenticator.RequestorType type) {
+        return authenticator.requestPasswordAuthenticationInstance(host, null, port, "https", "proxy", "Basic",
+                null, type);
+    }
+
+    @Test
+    public void testProxyAuthenticator() throws Exception {
+        Authenticator authenticator = new UrlConnectionSender(proxyConfig(3128)).getProxyAuthenticator();
+
+        PasswordAuthentication credentials = request(authenticator, "localhost", 3128, Authenticator.RequestorType.PROXY);
+        assertEquals("user", credentials.getUserName());
+        assertEquals("secret", new String(credentials.getPassword()));
+
+        //Not handed to other servers
+        assertNull(request(authenticator, "localhost", 3128, Authenticator.RequestorType.SERVER));
+        assertNull(request(authenticator, "localhost", 8080, Authenticator.RequestorType.PROXY));
+        assertNull(request(authenticator, "www.google-analytics.com", 3128, Authenticator.RequestorType.PROXY));
+    }
+
+    @Test
+    public void testHttpProxyCredentials() throws Exception {
+        List<String> received = new CopyOnWriteArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            received.add(exchange.getRequestURI() + " " + exchange.getRequestHeaders().getFirst("Proxy-Authorization"));
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+
+        try {
+            JdkGoogleAnalytics ga = new JdkGoogleAnalytics(proxyConfig(server.getAddress().getPort()).setUseHttps(false)
+                    .setHttpUrl("http://www.google-analytics.invalid/collect"), "UA-44034973-2");
+            assertEquals(200, ga.post(new PageViewHit("http://www.google.com", "Search")).getStatusCode());
+            ga.close();
+
+            String credentials = UrlConnectionSender.base64("user:secret".getBytes(StandardCharsets.UTF_8));
+            assertEquals("[http://www.google-analytics.invalid/collect Basic " + credentials + "]", received.toString());
+        } finally {
+            server.stop(0);
+        }
+    }
+}